@@ -4,7 +4,7 @@ include $(CLEAR_VARS)
 
 
 LOCAL_MODULE    := native-fft
-LOCAL_SRC_FILES := native-fft.cpp FFT.cpp
+LOCAL_SRC_FILES := native-fft.cpp FFT.cpp PeakDetector.cpp Matrix.cpp
 
 LOCAL_LDLIBS    += -llog -ldl
 
@@ -64,3 +64,262 @@ std::vector<complexdbl> internal_FFT(std::vector<complexdbl> data, std::vector<c
 
     return buf;
 }
+
+bool ComplexFFTPlan::isSmooth(uint32_t n)
+{
+    if (n == 0) return false;
+
+    const uint32_t radices[] = {2, 3, 5, 7};
+    for (uint32_t p : radices) {
+        while (n % p == 0) n /= p;
+    }
+    return n == 1;
+}
+
+ComplexFFTPlan::ComplexFFTPlan(uint32_t n)
+{
+    N = n > 0 ? n : 1;
+    if (N > 1 && !isSmooth(N)) {
+        uint32_t M = ceilpw2(2 * N - 1);
+        conv.reset(new ComplexFFTPlan(M));
+        chirp.resize(N);
+        kernel.assign(M, complexdbl(0, 0));
+        conv_in.resize(M);
+        conv_out.resize(M);
+
+        // e^(-i*pi*k^2/N), with k^2 reduced modulo 2N to keep the angle accurate
+        for (uint32_t k = 0; k < N; k++) {
+            uint64_t k2 = ((uint64_t) k * k) % (2 * (uint64_t) N);
+            double radius = M_PI * (double) k2 / N;
+            chirp[k] = complexdbl(cos(radius), -sin(radius));
+        }
+
+        std::vector<complexdbl> b(M, complexdbl(0, 0));
+        b[0] = std::conj(chirp[0]);
+        for (uint32_t k = 1; k < N; k++) {
+            b[k] = std::conj(chirp[k]);
+            b[M - k] = std::conj(chirp[k]);
+        }
+        conv->transform(b.data(), kernel.data());
+        return;
+    }
+
+    // Radix 4 first, then 2, 3, 5 and 7, the same order as KISS FFT
+    uint32_t rest = N;
+    uint32_t p = 4;
+    while (rest > 1) {
+        while (rest % p) {
+            switch (p) {
+                case 4: p = 2; break;
+                case 2: p = 3; break;
+                default: p += 2; break;
+            }
+        }
+        rest /= p;
+        factors.push_back(p);
+        factors.push_back(rest);
+    }
+
+    twiddles = getTwiddleFactors(N);
+    scratch.resize(7);
+}
+
+void ComplexFFTPlan::transform(const complexdbl* in, complexdbl* out)
+{
+    if (N == 1) {
+        out[0] = in[0];
+        return;
+    }
+
+    if (!conv) {
+        work(out, in, 1, factors.data());
+        return;
+    }
+
+    uint32_t M = conv->size();
+    for (uint32_t k = 0; k < N; k++)
+        conv_in[k] = in[k] * chirp[k];
+    std::fill(conv_in.begin() + N, conv_in.end(), complexdbl(0, 0));
+    conv->transform(conv_in.data(), conv_out.data());
+
+    // The inverse transform as the conjugate of the forward transform of the conjugate
+    for (uint32_t k = 0; k < M; k++)
+        conv_in[k] = std::conj(conv_out[k] * kernel[k]);
+    conv->transform(conv_in.data(), conv_out.data());
+
+    for (uint32_t k = 0; k < N; k++)
+        out[k] = std::conj(conv_out[k]) * chirp[k] / (double) M;
+}
+
+void ComplexFFTPlan::work(complexdbl* out, const complexdbl* in, uint32_t fstride,
+                          const uint32_t* stage)
+{
+    uint32_t p = stage[0];
+    uint32_t m = stage[1];
+
+    if (m == 1) {
+        for (uint32_t i = 0; i < p; i++)
+            out[i] = in[i * fstride];
+    } else {
+        for (uint32_t i = 0; i < p; i++)
+            work(out + i * m, in + i * fstride, fstride * p, stage + 2);
+    }
+
+    switch (p) {
+        case 2: butterfly2(out, fstride, m); break;
+        case 3: butterfly3(out, fstride, m); break;
+        case 4: butterfly4(out, fstride, m); break;
+        case 5: butterfly5(out, fstride, m); break;
+        default: butterflyGeneric(out, fstride, m, p); break;
+    }
+}
+
+void ComplexFFTPlan::butterfly2(complexdbl* out, uint32_t fstride, uint32_t m)
+{
+    for (uint32_t u = 0; u < m; u++) {
+        complexdbl t = out[u + m] * twiddles[u * fstride];
+        out[u + m] = out[u] - t;
+        out[u] += t;
+    }
+}
+
+void ComplexFFTPlan::butterfly3(complexdbl* out, uint32_t fstride, uint32_t m)
+{
+    double epi3 = twiddles[fstride * m].imag();
+    for (uint32_t u = 0; u < m; u++) {
+        complexdbl s1 = out[u + m] * twiddles[u * fstride];
+        complexdbl s2 = out[u + 2 * m] * twiddles[2 * u * fstride];
+        complexdbl s3 = s1 + s2;
+        complexdbl s0 = (s1 - s2) * epi3;
+
+        complexdbl mid = out[u] - s3 * 0.5;
+        out[u] += s3;
+        out[u + 2 * m] = complexdbl(mid.real() + s0.imag(), mid.imag() - s0.real());
+        out[u + m] = complexdbl(mid.real() - s0.imag(), mid.imag() + s0.real());
+    }
+}
+
+void ComplexFFTPlan::butterfly4(complexdbl* out, uint32_t fstride, uint32_t m)
+{
+    for (uint32_t u = 0; u < m; u++) {
+        complexdbl s0 = out[u + m] * twiddles[u * fstride];
+        complexdbl s1 = out[u + 2 * m] * twiddles[2 * u * fstride];
+        complexdbl s2 = out[u + 3 * m] * twiddles[3 * u * fstride];
+
+        complexdbl s5 = out[u] - s1;
+        complexdbl f0 = out[u] + s1;
+        complexdbl s3 = s0 + s2;
+        complexdbl s4 = s0 - s2;
+
+        out[u + 2 * m] = f0 - s3;
+        out[u] = f0 + s3;
+        out[u + m] = complexdbl(s5.real() + s4.imag(), s5.imag() - s4.real());
+        out[u + 3 * m] = complexdbl(s5.real() - s4.imag(), s5.imag() + s4.real());
+    }
+}
+
+void ComplexFFTPlan::butterfly5(complexdbl* out, uint32_t fstride, uint32_t m)
+{
+    complexdbl ya = twiddles[fstride * m];
+    complexdbl yb = twiddles[fstride * 2 * m];
+    for (uint32_t u = 0; u < m; u++) {
+        complexdbl s0 = out[u];
+        complexdbl s1 = out[u + m] * twiddles[u * fstride];
+        complexdbl s2 = out[u + 2 * m] * twiddles[2 * u * fstride];
+        complexdbl s3 = out[u + 3 * m] * twiddles[3 * u * fstride];
+        complexdbl s4 = out[u + 4 * m] * twiddles[4 * u * fstride];
+
+        complexdbl s7 = s1 + s4;
+        complexdbl s10 = s1 - s4;
+        complexdbl s8 = s2 + s3;
+        complexdbl s9 = s2 - s3;
+
+        out[u] = s0 + s7 + s8;
+
+        complexdbl s5(s0.real() + s7.real() * ya.real() + s8.real() * yb.real(),
+                      s0.imag() + s7.imag() * ya.real() + s8.imag() * yb.real());
+        complexdbl s6(s10.imag() * ya.imag() + s9.imag() * yb.imag(),
+                      -s10.real() * ya.imag() - s9.real() * yb.imag());
+        out[u + m] = s5 - s6;
+        out[u + 4 * m] = s5 + s6;
+
+        complexdbl s11(s0.real() + s7.real() * yb.real() + s8.real() * ya.real(),
+                       s0.imag() + s7.imag() * yb.real() + s8.imag() * ya.real());
+        complexdbl s12(-s10.imag() * yb.imag() + s9.imag() * ya.imag(),
+                       s10.real() * yb.imag() - s9.real() * ya.imag());
+        out[u + 2 * m] = s11 + s12;
+        out[u + 3 * m] = s11 - s12;
+    }
+}
+
+void ComplexFFTPlan::butterflyGeneric(complexdbl* out, uint32_t fstride, uint32_t m, uint32_t p)
+{
+    if (scratch.size() < p) scratch.resize(p);
+
+    for (uint32_t u = 0; u < m; u++) {
+        for (uint32_t q = 0; q < p; q++)
+            scratch[q] = out[u + q * m];
+
+        for (uint32_t q1 = 0; q1 < p; q1++) {
+            uint32_t k = u + q1 * m;
+            uint32_t twidx = 0;
+            complexdbl sum = scratch[0];
+            for (uint32_t q = 1; q < p; q++) {
+                twidx += fstride * k;
+                if (twidx >= N) twidx %= N;
+                sum += scratch[q] * twiddles[twidx];
+            }
+            out[k] = sum;
+        }
+    }
+}
+
+FFTPlan::FFTPlan(uint32_t n)
+        : N(n > 0 ? n : 1), cplx(N % 2 == 0 ? N / 2 : N)
+{
+    // The bins of the packed transform are split with e^(-2*pi*i*k/N)
+    if (N % 2 == 0) {
+        post_twiddle.resize(N / 2 + 1);
+        for (uint32_t k = 0; k <= N / 2; k++) {
+            double radius = 2 * M_PI * k / N;
+            post_twiddle[k] = complexdbl(cos(radius), -sin(radius));
+        }
+    }
+    buf_in.resize(cplx.size());
+    buf_out.resize(cplx.size());
+}
+
+uint32_t FFTPlan::transformAbs(const double* in, uint32_t num_in, double* out, uint32_t num_out)
+{
+    const double scale = 1.0 / std::sqrt((double) N);
+    uint32_t count = num_out < numBins() ? num_out : numBins();
+
+    if (N % 2 != 0) {
+        for (uint32_t i = 0; i < N; i++)
+            buf_in[i] = complexdbl(i < num_in ? in[i] : 0, 0);
+        cplx.transform(buf_in.data(), buf_out.data());
+
+        for (uint32_t k = 0; k < count; k++)
+            out[k] = std::abs(buf_out[k]) * scale;
+        return count;
+    }
+
+    // Pack the even and odd samples as the real and imaginary parts of a half size signal
+    uint32_t M = N / 2;
+    for (uint32_t m = 0; m < M; m++) {
+        double re = 2 * m < num_in ? in[2 * m] : 0;
+        double im = 2 * m + 1 < num_in ? in[2 * m + 1] : 0;
+        buf_in[m] = complexdbl(re, im);
+    }
+    cplx.transform(buf_in.data(), buf_out.data());
+
+    for (uint32_t k = 0; k < count; k++) {
+        complexdbl z = buf_out[k % M];
+        complexdbl zc = std::conj(buf_out[(M - k) % M]);
+        complexdbl even = (z + zc) * 0.5;
+        complexdbl odd = (z - zc) * complexdbl(0, -0.5);
+        out[k] = std::abs(even + post_twiddle[k] * odd) * scale;
+    }
+
+    return count;
+}
@@ -11,6 +11,7 @@
 #include <complex>
 #include <cmath>
 #include <type_traits>
+#include <memory>
 
 #define UNITARY_FACTOR 0.70710678118
 typedef std::complex<double> complexdbl;
@@ -33,6 +34,67 @@ public:
     static std::vector< std::complex<T> > inv_transform(std::vector< std::complex<T> > spectrum);
 };
 
+// A forward complex transform of any size. Sizes whose prime factors are all up to 7 run a mixed
+// radix algorithm directly, other sizes go through Bluestein's chirp z-transform on a power of
+// two. A plan owns its scratch buffers, so it must not be used by two threads at the same time.
+class ComplexFFTPlan
+{
+public:
+    explicit ComplexFFTPlan(uint32_t n);
+
+    uint32_t size() const { return N; }
+
+    // Unscaled, in and out must not overlap
+    void transform(const complexdbl* in, complexdbl* out);
+
+    static bool isSmooth(uint32_t n);
+
+private:
+    void work(complexdbl* out, const complexdbl* in, uint32_t fstride, const uint32_t* factors);
+    void butterfly2(complexdbl* out, uint32_t fstride, uint32_t m);
+    void butterfly3(complexdbl* out, uint32_t fstride, uint32_t m);
+    void butterfly4(complexdbl* out, uint32_t fstride, uint32_t m);
+    void butterfly5(complexdbl* out, uint32_t fstride, uint32_t m);
+    void butterflyGeneric(complexdbl* out, uint32_t fstride, uint32_t m, uint32_t p);
+
+    uint32_t N;
+    // Pairs of the radix of a stage and the size of its sub-transforms
+    std::vector<uint32_t> factors;
+    std::vector<complexdbl> twiddles;
+    std::vector<complexdbl> scratch;
+
+    // Bluestein: the chirp, the transform of its conjugate and the convolution of size M >= 2N-1
+    std::unique_ptr<ComplexFFTPlan> conv;
+    std::vector<complexdbl> chirp;
+    std::vector<complexdbl> kernel;
+    std::vector<complexdbl> conv_in;
+    std::vector<complexdbl> conv_out;
+};
+
+// Precomputed tables for the real-input transform of a fixed size. An even size N is computed
+// through an N/2-point complex transform, an odd size through an N-point one, and only the
+// N/2+1 bins of the non-negative frequencies are produced. Like ComplexFFTPlan, a plan is not
+// thread-safe.
+class FFTPlan
+{
+public:
+    explicit FFTPlan(uint32_t n);
+
+    uint32_t size() const { return N; }
+    uint32_t numBins() const { return N / 2 + 1; }
+
+    // Writes min(num_out, numBins()) magnitudes scaled by 1/sqrt(size()), the same as
+    // FFT::transform for a power of two size, the input is zero padded or truncated to the size
+    uint32_t transformAbs(const double* in, uint32_t num_in, double* out, uint32_t num_out);
+
+private:
+    uint32_t N;
+    ComplexFFTPlan cplx;
+    std::vector<complexdbl> post_twiddle;
+    std::vector<complexdbl> buf_in;
+    std::vector<complexdbl> buf_out;
+};
+
 uint32_t ceilpw2(uint32_t k);
 void bitReversalSwap(std::vector<complexdbl>& data);
 std::vector<complexdbl> getTwiddleFactors(uint32_t N);
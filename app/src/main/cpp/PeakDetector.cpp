@@ -1,6 +1,8 @@
 #include "PeakDetector.h"
 #include <iostream>
 #include <vector>
+#include <map>
+#include <mutex>
 #include "Matrix.h"
 
 #ifndef __PEAK_DETECTOR_CPP__
@@ -39,4 +41,97 @@ Matrix<double> PeakDetector::_quadratic_feature(std::vector<double> data, peak_d
     return fmat;
 }
 
+const QuadraticFit* QuadraticFit::get(int num_points, int step) {
+    static std::mutex lock;
+    static std::map<std::pair<int, int>, QuadraticFit*> fits;
+
+    std::lock_guard<std::mutex> guard(lock);
+    std::pair<int, int> key(num_points, step);
+    std::map<std::pair<int, int>, QuadraticFit*>::iterator it = fits.find(key);
+    if (it != fits.end())
+        return it->second;
+
+    QuadraticFit* fit = new QuadraticFit(num_points, step);
+    fits[key] = fit;
+    return fit;
+}
+
+QuadraticFit::QuadraticFit(int num_points, int step)
+        : mNumPoints(num_points), mStep(step), mWeights(3 * num_points) {
+    Matrix<double> A(num_points, 3);
+    for (int j = 0; j < num_points; j++) {
+        double v = 1;
+        for (int k = 0; k < 3; k++) {
+            A[j][2-k] = v;
+            v *= -(num_points/2 - j)*step;
+        }
+    }
+
+    Matrix<double> W = (A.transpose() * A).pinv() * A.transpose();
+    for (int k = 0; k < 3; k++)
+        for (int j = 0; j < num_points; j++)
+            mWeights[k * num_points + j] = W[k][j];
+}
+
+void QuadraticFit::fit(const double* y, double* coeffs) const {
+    for (int k = 0; k < 3; k++) {
+        const double* w = &mWeights[k * mNumPoints];
+        double sum = 0;
+        for (int j = 0; j < mNumPoints; j++)
+            sum += w[j] * y[j];
+        coeffs[k] = sum;
+    }
+}
+
+void PeakDetector::quadratic_feature_into(const double* data, int size, double min_norm_factor,
+                                          const int* targets, int num_targets,
+                                          const QuadraticFit* fit, double* out) {
+    // Reused by the calls of the same thread, the local normalization of a target is seen by
+    // the following targets exactly as in quadratic_feature()
+    static thread_local std::vector<double> normalized;
+    static thread_local std::vector<double> y;
+
+    double norm_factor = min_norm_factor;
+    for (int i = 0; i < size; i++) {
+        if (data[i] > norm_factor)
+            norm_factor = data[i];
+    }
+
+    normalized.resize(size);
+    for (int i = 0; i < size; i++)
+        normalized[i] = data[i] / norm_factor;
+
+    int num_points = fit->num_points();
+    for (int i = 0; i < num_targets; i++) {
+        int from = targets[i] - num_points/2;
+        double norm_factor_l = 0;
+        for (int j = from; j < from + num_points; j++) {
+            if (j >= 0 && j < size && normalized[j] > norm_factor_l)
+                norm_factor_l = normalized[j];
+        }
+
+        if (norm_factor_l < norm_factor/10.0)
+            continue;
+
+        for (int j = from; j < from + num_points; j++) {
+            if (j >= 0 && j < size)
+                normalized[j] /= norm_factor_l;
+        }
+    }
+
+    y.resize(num_points);
+    for (int i = 0; i < num_targets; i++) {
+        for (int j = 0; j < num_points; j++) {
+            int idx = targets[i] - (num_points/2 - j)*fit->step();
+            y[j] = (idx >= 0 && idx < size) ? normalized[idx] : 0;
+            out[(j+3) * num_targets + i] = y[j];
+        }
+
+        double coeffs[3];
+        fit->fit(y.data(), coeffs);
+        for (int k = 0; k < 3; k++)
+            out[k * num_targets + i] = coeffs[k];
+    }
+}
+
 #endif
@@ -27,8 +27,35 @@ typedef struct {
     int num_points;
 } peak_detector_params_t;
 
+// The least squares fit of y = a*x^2 + b*x + c over num_points bins spaced by step around a
+// target. The design matrix only depends on num_points and step, so its pseudo-inverse is
+// computed once and a fit is reduced to three dot products. Fits are shared and immutable.
+class QuadraticFit {
+public:
+    static const QuadraticFit* get(int num_points, int step);
+
+    int num_points() const { return mNumPoints; }
+    int step() const { return mStep; }
+
+    // Writes the coefficients a, b and c of the num_points values of y
+    void fit(const double* y, double* coeffs) const;
+
+private:
+    QuadraticFit(int num_points, int step);
+
+    int mNumPoints;
+    int mStep;
+    std::vector<double> mWeights;
+};
+
 class PeakDetector {
 public:
+    // The same features as quadratic_feature(), written into out as 3 + num_points rows of
+    // num_targets columns. Bins out of the data range are read as zeros.
+    static void quadratic_feature_into(const double* data, int size, double min_norm_factor,
+                                       const int* targets, int num_targets,
+                                       const QuadraticFit* fit, double* out);
+
     template<class T> static std::vector< Peak<T> > find_peak(std::vector<T> data, T norm_factor, peak_detector_params_t params);
     template<class T> static Matrix<double> quadratic_feature(std::vector<T> data, T norm_factor, peak_detector_params_t params);
 
@@ -1,9 +1,13 @@
 #include "buffer.h"
 
+#include <poll.h>
+#include <sys/eventfd.h>
+#include <unistd.h>
+
 #include <fstream>
 #include <iostream>
 int audio_record::RingBuffer::push(void* buffer, int frames) {
-  if (!mAvail) return 0;
+  if (!mAvail || mData == nullptr) return 0;
 
   int size_in_byte = frames * mChannel * mSizePerSample;
   int avail_size = mLen - mHead;
@@ -62,3 +66,68 @@ int audio_record::RingBuffer::SaveWav(const char* filename, wav_header WavHDR) {
   mAvail = true;
   return 0;
 }
+
+audio_record::StreamFifo::~StreamFifo() {
+  if (mEventFd >= 0) close(mEventFd);
+  delete[] mData;
+}
+
+int audio_record::StreamFifo::init(int size) {
+  if (size <= 0) return -1;
+
+  mLen = size;
+  mData = new char[mLen];
+  mEventFd = eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+  return mEventFd >= 0 ? 0 : -1;
+}
+
+int audio_record::StreamFifo::push(void* buffer, int frames) {
+  if (mData == nullptr) return -1;
+
+  int size_in_byte = frames * mChannel * mSizePerSample;
+  uint64_t written = mWritten.load(std::memory_order_relaxed);
+  uint64_t consumed = mRead.load(std::memory_order_acquire);
+  if (written - consumed + size_in_byte > (uint64_t)mLen) {
+    mDropped.fetch_add(size_in_byte, std::memory_order_relaxed);
+    wakeup();
+    return -1;
+  }
+
+  int pos = (int)(written % mLen);
+  int first = std::min(size_in_byte, mLen - pos);
+  memcpy(mData + pos, buffer, first);
+  memcpy(mData, (char*)buffer + first, size_in_byte - first);
+  mWritten.store(written + size_in_byte, std::memory_order_release);
+
+  wakeup();
+  return 0;
+}
+
+int audio_record::StreamFifo::pop(char* dest, int size, int timeout_ms) {
+  if (mData == nullptr || size <= 0 || size > mLen) return -1;
+
+  uint64_t consumed = mRead.load(std::memory_order_relaxed);
+  while (mWritten.load(std::memory_order_acquire) - consumed < (uint64_t)size) {
+    struct pollfd pfd = {mEventFd, POLLIN, 0};
+    if (poll(&pfd, 1, timeout_ms) <= 0) return 0;
+
+    uint64_t counter;
+    if (read(mEventFd, &counter, sizeof(counter)) < 0 &&
+        mWritten.load(std::memory_order_acquire) - consumed < (uint64_t)size)
+      return 0;
+  }
+
+  int pos = (int)(consumed % mLen);
+  int first = std::min(size, mLen - pos);
+  memcpy(dest, mData + pos, first);
+  memcpy(dest + first, mData, size - first);
+  mRead.store(consumed + size, std::memory_order_release);
+  return size;
+}
+
+void audio_record::StreamFifo::wakeup() {
+  if (mEventFd < 0) return;
+
+  uint64_t one = 1;
+  write(mEventFd, &one, sizeof(one));
+}
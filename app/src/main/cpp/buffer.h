@@ -1,6 +1,9 @@
 #ifndef RING_BUFFER
 #define RING_BUFFER
 
+#include <atomic>
+#include <cstdint>
+
 #include "wav_header.h"
 namespace audio_record {
 class RingBuffer {
@@ -23,6 +26,34 @@ class RingBuffer {
   int mChannel = 0;
   char* mData = nullptr;
 };
+
+// Single-producer single-consumer FIFO which streams the captured data from
+// the audio callback to a reader thread. The callback never blocks: data that
+// does not fit is dropped and accounted. The reader sleeps on an eventfd which
+// the callback signals after each push.
+class StreamFifo {
+ public:
+  StreamFifo(int SizePerSample, int channel)
+      : mSizePerSample(SizePerSample), mChannel(channel) {}
+
+  ~StreamFifo();
+
+  int init(int size);
+  int push(void* buffer, int frames);
+  int pop(char* dest, int size, int timeout_ms);
+  void wakeup();
+  uint64_t dropped() { return mDropped.load(); }
+
+ private:
+  int mSizePerSample = 0;
+  int mChannel = 0;
+  int mLen = 0;
+  int mEventFd = -1;
+  char* mData = nullptr;
+  std::atomic<uint64_t> mWritten{0};
+  std::atomic<uint64_t> mRead{0};
+  std::atomic<uint64_t> mDropped{0};
+};
 }  // namespace audio_record
 
 #endif /* RING_BUFFER */
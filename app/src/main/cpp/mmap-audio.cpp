@@ -9,10 +9,11 @@
 aaudio_data_callback_result_t RecordCallback(AAudioStream *stream,
                                              void *userData, void *audioData,
                                              int32_t numFrames) {
-  if (((audio_record::AAudioRecord *)userData)
-          ->GetRingBuffer()
-          ->push(audioData, numFrames))
+  auto *record = (audio_record::AAudioRecord *)userData;
+  if (record->GetRingBuffer()->push(audioData, numFrames))
     LOGE("Recording push buffer error");
+  if (record->GetStreamFifo() != nullptr)
+    record->GetStreamFifo()->push(audioData, numFrames);
 
   return AAUDIO_CALLBACK_RESULT_CONTINUE;
 }
@@ -42,15 +43,21 @@ int audio_record::AAudioRecord::OpenInput(FORMAT_T format, int ch, int sr,
   // AAudioStreamBuilder_setErrorCallback(inputStreamBuilder,
   // AAudioErrorCallback, NULL);
 
-  if (((AAudioStreamBuilder_openStream(inputStreamBuilder,
-                                        &mRecordingStream) != AAUDIO_OK) &&
-        (mRecordingStream != nullptr))) {
+  aaudio_result_t result =
+      AAudioStreamBuilder_openStream(inputStreamBuilder, &mRecordingStream);
+  if (result != AAUDIO_OK || mRecordingStream == nullptr) {
     AAudioStreamBuilder_delete(inputStreamBuilder);
-    LOGE("AAduio Recording open fail");
-    return -1;
+    LOGE("AAduio Recording open fail: %s",
+         AAudio_convertResultToText(result));
+    mRecordingStream = nullptr;
+    return result != AAUDIO_OK ? result : -1;
   }
 
   AAudioStreamBuilder_delete(inputStreamBuilder);
+  mFifo = new audio_record::StreamFifo(bytePerSample(format), ch);
+  if (mFifo->init(bytePerSample(format) * ch * sr / 2))
+    LOGE("Stream fifo init fail!");
+
   mBuffer = new audio_record::RingBuffer(bytePerSample(format), ch);
   if (mBuffer->init(bufferSize)) {
     LOGE("Buffer init fail!");
@@ -65,9 +72,11 @@ int audio_record::AAudioRecord::OpenInput(FORMAT_T format, int ch, int sr,
 
 int audio_record::AAudioRecord::StartRecord(void) {
   if (mRecordingStream != nullptr) {
-    if (AAudioStream_requestStart(mRecordingStream) != AAUDIO_OK) {
-      LOGE("AAduio Input starting fail");
-      return -1;
+    aaudio_result_t result = AAudioStream_requestStart(mRecordingStream);
+    if (result != AAUDIO_OK) {
+      LOGE("AAduio Input starting fail: %s",
+           AAudio_convertResultToText(result));
+      return result;
     }
   } else {
     LOGE("AAduio Input invalid");
@@ -83,6 +92,7 @@ int audio_record::AAudioRecord::StopRecord(void) {
       return -1;
     }
   }
+  if (mFifo != nullptr) mFifo->wakeup();
   LOGD("%s: Stop ", __func__);
   return 0;
 }
@@ -96,8 +106,20 @@ void audio_record::AAudioRecord::ReleaseRecord(void) {
     delete mBuffer;
     mBuffer = nullptr;
   }
+  if (mFifo != nullptr) {
+    if (mFifo->dropped() > 0)
+      LOGE("%s: %llu bytes dropped by stream fifo", __func__,
+           (unsigned long long)mFifo->dropped());
+    delete mFifo;
+    mFifo = nullptr;
+  }
 }
 
 int audio_record::AAudioRecord::SaveFile(const char *filename) {
   return mBuffer->SaveWav(filename, mWavHDR);
 }
+
+int audio_record::AAudioRecord::Read(char *dest, int size, int timeout_ms) {
+  if (mFifo == nullptr) return -1;
+  return mFifo->pop(dest, size, timeout_ms);
+}
@@ -15,11 +15,14 @@ public:
     void ReleaseRecord(void );
 
     int SaveFile(const char* filename);
+    int Read(char* dest, int size, int timeout_ms);
     audio_record::RingBuffer* GetRingBuffer(){return mBuffer;}
+    audio_record::StreamFifo* GetStreamFifo(){return mFifo;}
 
 private:
     AAudioStream* mRecordingStream = nullptr;
     audio_record::RingBuffer* mBuffer = nullptr;
+    audio_record::StreamFifo* mFifo = nullptr;
     wav_header mWavHDR = {};
 };
 }  // namespace audio_record
@@ -5,6 +5,7 @@
 #include <jni.h>
 #include <string>
 #include "FFT.h"
+#include "PeakDetector.h"
 
 extern "C"
 {
@@ -37,4 +38,73 @@ JNIEXPORT jdoubleArray JNICALL Java_com_google_audioworker_utils_signalproc_FFT_
 
     return jspectrum_amp;
 }
+
+JNIEXPORT jlong JNICALL Java_com_google_audioworker_utils_signalproc_FFT_nativeCreatePlan(
+        JNIEnv *env, jclass clazz, jint n) {
+    return (jlong) new FFTPlan((uint32_t) (n > 0 ? n : 1));
+}
+
+JNIEXPORT jint JNICALL Java_com_google_audioworker_utils_signalproc_FFT_nativePlanSize(
+        JNIEnv *env, jclass clazz, jlong handle) {
+    return (jint) ((FFTPlan *) handle)->size();
+}
+
+JNIEXPORT void JNICALL Java_com_google_audioworker_utils_signalproc_FFT_nativeDestroyPlan(
+        JNIEnv *env, jclass clazz, jlong handle) {
+    delete (FFTPlan *) handle;
+}
+
+JNIEXPORT jint JNICALL Java_com_google_audioworker_utils_signalproc_FFT_nativeTransformAbsInto(
+        JNIEnv *env, jclass clazz, jlong handle, jdoubleArray jsignal, jdoubleArray jspectrum) {
+    FFTPlan *plan = (FFTPlan *) handle;
+    jsize num_in = env->GetArrayLength(jsignal);
+    jsize num_out = env->GetArrayLength(jspectrum);
+
+    // No JNI call is allowed until both arrays are released
+    double *signal = (double *) env->GetPrimitiveArrayCritical(jsignal, nullptr);
+    if (signal == nullptr) return -1;
+    double *spectrum = (double *) env->GetPrimitiveArrayCritical(jspectrum, nullptr);
+    if (spectrum == nullptr) {
+        env->ReleasePrimitiveArrayCritical(jsignal, signal, JNI_ABORT);
+        return -1;
+    }
+
+    uint32_t count = plan->transformAbs(signal, (uint32_t) num_in, spectrum, (uint32_t) num_out);
+
+    env->ReleasePrimitiveArrayCritical(jspectrum, spectrum, 0);
+    env->ReleasePrimitiveArrayCritical(jsignal, signal, JNI_ABORT);
+    return (jint) count;
+}
+
+JNIEXPORT jint JNICALL Java_com_google_audioworker_utils_signalproc_FFT_nativeTransformAbsAndExtractFeatures(
+        JNIEnv *env, jclass clazz, jlong handle, jdoubleArray jsignal, jintArray jindices,
+        jdouble min_norm_factor, jint num_points, jint step, jdoubleArray jfeatures) {
+    FFTPlan *plan = (FFTPlan *) handle;
+    if (num_points <= 0 || step <= 0) return -1;
+
+    const QuadraticFit *fit = QuadraticFit::get(num_points, step);
+    jsize num_in = env->GetArrayLength(jsignal);
+    jsize num_targets = env->GetArrayLength(jindices);
+    if (env->GetArrayLength(jfeatures) < (3 + num_points) * num_targets) return -1;
+
+    // Only the bins below the Nyquist frequency, the spectrum never leaves the native side
+    static thread_local std::vector<double> spectrum;
+    static thread_local std::vector<int> targets;
+    spectrum.resize(plan->size() / 2);
+    targets.resize(num_targets);
+    env->GetIntArrayRegion(jindices, 0, num_targets, targets.data());
+
+    double *signal = (double *) env->GetPrimitiveArrayCritical(jsignal, nullptr);
+    if (signal == nullptr) return -1;
+    plan->transformAbs(signal, (uint32_t) num_in, spectrum.data(), (uint32_t) spectrum.size());
+    env->ReleasePrimitiveArrayCritical(jsignal, signal, JNI_ABORT);
+
+    double *features = (double *) env->GetPrimitiveArrayCritical(jfeatures, nullptr);
+    if (features == nullptr) return -1;
+    PeakDetector::quadratic_feature_into(spectrum.data(), (int) spectrum.size(), min_norm_factor,
+                                         targets.data(), num_targets, fit, features);
+    env->ReleasePrimitiveArrayCritical(jfeatures, features, 0);
+
+    return num_targets;
+}
 }
@@ -17,39 +17,40 @@ static audio_record::OpenSLRecord mOpenSLRecord[MAX_STREAM];
 /*********************************************************************************/
 extern "C" {
 
-JNIEXPORT void JNICALL
+// Returns 0 once the stream is open or started, or a negative native error
+JNIEXPORT jint JNICALL
 Java_com_google_audioworker_functions_controllers_RecordController_openInput(
     JNIEnv *env, jobject instance, jint format, jint channel, jint sample_rate,
     jint input_source, jint perf, jint dumpBufferSize, jint api, jint index) {
-  if (index >= MAX_STREAM) return;
+  if (index >= MAX_STREAM) return -1;
   switch (api) {
     case AAUDIO:
-      mAAudioRecord[index].OpenInput((FORMAT_T)format, channel, sample_rate,
-                                      input_source, perf, dumpBufferSize);
-      break;
+      return mAAudioRecord[index].OpenInput((FORMAT_T)format, channel,
+                                            sample_rate, input_source, perf,
+                                            dumpBufferSize);
     case OPENSLES:
-      mOpenSLRecord[index].OpenInput((FORMAT_T)format, channel, sample_rate,
-                                      input_source, perf, dumpBufferSize);
-      break;
+      return mOpenSLRecord[index].OpenInput((FORMAT_T)format, channel,
+                                            sample_rate, input_source, perf,
+                                            dumpBufferSize);
     default:
       LOGE("Unsupported API %d", api);
   }
+  return -1;
 }
 
-JNIEXPORT void JNICALL
+JNIEXPORT jint JNICALL
 Java_com_google_audioworker_functions_controllers_RecordController_startRecording(
     JNIEnv *env, jobject instance, jint api, jint index) {
-  if (index >= MAX_STREAM) return;
+  if (index >= MAX_STREAM) return -1;
   switch (api) {
     case AAUDIO:
-      mAAudioRecord[index].StartRecord();
-      break;
+      return mAAudioRecord[index].StartRecord();
     case OPENSLES:
-      mOpenSLRecord[index].StartRecord();
-      break;
+      return mOpenSLRecord[index].StartRecord();
     default:
       LOGE("Unsupported API %d", api);
   }
+  return -1;
 }
 
 JNIEXPORT void JNICALL
@@ -84,6 +85,24 @@ Java_com_google_audioworker_functions_controllers_RecordController_releaseRecord
   }
 }
 
+JNIEXPORT jint JNICALL
+Java_com_google_audioworker_functions_controllers_RecordController_readInput(
+    JNIEnv *env, jobject instance, jobject buffer, jint size, jint timeout_ms,
+    jint api, jint index) {
+  if (index >= MAX_STREAM) return -1;
+  char *dest = (char *)env->GetDirectBufferAddress(buffer);
+  if (dest == nullptr || size > env->GetDirectBufferCapacity(buffer)) return -1;
+  switch (api) {
+    case AAUDIO:
+      return mAAudioRecord[index].Read(dest, size, timeout_ms);
+    case OPENSLES:
+      return mOpenSLRecord[index].Read(dest, size, timeout_ms);
+    default:
+      LOGE("Unsupported API %d", api);
+  }
+  return -1;
+}
+
 JNIEXPORT void JNICALL
 Java_com_google_audioworker_functions_controllers_RecordController_saveWav(
     JNIEnv *env, jobject instance, jstring filename, jint api, jint index) {
@@ -14,46 +14,37 @@ JNIEXPORT jstring JNICALL Java_com_google_audioworker_utils_signalproc_PeakDetec
     return env->NewStringUTF("v0.1");
 }
 
-JNIEXPORT jdoubleArray JNICALL Java_com_google_audioworker_utils_signalproc_PeakDetector_extractQuadFeature(
-        JNIEnv *env, jobject thiz, jdoubleArray jdata, jintArray indices, jdouble min_norm_factor, jint num_points, jint step) {
-    peak_detector_params_t params = {
-            .targets = std::vector<int>(),
-            .step = step,
-            .num_points = num_points,
-    };
-
-    std::vector<double> data;
-    double norm_factor = min_norm_factor;
-
-    {
-        int size = env->GetArrayLength(jdata);
-        double value[size];
-        env->GetDoubleArrayRegion(jdata, 0, size, value);
-
-        data = std::vector<double>(size);
-        for (int i = 0; i < size; i++) {
-            data[i] = value[i];
-            if (data[i] > norm_factor)
-                norm_factor = data[i];
-        }
-    }
-
-    {
-        int size = env->GetArrayLength(indices);
-        int value[size];
-        env->GetIntArrayRegion(indices, 0, size, value);
-
-        for (int i = 0; i < size; i++) {
-            params.targets.push_back(value[i]);
-        }
-    }
-
-    Matrix<double> feature = PeakDetector::quadratic_feature<double>(data, norm_factor, params);
-    jdoubleArray jfeature = env->NewDoubleArray(feature.getDimension().ncols * feature.getDimension().nrows);
-    for (int i = 0; i < feature.getDimension().nrows; i++) {
-        env->SetDoubleArrayRegion(jfeature, i * feature.getDimension().ncols, feature.getDimension().ncols, feature[i]);
-    }
-
-    return jfeature;
+JNIEXPORT jlong JNICALL Java_com_google_audioworker_utils_signalproc_PeakDetector_nativeGetFit(
+        JNIEnv *env, jclass clazz, jint num_points, jint step) {
+    if (num_points <= 0 || step <= 0)
+        return 0;
+
+    return (jlong) QuadraticFit::get(num_points, step);
+}
+
+JNIEXPORT jint JNICALL Java_com_google_audioworker_utils_signalproc_PeakDetector_nativeExtractQuadFeatureInto(
+        JNIEnv *env, jclass clazz, jlong fit, jdoubleArray jdata, jintArray indices, jdouble min_norm_factor, jdoubleArray jout) {
+    const QuadraticFit* quadratic_fit = (const QuadraticFit*) fit;
+    if (quadratic_fit == NULL || jdata == NULL || indices == NULL || jout == NULL)
+        return -1;
+
+    int num_targets = env->GetArrayLength(indices);
+    if (env->GetArrayLength(jout) < (3 + quadratic_fit->num_points()) * num_targets)
+        return -1;
+
+    std::vector<int> targets(num_targets);
+    env->GetIntArrayRegion(indices, 0, num_targets, targets.data());
+
+    int size = env->GetArrayLength(jdata);
+    jdouble* data = (jdouble*) env->GetPrimitiveArrayCritical(jdata, NULL);
+    jdouble* out = (jdouble*) env->GetPrimitiveArrayCritical(jout, NULL);
+    if (data != NULL && out != NULL)
+        PeakDetector::quadratic_feature_into(data, size, min_norm_factor, targets.data(), num_targets, quadratic_fit, out);
+    if (out != NULL)
+        env->ReleasePrimitiveArrayCritical(jout, out, 0);
+    if (data != NULL)
+        env->ReleasePrimitiveArrayCritical(jdata, data, JNI_ABORT);
+
+    return (data != NULL && out != NULL) ? num_targets : -1;
 }
 }
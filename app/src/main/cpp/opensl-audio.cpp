@@ -21,6 +21,7 @@ void audio_record::OpenSLRecord::BufferCallback(
   (*mSLBuffer)->Enqueue(mSLBuffer, mData, mDataSize);
   // Save mData from OPENSL to Ring buffer
   if (mBuffer->push(mData, mFrameCount)) LOGE("Recording push buffer error");
+  if (mFifo != nullptr) mFifo->push(mData, mFrameCount);
 }
 
 int audio_record::OpenSLRecord::OpenInput(FORMAT_T format, int ch, int sr,
@@ -79,6 +80,10 @@ int audio_record::OpenSLRecord::OpenInput(FORMAT_T format, int ch, int sr,
                ->CreateAudioRecorder(mEngineInterface, &mEngineObject,
                                      &audioSrc, &audioSink,
                                      sizeof(ids) / sizeof(ids[0]), ids, reqs);
+  if (SL_RESULT_SUCCESS != result) {
+    LOGE("CreateAudioRecorder error %d", result);
+    return -1;
+  }
   // Configure the stream.
   SLAndroidConfigurationItf configItf = nullptr;
 
@@ -116,6 +121,10 @@ int audio_record::OpenSLRecord::OpenInput(FORMAT_T format, int ch, int sr,
   if (SL_RESULT_SUCCESS != result)
     LOGE("%s: RegisterCallback error %d", __func__, result);
 
+  mFifo = new audio_record::StreamFifo(bytePerSample(format), ch);
+  if (mFifo->init(bytePerSample(format) * ch * sr / 2))
+    LOGE("Stream fifo init fail!");
+
   mBuffer = new audio_record::RingBuffer(bytePerSample(format), ch);
   if (mBuffer->init(bufferSize)) {
     LOGE("Buffer init fail!");
@@ -155,6 +164,7 @@ int audio_record::OpenSLRecord::StopRecord(void) {
       return -1;
     }
   }
+  if (mFifo != nullptr) mFifo->wakeup();
   LOGD("%s: Stop ", __func__);
   return 0;
 }
@@ -175,8 +185,20 @@ void audio_record::OpenSLRecord::ReleaseRecord(void) {
     delete mData;
     mData = nullptr;
   }
+  if (mFifo != nullptr) {
+    if (mFifo->dropped() > 0)
+      LOGE("%s: %llu bytes dropped by stream fifo", __func__,
+           (unsigned long long)mFifo->dropped());
+    delete mFifo;
+    mFifo = nullptr;
+  }
 }
 
 int audio_record::OpenSLRecord::SaveFile(const char *filename) {
   return mBuffer->SaveWav(filename, mWavHDR);
 }
+
+int audio_record::OpenSLRecord::Read(char *dest, int size, int timeout_ms) {
+  if (mFifo == nullptr) return -1;
+  return mFifo->pop(dest, size, timeout_ms);
+}
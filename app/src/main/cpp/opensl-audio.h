@@ -13,6 +13,7 @@ class OpenSLRecord {
   void ReleaseRecord(void);
 
   int SaveFile(const char* filename);
+  int Read(char* dest, int size, int timeout_ms);
   void BufferCallback(SLAndroidSimpleBufferQueueItf bq);
 
  private:
@@ -21,6 +22,7 @@ class OpenSLRecord {
   SLRecordItf mRecInterface = nullptr;
   SLAndroidSimpleBufferQueueItf mSLBuffer = nullptr;
   audio_record::RingBuffer* mBuffer = nullptr;
+  audio_record::StreamFifo* mFifo = nullptr;
   wav_header mWavHDR = {};
   char* mData = nullptr;
   int mDataSize = 0;
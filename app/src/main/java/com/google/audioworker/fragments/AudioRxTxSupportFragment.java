@@ -11,6 +11,7 @@ import com.google.audioworker.functions.common.WorkerFunction;
 import com.google.audioworker.functions.controllers.MainController;
 import com.google.audioworker.functions.controllers.RecordController;
 import com.google.audioworker.utils.Constants;
+import com.google.audioworker.utils.ds.AudioFrame;
 import com.google.audioworker.views.WorkerFunctionView;
 
 import java.util.HashMap;
@@ -66,6 +67,11 @@ public abstract class AudioRxTxSupportFragment extends WorkerFragment
         getTxDataView().plot(signal);
     }
 
+    @Override
+    public void onDataUpdated(AudioFrame frame, RecordStartFunction function) {
+        getTxDataView().plot(frame);
+    }
+
     @CallSuper
     @Override
     public void onActionSelected(
@@ -27,6 +27,7 @@ import com.google.audioworker.functions.controllers.ControllerBase;
 import com.google.audioworker.functions.controllers.MainController;
 import com.google.audioworker.functions.controllers.RecordController;
 import com.google.audioworker.utils.Constants;
+import com.google.audioworker.utils.ds.AudioFrame;
 import com.google.audioworker.views.ViewUtils;
 import com.google.audioworker.views.WorkerFunctionView;
 
@@ -86,6 +87,11 @@ public abstract class AudioTxSupportFragment extends WorkerFragment
         getTxDataView().plot(signal);
     }
 
+    @Override
+    public void onDataUpdated(AudioFrame frame, RecordStartFunction function) {
+        getTxDataView().plot(frame);
+    }
+
     @CallSuper
     @Override
     public void onActionSelected(
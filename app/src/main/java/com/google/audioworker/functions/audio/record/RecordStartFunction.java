@@ -21,6 +21,8 @@ public class RecordStartFunction extends RecordFunction {
     private static final String ATTR_AUDIO_PERF = "audio-perf";
     private static final String ATTR_ENABLE_NS = "enable-ns";
     private static final String ATTR_ENABLE_AEC = "enable-aec";
+    private static final String ATTR_STREAM_FILE = "stream-file";
+    private static final String ATTR_STREAM_SYNC_MS = "stream-sync-ms";
 
     private static final String[] ATTRS = {
         ATTR_FS,
@@ -32,7 +34,9 @@ public class RecordStartFunction extends RecordFunction {
         ATTR_AUDIO_API,
         ATTR_AUDIO_PERF,
         ATTR_ENABLE_NS,
-        ATTR_ENABLE_AEC
+        ATTR_ENABLE_AEC,
+        ATTR_STREAM_FILE,
+        ATTR_STREAM_SYNC_MS
     };
 
     private Parameter<Integer> PARAM_FS =
@@ -55,6 +59,12 @@ public class RecordStartFunction extends RecordFunction {
             new Parameter<>(ATTR_AUDIO_PERF, false, Constants.RecordDefaultConfig.AUDIO_PERF);
     private Parameter<Boolean> PARAM_ENABLE_NS = new Parameter<>(ATTR_ENABLE_NS, false, false);
     private Parameter<Boolean> PARAM_ENABLE_AEC = new Parameter<>(ATTR_ENABLE_AEC, false, false);
+    private Parameter<String> PARAM_STREAM_FILE = new Parameter<>(ATTR_STREAM_FILE, false, "");
+    private Parameter<Integer> PARAM_STREAM_SYNC_MS =
+            new Parameter<>(
+                    ATTR_STREAM_SYNC_MS,
+                    false,
+                    Constants.Controllers.Config.Record.STREAM_SYNC_MILLIS);
     private Parameter[] PARAMS = {
         PARAM_FS,
         PARAM_NCH,
@@ -65,7 +75,9 @@ public class RecordStartFunction extends RecordFunction {
         PARAM_AUDIO_API,
         PARAM_AUDIO_PERF,
         PARAM_ENABLE_NS,
-        PARAM_ENABLE_AEC
+        PARAM_ENABLE_AEC,
+        PARAM_STREAM_FILE,
+        PARAM_STREAM_SYNC_MS
     };
 
     private Parameter[] mParams;
@@ -98,7 +110,10 @@ public class RecordStartFunction extends RecordFunction {
                 case ATTR_BPS:
                     return checkBitPerSample((int) value);
                 case ATTR_DUMP_BUFFER_SIZE_MS:
+                case ATTR_STREAM_SYNC_MS:
                     return (int) value >= 0;
+                case ATTR_STREAM_FILE:
+                    return value instanceof String;
                 case ATTR_INPUT_SRC:
                     return checkInputSrc((int) value);
                 case ATTR_AUDIO_API:
@@ -299,4 +314,56 @@ public class RecordStartFunction extends RecordFunction {
     public boolean isEchoCancellationEnabled() {
         return PARAM_ENABLE_AEC.getValue();
     }
+
+    // The WAV file the capture is streamed to, empty if it is not streamed
+    public String getStreamFileName() {
+        return PARAM_STREAM_FILE.getValue();
+    }
+
+    public void setStreamFileName(String name) {
+        setParameter(ATTR_STREAM_FILE, name);
+    }
+
+    public boolean isStreamingToFile() {
+        return getStreamFileName() != null && getStreamFileName().length() > 0;
+    }
+
+    // How often the header of the streamed file is updated and synced to the storage, 0 for only
+    // when the recording stops
+    public int getStreamSyncMs() {
+        return PARAM_STREAM_SYNC_MS.getValue();
+    }
+
+    public void setStreamSyncMs(int ms) {
+        setParameter(ATTR_STREAM_SYNC_MS, ms);
+    }
+
+    // Whether the input stream opened for this function can serve the given one as well. The
+    // dump buffer of the external APIs lives in the native stream, so its size is part of it.
+    public boolean isStreamCompatible(RecordStartFunction function) {
+        return function != null
+                && getIndex() == function.getIndex()
+                && hasSameStreamConfig(function)
+                && (!usingExtApi() || getDumpBufferSizeMs() == function.getDumpBufferSizeMs());
+    }
+
+    // Whether tasks of both functions can be fed by a single capture stream. The native streams
+    // are bound to their task index, so only AudioRecord streams are shared.
+    public boolean canShareStream(RecordStartFunction function) {
+        return function != null
+                && !usingExtApi()
+                && hasSameStreamConfig(function)
+                && isNoiseSuppressionEnabled() == function.isNoiseSuppressionEnabled()
+                && isEchoCancellationEnabled() == function.isEchoCancellationEnabled();
+    }
+
+    private boolean hasSameStreamConfig(RecordStartFunction function) {
+        return getSamplingFreq() == function.getSamplingFreq()
+                && getNumChannels() == function.getNumChannels()
+                && getBitWidth() == function.getBitWidth()
+                && getInputSrc() == function.getInputSrc()
+                && getAudioAPI() == function.getAudioAPI()
+                && getAudioPerf() == function.getAudioPerf()
+                && bluetoothScoOn() == function.bluetoothScoOn();
+    }
 }
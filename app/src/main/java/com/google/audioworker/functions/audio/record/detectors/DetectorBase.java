@@ -5,6 +5,7 @@ import android.util.SparseArray;
 import android.view.View;
 
 import com.google.audioworker.functions.audio.record.RecordStartFunction;
+import com.google.audioworker.utils.ds.AudioFrame;
 
 import org.json.JSONObject;
 
@@ -43,6 +44,10 @@ public abstract class DetectorBase {
 
     public abstract void feed(List<? extends Double>[] data);
 
+    public void feed(AudioFrame frame) {
+        feed(frame.toLists());
+    }
+
     public abstract boolean parseParameters(String params);
 
     public abstract boolean setDetectorParameters(String params);
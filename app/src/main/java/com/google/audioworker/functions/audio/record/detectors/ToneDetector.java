@@ -9,9 +9,14 @@ import android.view.View;
 import com.google.audioworker.functions.audio.record.RecordStartFunction;
 import com.google.audioworker.functions.common.WorkerFunction;
 import com.google.audioworker.utils.Constants;
-import com.google.audioworker.utils.ds.CircularArray;
-import com.google.audioworker.utils.signalproc.FFT;
+import com.google.audioworker.utils.concurrent.DispatchStage;
+import com.google.audioworker.utils.ds.AudioFrame;
+import com.google.audioworker.utils.ds.DoubleRingBuffer;
+import com.google.audioworker.utils.signalproc.FftEngine;
+import com.google.audioworker.utils.signalproc.FftEngines;
+import com.google.audioworker.utils.signalproc.GoertzelBank;
 import com.google.audioworker.utils.signalproc.PeakDetector;
+import com.google.audioworker.utils.signalproc.WindowFunction;
 import com.google.audioworker.views.ToneDetectorView;
 
 import org.json.JSONArray;
@@ -23,15 +28,169 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ToneDetector extends VisualizableDetector implements WorkerFunction.Parameterizable {
     private static final String TAG = Constants.packageTag("ToneDetector");
 
     private int mNumChannels;
     private int mSamplingFreq;
-    private ArrayList<CircularArray<Double>> mBuffers;
+    private volatile StftChannel[] mChannels;
+    private double[] mFeedScratch = new double[0];
+    private DispatchStage<AnalysisFrame> mAnalysisStage;
+    private FftEngine.Transform mTransform;
+    private volatile TargetAnalysis mTargetAnalysis;
+    // Increased on every change of the registered targets, under the lock of their storage
+    private volatile int mTargetsVersion;
+
+    private static final int NUM_FIT_POINTS = 5;
+
+    private static class AnalysisFrame {
+        final double[] signal;
+        final AtomicBoolean busy = new AtomicBoolean(false);
+
+        AnalysisFrame(int numSamples) {
+            this.signal = new double[numSamples];
+        }
+    }
+
+    // The peak fitting of one set of targets. It is built whenever the targets, the tolerance or
+    // the transform change, and its buffers are then only used by the single worker of the
+    // analysis stage, so a frame costs no allocation per target.
+    static class TargetAnalysis {
+        final int version;
+        final double[] targetFreqs;
+        final int size;
+        final PeakDetector.Config config;
+        final double minNormFactor;
+        final double scale;
+        final double stepFreq;
+        // The positions of the targets among the bins of a spectrum and of a Goertzel frame
+        final int[] spectrumIndices;
+        final int[] binIndices;
+        // The semitone tolerance as the range of the peak offset from each target, in bins
+        final double[] minOffsets;
+        final double[] maxOffsets;
+        final double[] features;
+        // Only set by useGoertzel(), the filters and magnitudes of the bins around the targets
+        GoertzelBank bank;
+        double[] bins;
+        boolean[] outOfRange;
+        // The states of the previous frame and the targets changing in the current one
+        final BitSet detected;
+        final BitSet changes;
+
+        TargetAnalysis(
+                int version,
+                double[] targetFreqs,
+                BitSet detected,
+                double toleranceSemitone,
+                int samplingFreq,
+                int size) {
+            this.version = version;
+            this.targetFreqs = targetFreqs;
+            this.size = size;
+            this.stepFreq = (double) samplingFreq / size;
+            this.minNormFactor = Math.sqrt(size / 2) / 20.0;
+            this.scale = 1.0 / Math.sqrt(size);
+            this.config =
+                    new PeakDetector.Config.Builder()
+                            .withMinNormFactor(minNormFactor)
+                            .withNumPoints(NUM_FIT_POINTS)
+                            .withStep(1)
+                            .withStepFreq(stepFreq)
+                            .build();
+
+            // The same condition as toneDetected() without a logarithm per frame
+            double lowRatio = Math.pow(2, -toleranceSemitone / 12) - 1;
+            double highRatio = Math.pow(2, toleranceSemitone / 12) - 1;
+
+            // The indices are kept per target, even if a frequency is registered twice
+            int n = targetFreqs.length;
+            this.spectrumIndices = new int[n];
+            this.binIndices = new int[n];
+            this.minOffsets = new double[n];
+            this.maxOffsets = new double[n];
+            for (int i = 0; i < n; i++) {
+                spectrumIndices[i] = (int) Math.round(targetFreqs[i] / stepFreq);
+                binIndices[i] = i * NUM_FIT_POINTS + NUM_FIT_POINTS / 2;
+                minOffsets[i] = targetFreqs[i] * lowRatio / stepFreq;
+                maxOffsets[i] = targetFreqs[i] * highRatio / stepFreq;
+            }
+            this.features = new double[(3 + NUM_FIT_POINTS) * n];
+            this.detected = detected;
+            this.changes = new BitSet(n);
+        }
+
+        // Evaluates the bins the fitting reads by Goertzel filters, at the same frequencies as the
+        // bins of the transform, instead of transforming the frames. The bins the spectrum does
+        // not have, beyond its edges, are left to zero.
+        void useGoertzel() {
+            double[] binFreqs = new double[targetFreqs.length * NUM_FIT_POINTS];
+            outOfRange = new boolean[binFreqs.length];
+            for (int i = 0; i < targetFreqs.length; i++) {
+                for (int j = 0; j < NUM_FIT_POINTS; j++) {
+                    int idx = spectrumIndices[i] - NUM_FIT_POINTS / 2 + j;
+                    binFreqs[i * NUM_FIT_POINTS + j] = (double) idx / size;
+                    outOfRange[i * NUM_FIT_POINTS + j] = idx < 0 || idx >= size / 2;
+                }
+            }
+            bank = new GoertzelBank(binFreqs);
+            bins = new double[binFreqs.length];
+        }
+
+        // Reads the features written by PeakDetector.extractFeatureInto() for n targets
+        boolean isDetected(int i, int n) {
+            double a = features[i];
+            double b = features[n + i];
+            double c = features[2 * n + i];
+
+            double normsq = 0;
+            for (int j = 0; j < NUM_FIT_POINTS; j++) {
+                double y = features[(3 + j) * n + i];
+                normsq += y * y;
+            }
+
+            // The same conditions as the quadratic feature being active
+            if (!(a < 0 && c > 0.5 && Math.sqrt(normsq / NUM_FIT_POINTS) > 0.4)) return false;
+
+            double offset = -b / (2 * a);
+            double amp = b * b / (4 * a) + c;
+            return amp > 0.5 && offset > minOffsets[i] && offset < maxOffsets[i];
+        }
+    }
+
+    // The sliding window of a channel, which is analyzed once every hopSize samples no matter
+    // how the fed buffers are sized
+    private static class StftChannel {
+        final DoubleRingBuffer buffer;
+        final AnalysisFrame[] frames;
+        final int hopSize;
+        int hopProgress;
+        int nextFrame;
+
+        StftChannel(int windowSize, int hopSize, int numFrames) {
+            this.buffer = new DoubleRingBuffer(windowSize);
+            this.buffer.fill(0.);
+            this.frames = new AnalysisFrame[Math.max(numFrames, 1)];
+            for (int i = 0; i < frames.length; i++) frames[i] = new AnalysisFrame(windowSize);
+            this.hopSize = Math.max(hopSize, 1);
+        }
+
+        AnalysisFrame acquireFrame() {
+            for (int i = 0; i < frames.length; i++) {
+                AnalysisFrame frame = frames[(nextFrame + i) % frames.length];
+                if (frame.busy.compareAndSet(false, true)) {
+                    nextFrame = (nextFrame + i + 1) % frames.length;
+                    return frame;
+                }
+            }
+            return null;
+        }
+    }
 
     private class TargetStorage {
         final ArrayList<Target> content = new ArrayList<>();
@@ -57,12 +216,25 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
             Constants.Detectors.ToneDetector.PARAM_CLEAR_TARGETS;
     private static final String ATTR_DUMP_HISTORY =
             Constants.Detectors.ToneDetector.PARAM_DUMP_HISTORY;
+    private static final String ATTR_FFT_ENGINE =
+            Constants.Detectors.ToneDetector.PARAM_FFT_ENGINE;
+    private static final String ATTR_DETECT_METHOD =
+            Constants.Detectors.ToneDetector.PARAM_DETECT_METHOD;
+    private static final String ATTR_HOP_MILLIS = Constants.Detectors.ToneDetector.PARAM_HOP_MILLIS;
+    private static final String ATTR_WINDOW = Constants.Detectors.ToneDetector.PARAM_WINDOW;
+    private static final String ATTR_FFT_SIZE_POLICY =
+            Constants.Detectors.ToneDetector.PARAM_FFT_SIZE_POLICY;
 
     private WorkerFunction.Parameter<String> PARAM_TARGETS;
     private WorkerFunction.Parameter<Integer> PARAM_PROCESS_FRAME_MILLIS;
     private WorkerFunction.Parameter<Integer> PARAM_TOL_DIFF_SEMI;
     private WorkerFunction.Parameter<Boolean> PARAM_CLEAR_TARGETS;
     private WorkerFunction.Parameter<Boolean> PARAM_DUMP_HISTORY;
+    private WorkerFunction.Parameter<String> PARAM_FFT_ENGINE;
+    private WorkerFunction.Parameter<String> PARAM_DETECT_METHOD;
+    private WorkerFunction.Parameter<Integer> PARAM_HOP_MILLIS;
+    private WorkerFunction.Parameter<String> PARAM_WINDOW;
+    private WorkerFunction.Parameter<String> PARAM_FFT_SIZE_POLICY;
 
     @Override
     public String[] getAttributes() {
@@ -72,7 +244,12 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
             ATTR_PROCESS_FRAME_MILLIS,
             ATTR_TOL_DIFF_SEMI,
             ATTR_CLEAR_TARGETS,
-            ATTR_DUMP_HISTORY
+            ATTR_DUMP_HISTORY,
+            ATTR_FFT_ENGINE,
+            ATTR_DETECT_METHOD,
+            ATTR_HOP_MILLIS,
+            ATTR_WINDOW,
+            ATTR_FFT_SIZE_POLICY
         };
     }
 
@@ -84,7 +261,12 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
             PARAM_PROCESS_FRAME_MILLIS,
             PARAM_TOL_DIFF_SEMI,
             PARAM_CLEAR_TARGETS,
-            PARAM_DUMP_HISTORY
+            PARAM_DUMP_HISTORY,
+            PARAM_FFT_ENGINE,
+            PARAM_DETECT_METHOD,
+            PARAM_HOP_MILLIS,
+            PARAM_WINDOW,
+            PARAM_FFT_SIZE_POLICY
         };
     }
 
@@ -101,9 +283,11 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
                 return;
             case ATTR_PROCESS_FRAME_MILLIS:
                 PARAM_PROCESS_FRAME_MILLIS.setValue(Integer.valueOf(value.toString()));
+                rebuildIfRunning();
                 return;
             case ATTR_TOL_DIFF_SEMI:
                 PARAM_TOL_DIFF_SEMI.setValue(Integer.valueOf(value.toString()));
+                updateTargetAnalysis();
                 return;
             case ATTR_CLEAR_TARGETS:
                 PARAM_CLEAR_TARGETS.setValue(Boolean.valueOf(value.toString()));
@@ -111,6 +295,26 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
             case ATTR_DUMP_HISTORY:
                 PARAM_DUMP_HISTORY.setValue(Boolean.valueOf(value.toString()));
                 return;
+            case ATTR_FFT_ENGINE:
+                PARAM_FFT_ENGINE.setValue(value.toString());
+                rebuildIfRunning();
+                return;
+            case ATTR_DETECT_METHOD:
+                PARAM_DETECT_METHOD.setValue(value.toString());
+                updateTargetAnalysis();
+                return;
+            case ATTR_HOP_MILLIS:
+                PARAM_HOP_MILLIS.setValue(Integer.valueOf(value.toString()));
+                rebuildIfRunning();
+                return;
+            case ATTR_WINDOW:
+                PARAM_WINDOW.setValue(value.toString());
+                rebuildIfRunning();
+                return;
+            case ATTR_FFT_SIZE_POLICY:
+                PARAM_FFT_SIZE_POLICY.setValue(value.toString());
+                rebuildIfRunning();
+                return;
 
             default:
                 break;
@@ -125,9 +329,20 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
             case ATTR_PROCESS_FRAME_MILLIS:
             case ATTR_TOL_DIFF_SEMI:
                 return checkTargetInteger(value.toString());
+            case ATTR_HOP_MILLIS:
+                return checkTargetInteger(value.toString())
+                        && Integer.parseInt(value.toString()) > 0;
+            case ATTR_WINDOW:
+                return WindowFunction.isValidName(value.toString());
             case ATTR_CLEAR_TARGETS:
             case ATTR_DUMP_HISTORY:
                 return true;
+            case ATTR_FFT_ENGINE:
+                return FftEngines.isValidName(value.toString());
+            case ATTR_FFT_SIZE_POLICY:
+                return FftEngines.isValidSizePolicy(value.toString());
+            case ATTR_DETECT_METHOD:
+                return isValidDetectMethod(value.toString());
         }
         return false;
     }
@@ -227,17 +442,164 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
 
         if (PARAM_DUMP_HISTORY == null)
             PARAM_DUMP_HISTORY = new WorkerFunction.Parameter<>(ATTR_DUMP_HISTORY, false, false);
+
+        if (PARAM_FFT_ENGINE == null)
+            PARAM_FFT_ENGINE =
+                    new WorkerFunction.Parameter<>(
+                            ATTR_FFT_ENGINE,
+                            false,
+                            Constants.Detectors.ToneDetector.Config.FFT_ENGINE);
+
+        if (PARAM_DETECT_METHOD == null)
+            PARAM_DETECT_METHOD =
+                    new WorkerFunction.Parameter<>(
+                            ATTR_DETECT_METHOD,
+                            false,
+                            Constants.Detectors.ToneDetector.Config.DETECT_METHOD);
+
+        if (PARAM_HOP_MILLIS == null)
+            PARAM_HOP_MILLIS =
+                    new WorkerFunction.Parameter<>(
+                            ATTR_HOP_MILLIS,
+                            false,
+                            Constants.Detectors.ToneDetector.Config.HOP_MILLIS);
+
+        if (PARAM_WINDOW == null)
+            PARAM_WINDOW =
+                    new WorkerFunction.Parameter<>(
+                            ATTR_WINDOW, false, Constants.Detectors.ToneDetector.Config.WINDOW);
+
+        if (PARAM_FFT_SIZE_POLICY == null)
+            PARAM_FFT_SIZE_POLICY =
+                    new WorkerFunction.Parameter<>(
+                            ATTR_FFT_SIZE_POLICY,
+                            false,
+                            Constants.Detectors.ToneDetector.Config.FFT_SIZE_POLICY);
     }
 
-    private void updateCircularBuffers() {
+    // The parameters the frames, the window and the transform of the analysis are built from
+    private String getAnalysisSettings() {
+        return PARAM_PROCESS_FRAME_MILLIS.getValue()
+                + "/"
+                + PARAM_HOP_MILLIS.getValue()
+                + "/"
+                + PARAM_WINDOW.getValue()
+                + "/"
+                + PARAM_FFT_ENGINE.getValue()
+                + "/"
+                + PARAM_FFT_SIZE_POLICY.getValue();
+    }
+
+    // Only a running detector has an analysis to rebuild, the others build it once started
+    private void rebuildIfRunning() {
+        if (mAnalysisStage != null) updateCircularBuffers();
+    }
+
+    private synchronized void updateCircularBuffers() {
         int numSamples = PARAM_PROCESS_FRAME_MILLIS.getValue() * mSamplingFreq / 1000;
-        mBuffers = new ArrayList<>(mNumChannels);
-        for (int c = 0; c < mNumChannels; c++) {
-            CircularArray<Double> buffer = new CircularArray<>(numSamples);
-            for (int i = 0; i < numSamples; i++) buffer.add(0.);
+        int hopSize = PARAM_HOP_MILLIS.getValue() * mSamplingFreq / 1000;
+        int framesPerChannel = Constants.Detectors.ToneDetector.Config.ANALYSIS_FRAMES_PER_CHANNEL;
+        StftChannel[] channels = new StftChannel[mNumChannels];
+        for (int c = 0; c < mNumChannels; c++)
+            channels[c] = new StftChannel(numSamples, hopSize, framesPerChannel);
+
+        int fftSize = FftEngines.roundSize(numSamples, PARAM_FFT_SIZE_POLICY.getValue());
+        // The stage runs a single worker, so its transform and spectrum are never used concurrently
+        FftEngine engine = FftEngines.get(PARAM_FFT_ENGINE.getValue());
+        if (!FftEngine.NAME_JAVA.equals(PARAM_FFT_ENGINE.getValue())
+                && FftEngines.getNativeEngineError() != null)
+            Log.w(TAG, FftEngines.getNativeEngineError() + ", fall back to Java");
+        final FftEngine.Transform transform = engine.createTransform(fftSize);
+        final double[] spectrum = new double[transform.size() / 2];
+        final double[] window = WindowFunction.get(PARAM_WINDOW.getValue(), numSamples);
+        Log.d(
+                TAG,
+                "analyze frames of "
+                        + numSamples
+                        + " samples with a "
+                        + transform.size()
+                        + "-point FFT every "
+                        + Math.max(hopSize, 1)
+                        + " samples by "
+                        + engine.getName());
+
+        if (mAnalysisStage != null) mAnalysisStage.shutdown();
+        if (mTransform != null) mTransform.release();
+        mTransform = transform;
+        mAnalysisStage =
+                new DispatchStage<>(
+                        "ToneDetector-" + Integer.toHexString(hashCode()),
+                        Math.max(mNumChannels, 1) * framesPerChannel,
+                        Constants.Detectors.ToneDetector.Config.ANALYSIS_OVERFLOW_POLICY,
+                        new DispatchStage.Handler<AnalysisFrame>() {
+                            @Override
+                            public void handle(AnalysisFrame frame) {
+                                try {
+                                    process(frame.signal, window, transform, spectrum);
+                                } finally {
+                                    frame.busy.set(false);
+                                }
+                            }
+                        });
+        mChannels = channels;
+        updateTargetAnalysis();
+    }
+
+    private static boolean isValidDetectMethod(String method) {
+        return Constants.Detectors.ToneDetector.DETECT_METHOD_AUTO.equals(method)
+                || Constants.Detectors.ToneDetector.DETECT_METHOD_FFT.equals(method)
+                || Constants.Detectors.ToneDetector.DETECT_METHOD_GOERTZEL.equals(method);
+    }
 
-            mBuffers.add(buffer);
+    private boolean useGoertzel(int numTargets) {
+        if (numTargets == 0) return false;
+
+        String method = PARAM_DETECT_METHOD.getValue();
+        if (Constants.Detectors.ToneDetector.DETECT_METHOD_GOERTZEL.equals(method)) return true;
+        if (Constants.Detectors.ToneDetector.DETECT_METHOD_FFT.equals(method)) return false;
+
+        return numTargets <= Constants.Detectors.ToneDetector.Config.GOERTZEL_MAX_TARGETS;
+    }
+
+    // Rebuilds the peak fitting of the registered targets. In the Goertzel mode only the bins the
+    // fitting reads are evaluated on the windowed frames, so a few targets cost much less than a
+    // full transform.
+    private synchronized void updateTargetAnalysis() {
+        if (mTransform == null || mSamplingFreq <= 0 || PARAM_DETECT_METHOD == null) return;
+
+        int version;
+        double[] targetFreqs;
+        BitSet detected;
+        synchronized (mTargetStorage.content) {
+            version = mTargetsVersion;
+            targetFreqs = new double[mTargetStorage.content.size()];
+            detected = new BitSet(targetFreqs.length);
+            for (int i = 0; i < targetFreqs.length; i++) {
+                Target t = mTargetStorage.content.get(i);
+                targetFreqs[i] = t.targetFreq;
+                detected.set(i, t.state);
+            }
         }
+
+        int size = mTransform.size();
+        TargetAnalysis analysis =
+                new TargetAnalysis(
+                        version,
+                        targetFreqs,
+                        detected,
+                        PARAM_TOL_DIFF_SEMI.getValue(),
+                        mSamplingFreq,
+                        size);
+
+        if (useGoertzel(targetFreqs.length)) {
+            analysis.useGoertzel();
+            Log.d(TAG, "detect " + targetFreqs.length + " tone(s) by Goertzel filters");
+        }
+        mTargetAnalysis = analysis;
+    }
+
+    public DispatchStage<?> getAnalysisStage() {
+        return mAnalysisStage;
     }
 
     @Override
@@ -252,7 +614,9 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
         if (target instanceof Target) {
             synchronized (mTargetStorage.content) {
                 mTargetStorage.content.add((Target) target);
+                mTargetsVersion++;
             }
+            updateTargetAnalysis();
         } else {
             Log.w(TAG, "The invalid registered target");
         }
@@ -260,34 +624,56 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
 
     @Override
     public void feed(List<? extends Double>[] data) {
-        if (data.length != mNumChannels) {
+        checkNumChannels(data.length);
+
+        final StftChannel[] channels = mChannels;
+        for (int c = 0; c < Math.min(data.length, channels.length); c++) {
+            int n = data[c].size();
+            if (mFeedScratch.length < n) mFeedScratch = new double[n];
+            for (int i = 0; i < n; i++) mFeedScratch[i] = data[c].get(i);
+
+            feedChannel(channels[c], mFeedScratch, n);
+        }
+    }
+
+    @Override
+    public void feed(AudioFrame frame) {
+        checkNumChannels(frame.getNumChannels());
+
+        final StftChannel[] channels = mChannels;
+        for (int c = 0; c < Math.min(frame.getNumChannels(), channels.length); c++)
+            feedChannel(channels[c], frame.getChannel(c), frame.getNumFrames());
+    }
+
+    private void checkNumChannels(int numChannels) {
+        if (numChannels != mNumChannels) {
             Log.e(
                     TAG,
                     "The number of channels of the feeding data does not match! (feeding "
-                            + data.length
+                            + numChannels
                             + " channels while the active recording activity runs with "
                             + mNumChannels
                             + " channels.");
         }
+    }
 
-        for (int c = 0; c < mNumChannels; c++) {
-            mBuffers.get(c).addAll(data[c]);
-        }
-
-        for (CircularArray<Double> buffer : mBuffers) {
-            if (buffer.size() == 0) continue;
-
-            final double[] signal = new double[buffer.size()];
-            for (int i = 0; i < signal.length; i++) signal[i] = buffer.get(i);
-
-            new Thread(
-                            new Runnable() {
-                                @Override
-                                public void run() {
-                                    process(signal);
-                                }
-                            })
-                    .start();
+    // The samples are written hop by hop, so the window is taken exactly at every hop boundary
+    // of the stream. A hop is only skipped while all the frames of the channel are queued.
+    private void feedChannel(StftChannel channel, double[] samples, int length) {
+        int offset = 0;
+        while (offset < length) {
+            int n = Math.min(length - offset, channel.hopSize - channel.hopProgress);
+            channel.buffer.write(samples, offset, n);
+            offset += n;
+            channel.hopProgress += n;
+            if (channel.hopProgress < channel.hopSize) continue;
+
+            channel.hopProgress = 0;
+            AnalysisFrame frame = channel.acquireFrame();
+            if (frame == null) continue;
+
+            channel.buffer.copyLatest(frame.signal);
+            if (!mAnalysisStage.post(frame)) frame.busy.set(false);
         }
     }
 
@@ -312,6 +698,7 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
         if (params == null) return true;
 
         Log.d(TAG, "setDetectorParameters(" + params + ")");
+        String settings = getAnalysisSettings();
         boolean success;
         try {
             JSONObject jsonParams = new JSONObject(params);
@@ -320,6 +707,11 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
             processParamsOfProcessFrameMillis(jsonParams);
             processParamsOfTolerance(jsonParams);
             processParamsOfDumpHistory(jsonParams);
+            processParamsOfFftEngine(jsonParams);
+            processParamsOfDetectMethod(jsonParams);
+            processParamsOfHopMillis(jsonParams);
+            processParamsOfWindow(jsonParams);
+            processParamsOfFftSizePolicy(jsonParams);
             success = true;
         } catch (JSONException e) {
             e.printStackTrace();
@@ -327,6 +719,7 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
         }
 
         syncParameters();
+        if (!settings.equals(getAnalysisSettings())) rebuildIfRunning();
         return success;
     }
 
@@ -339,6 +732,11 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
             params.put(ATTR_TOL_DIFF_SEMI, PARAM_TOL_DIFF_SEMI.getValue());
             params.put(ATTR_TARGETS, new JSONArray(PARAM_TARGETS.getValue()));
             params.put(ATTR_DUMP_HISTORY, PARAM_DUMP_HISTORY.getValue());
+            params.put(ATTR_FFT_ENGINE, PARAM_FFT_ENGINE.getValue());
+            params.put(ATTR_DETECT_METHOD, PARAM_DETECT_METHOD.getValue());
+            params.put(ATTR_HOP_MILLIS, PARAM_HOP_MILLIS.getValue());
+            params.put(ATTR_WINDOW, PARAM_WINDOW.getValue());
+            params.put(ATTR_FFT_SIZE_POLICY, PARAM_FFT_SIZE_POLICY.getValue());
 
             return params;
         } catch (JSONException e) {
@@ -421,6 +819,9 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
 
     @Override
     public void release() {
+        if (mAnalysisStage != null) mAnalysisStage.shutdown();
+        if (mTransform != null) mTransform.release();
+
         File historyFile = new File(mDumpFilePath);
         if (historyFile.exists()) {
             historyFile.delete();
@@ -472,6 +873,62 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
         }
     }
 
+    private void processParamsOfFftEngine(JSONObject jsonParams) throws JSONException {
+        if (!jsonParams.has(Constants.Detectors.ToneDetector.PARAM_FFT_ENGINE)) return;
+
+        String name = jsonParams.getString(Constants.Detectors.ToneDetector.PARAM_FFT_ENGINE);
+        if (!FftEngines.isValidName(name)) {
+            Log.w(TAG, "unknown FFT engine: " + name);
+            return;
+        }
+        PARAM_FFT_ENGINE.setValue(name);
+    }
+
+    private void processParamsOfDetectMethod(JSONObject jsonParams) throws JSONException {
+        if (!jsonParams.has(Constants.Detectors.ToneDetector.PARAM_DETECT_METHOD)) return;
+
+        String method = jsonParams.getString(Constants.Detectors.ToneDetector.PARAM_DETECT_METHOD);
+        if (!isValidDetectMethod(method)) {
+            Log.w(TAG, "unknown detect method: " + method);
+            return;
+        }
+        PARAM_DETECT_METHOD.setValue(method);
+    }
+
+    private void processParamsOfHopMillis(JSONObject jsonParams) throws JSONException {
+        if (!jsonParams.has(Constants.Detectors.ToneDetector.PARAM_HOP_MILLIS)) return;
+
+        int hopMillis = jsonParams.getInt(Constants.Detectors.ToneDetector.PARAM_HOP_MILLIS);
+        if (hopMillis <= 0) {
+            Log.w(TAG, "invalid hop: " + hopMillis + " ms");
+            return;
+        }
+        PARAM_HOP_MILLIS.setValue(hopMillis);
+    }
+
+    private void processParamsOfWindow(JSONObject jsonParams) throws JSONException {
+        if (!jsonParams.has(Constants.Detectors.ToneDetector.PARAM_WINDOW)) return;
+
+        String name = jsonParams.getString(Constants.Detectors.ToneDetector.PARAM_WINDOW);
+        if (!WindowFunction.isValidName(name)) {
+            Log.w(TAG, "unknown window: " + name);
+            return;
+        }
+        PARAM_WINDOW.setValue(name);
+    }
+
+    private void processParamsOfFftSizePolicy(JSONObject jsonParams) throws JSONException {
+        if (!jsonParams.has(Constants.Detectors.ToneDetector.PARAM_FFT_SIZE_POLICY)) return;
+
+        String policy =
+                jsonParams.getString(Constants.Detectors.ToneDetector.PARAM_FFT_SIZE_POLICY);
+        if (!FftEngines.isValidSizePolicy(policy)) {
+            Log.w(TAG, "unknown FFT size policy: " + policy);
+            return;
+        }
+        PARAM_FFT_SIZE_POLICY.setValue(policy);
+    }
+
     private void syncParameters() {
         if (PARAM_CLEAR_TARGETS.getValue()) {
             synchronized (mTargetStorage.content) {
@@ -498,107 +955,133 @@ public class ToneDetector extends VisualizableDetector implements WorkerFunction
                     }
                 }
                 mTargetStorage.content.clear();
+                mTargetsVersion++;
             }
         }
 
         try {
             JSONArray targetFreqs = new JSONArray(PARAM_TARGETS.getValue());
-            for (int i = 0; i < targetFreqs.length(); i++) {
-                Target t = new Target((float) targetFreqs.getDouble(i));
-                Target dummy = null;
-                synchronized (mTargetStorage.content) {
-                    for (int j = 0; j < mTargetStorage.content.size(); j++) {
-                        dummy = mTargetStorage.content.get(j);
-                        if (dummy.targetFreq == t.targetFreq) break;
-                    }
-                    if (dummy == null || dummy.targetFreq != t.targetFreq) {
-                        mTargetStorage.content.add(t);
-                    }
+            synchronized (mTargetStorage.content) {
+                HashSet<Float> registered = new HashSet<>();
+                for (Target t : mTargetStorage.content) registered.add(t.targetFreq);
+
+                for (int i = 0; i < targetFreqs.length(); i++) {
+                    float freq = (float) targetFreqs.getDouble(i);
+                    if (registered.add(freq)) mTargetStorage.content.add(new Target(freq));
                 }
+                mTargetsVersion++;
             }
         } catch (JSONException e) {
             e.printStackTrace();
         }
+
+        updateTargetAnalysis();
     }
 
-    private void process(double[] signal) {
-        synchronized (mTargetStorage.content) {
-            if (mTargetStorage.content.size() == 0) return;
+    private void process(
+            double[] signal, double[] window, FftEngine.Transform transform, double[] spectrum) {
+        TargetAnalysis analysis = mTargetAnalysis;
+        if (analysis == null || analysis.targetFreqs.length == 0) return;
+        // A frame of the previous stage while the analysis is rebuilt for another transform
+        if (analysis.size != transform.size()) return;
+
+        WindowFunction.apply(window, signal);
+        if (analysis.bank != null) {
+            detect(analysis, processBins(signal, analysis));
+            return;
         }
 
-        SparseArray<Target> targets = new SparseArray<>();
-        double[] spectrum = FFT.transformAbs(signal);
-
-        ArrayList<Double> targetFreqs = new ArrayList<>();
-        for (Target t : mTargetStorage.content) targetFreqs.add((double) t.targetFreq);
-
-        double minNormFactor = Math.sqrt(spectrum.length / 2) / 20.0;
-        double stepFreq = (double) mSamplingFreq / spectrum.length;
-        PeakDetector.Config config =
-                new PeakDetector.Config.Builder()
-                        .withMinNormFactor(minNormFactor)
-                        .withNumPoints(5)
-                        .withStep(1)
-                        .withStepFreq(stepFreq)
-                        .addTargetFreqs(targetFreqs)
-                        .build();
-
-        ArrayList<double[]> features =
-                PeakDetector.extractFeature(Arrays.copyOf(spectrum, spectrum.length / 2), config);
-        for (int i = 0; i < features.size(); i++) {
-            PeakDetector.QuadraticFeature feature =
-                    new PeakDetector.QuadraticFeature(features.get(i), config);
-            if (featureActive(feature)) {
-                double tfreq = targetFreqs.get(i);
-                double freq = tfreq - (feature.coeffs[1] / (2 * feature.coeffs[0])) * stepFreq;
-                double amp =
-                        Math.pow(feature.coeffs[1], 2) / (4 * feature.coeffs[0])
-                                + feature.coeffs[2];
-
-                if (amp > 0.5
-                        && freq > 0
-                        && ToneDetector.toneDetected(freq, tfreq, PARAM_TOL_DIFF_SEMI.getValue()))
-                    targets.put(i, mTargetStorage.content.get(i));
-            }
+        // Only the bins below the Nyquist frequency are analyzed
+        detect(
+                analysis,
+                transform.extractPeakFeatures(
+                        signal,
+                        spectrum,
+                        analysis.spectrumIndices,
+                        analysis.config,
+                        analysis.features));
+    }
+
+    // Fits the NUM_FIT_POINTS bins around each target, taken from the windowed frame by the
+    // Goertzel filters, and returns the number of features. The FFT mode normalizes the fitting by
+    // the strongest bin of the full spectrum, at most sqrt(energy / 2) of the frame by Parseval.
+    // When the n targets hold the tones of the frame, the strongest of them reaches that bound
+    // divided by sqrt(n), short of the losses of the window and of a tone between two bins, so the
+    // fitting is normalized by the strongest target bin with half of this as a floor. The bins of
+    // a frame whose energy lies elsewhere, in noise or in other tones, then stay below the floor.
+    static int processBins(double[] signal, TargetAnalysis analysis) {
+        double[] bins = analysis.bins;
+        analysis.bank.evaluate(signal, 0, signal.length, bins, analysis.scale);
+        for (int i = 0; i < bins.length; i++) {
+            if (analysis.outOfRange[i]) bins[i] = 0;
         }
 
-        if (PARAM_DUMP_HISTORY.getValue()) {
-            StringBuilder history = new StringBuilder();
-            for (int i = 0; i < mTargetStorage.content.size(); i++) {
-                boolean detected = targets.get(i) != null;
+        // The energy of the frame is that of its spectrum scaled by 1/sqrt(size)
+        double energy = 0;
+        for (double v : signal) energy += v * v;
+        return analysis.bank.extractPeakFeatures(
+                bins,
+                analysis.binIndices,
+                analysis.config,
+                Math.max(
+                        analysis.minNormFactor,
+                        Math.sqrt(energy / (2 * analysis.targetFreqs.length)) / 2),
+                analysis.features);
+    }
+
+    // Only the targets changing state are visited after the features are read, so a comb of
+    // many targets costs no more than the tones switching on and off
+    private void detect(TargetAnalysis analysis, int numFeatures) {
+        // The targets have changed since the analysis was built
+        if (numFeatures <= 0 || analysis.version != mTargetsVersion) return;
+
+        BitSet changes = analysis.changes;
+        changes.clear();
+        for (int i = 0; i < numFeatures; i++) {
+            if (analysis.isDetected(i, numFeatures) != analysis.detected.get(i)) changes.set(i);
+        }
+        analysis.detected.xor(changes);
+
+        SparseArray<Target> targets = new SparseArray<>();
+        StringBuilder history = null;
+        synchronized (mTargetStorage.content) {
+            if (analysis.version != mTargetsVersion) return;
+
+            for (int i = changes.nextSetBit(0); i >= 0; i = changes.nextSetBit(i + 1)) {
                 Target t = mTargetStorage.content.get(i);
-                if (t.state != detected) {
-                    mTargetStorage.content.get(i).state = detected;
-                    history.append(System.currentTimeMillis())
-                            .append(": ")
-                            .append(t.targetFreq)
-                            .append(" ")
-                            .append(detected ? "active" : "inactive")
-                            .append("\n");
-                }
+                t.state = analysis.detected.get(i);
+                if (!PARAM_DUMP_HISTORY.getValue()) continue;
+
+                if (history == null) history = new StringBuilder();
+                history.append(System.currentTimeMillis())
+                        .append(": ")
+                        .append(t.targetFreq)
+                        .append(" ")
+                        .append(t.state ? "active" : "inactive")
+                        .append("\n");
             }
 
-            if (history.length() > 0) {
-                try {
-                    PrintWriter pw =
-                            new PrintWriter(new FileOutputStream(new File(mDumpFilePath), true));
-                    pw.write(history.toString());
-                    pw.close();
-                    Log.d(TAG, "write: " + history.toString());
-                } catch (FileNotFoundException e) {
-                    Log.e(TAG, "failed to dump the detection history");
-                    e.printStackTrace();
-                }
+            BitSet detected = analysis.detected;
+            for (int i = detected.nextSetBit(0); i >= 0; i = detected.nextSetBit(i + 1))
+                targets.put(i, mTargetStorage.content.get(i));
+        }
+
+        if (history != null) {
+            try {
+                PrintWriter pw =
+                        new PrintWriter(new FileOutputStream(new File(mDumpFilePath), true));
+                pw.write(history.toString());
+                pw.close();
+                Log.d(TAG, "write: " + history.toString());
+            } catch (FileNotFoundException e) {
+                Log.e(TAG, "failed to dump the detection history");
+                e.printStackTrace();
             }
         }
 
         broadcastTargetDetected(targets);
     }
 
-    private boolean featureActive(PeakDetector.QuadraticFeature feature) {
-        return feature.coeffs[0] < 0 && feature.coeffs[2] > 0.5 && feature.dataDensity() > 0.4;
-    }
-
     public static boolean toneDetected(double freq, double tfreq, double diffInSemiTone) {
         return Math.abs(Math.log(freq / tfreq) / Math.log(2)) * 12 < diffInSemiTone;
     }
@@ -18,12 +18,12 @@ import com.google.audioworker.functions.common.WorkerFunction;
 import com.google.audioworker.utils.Constants;
 import com.google.audioworker.utils.signalproc.AudioConverter;
 import com.google.audioworker.utils.signalproc.SinusoidalGenerator;
-import com.google.audioworker.utils.signalproc.WavUtils;
+import com.google.audioworker.utils.signalproc.ToneCache;
+import com.google.audioworker.utils.signalproc.ToneFileGenerator;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -36,6 +36,7 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -48,6 +49,7 @@ public class PlaybackController extends AudioController.AudioRxController {
 
     private ThreadPoolExecutor mPoolExecuter;
     private HashMap<String, SparseArray<PlaybackRunnable>> mRunningPlaybackTasks;
+    private ToneFileCache mToneFileCache;
 
     @Override
     public void activate(Context ctx) {
@@ -70,6 +72,12 @@ public class PlaybackController extends AudioController.AudioRxController {
         } else {
             _dataPath = Constants.externalDirectory(name);
             mContextRef = new WeakReference<>(ctx);
+            mToneFileCache =
+                    new ToneFileCache(
+                            new File(
+                                    _dataPath,
+                                    Constants.Controllers.Config.Playback.TONE_FILE_CACHE_DIR),
+                            Constants.Controllers.Config.Playback.TONE_FILE_CACHE_MAX_BYTES);
             Log.i(TAG, "create data folder: " + _dataPath);
         }
     }
@@ -117,7 +125,7 @@ public class PlaybackController extends AudioController.AudioRxController {
                                     + " to position = "
                                     + f.getSeekPositionInMs()
                                     + " ms");
-                    playbackRunnable.seekTo(f.getSeekPositionInMs());
+                    playbackRunnable.seekTo(f.getSeekPositionInMs(), ackOnApplied(function, l));
                 } else {
                     Log.w(
                             TAG,
@@ -126,6 +134,17 @@ public class PlaybackController extends AudioController.AudioRxController {
                                     + " with playbackType:"
                                     + playbackType
                                     + " is not running, cannot seek");
+                    if (l != null) {
+                        WorkerFunction.Ack ack = WorkerFunction.Ack.ackToFunction(function);
+                        ack.setReturnCode(-1);
+                        ack.setDescription(
+                                "invalid argument: the task["
+                                        + playbackType
+                                        + ": "
+                                        + playbackId
+                                        + "] is not running");
+                        l.onAckReceived(ack);
+                    }
                 }
             }
             if (function instanceof PlaybackStartFunction) {
@@ -142,6 +161,23 @@ public class PlaybackController extends AudioController.AudioRxController {
                     stopFunction.setPlaybackId(((PlaybackStartFunction) function).getPlaybackId());
                     playbackRunnable.tryStop(stopFunction);
                     tasks.delete(playbackId);
+
+                    // Wait until the previous track is released before opening a new one
+                    if (!awaitTaskDone(playbackRunnable)) {
+                        Log.e(TAG, "Timed out waiting for the playback-id " + playbackId);
+                        if (l != null) {
+                            WorkerFunction.Ack ack = WorkerFunction.Ack.ackToFunction(function);
+                            ack.setReturnCode(-1);
+                            ack.setDescription(
+                                    "timed out waiting for the previous task["
+                                            + playbackType
+                                            + ": "
+                                            + playbackId
+                                            + "] to stop");
+                            l.onAckReceived(ack);
+                        }
+                        return;
+                    }
                 }
                 pushFunctionBeingExecuted(function);
                 playbackRunnable = new PlaybackRunnable((PlaybackStartFunction) function, l, this);
@@ -226,6 +262,44 @@ public class PlaybackController extends AudioController.AudioRxController {
         }
     }
 
+    PlaybackRunnable.CommandListener ackOnApplied(
+            final WorkerFunction function, final WorkerFunction.WorkerFunctionListener l) {
+        return new PlaybackRunnable.CommandListener() {
+            @Override
+            public void onCommandApplied(int ret, String description, long latencyNanos) {
+                notifyFunctionHasBeenExecuted(function);
+                if (l == null) return;
+
+                WorkerFunction.Ack ack = WorkerFunction.Ack.ackToFunction(function);
+                ack.setReturnCode(ret);
+                ack.setDescription(description);
+                ack.setReturns(getLatencyReturns(latencyNanos));
+                l.onAckReceived(ack);
+            }
+        };
+    }
+
+    static ArrayList<Object> getLatencyReturns(long latencyNanos) {
+        ArrayList<Object> returns = new ArrayList<>();
+        try {
+            JSONObject obj = new JSONObject();
+            obj.put("latency-ms", latencyNanos / 1e6);
+            returns.add(obj.toString());
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return returns;
+    }
+
+    static boolean awaitTaskDone(PlaybackRunnable task) {
+        try {
+            return task.awaitDone(Constants.Controllers.Config.Common.TASK_STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     public static class PlaybackRunnable implements Runnable {
         private PlaybackStartFunction mStartFunction;
         private PlaybackStopFunction mStopFunction;
@@ -233,8 +307,12 @@ public class PlaybackController extends AudioController.AudioRxController {
         private WorkerFunction.WorkerFunctionListener mListener;
         private ControllerBase mController;
         private AudioTrack mTrack;
-        private boolean exitPending;
-        private int mSeekPositionMs = -1;
+        private volatile boolean exitPending;
+        private volatile long mStopRequestNanos;
+        private final CountDownLatch mDoneLatch = new CountDownLatch(1);
+        private final LinkedBlockingQueue<PlaybackCommand> mMailbox = new LinkedBlockingQueue<>();
+        private final ArrayList<PlaybackCommand> mPendingSeeks = new ArrayList<>();
+        private boolean mSignalConfigChanged;
         private int mFileDurationMs = 0;
 
         public PlaybackRunnable(
@@ -342,20 +420,45 @@ public class PlaybackController extends AudioController.AudioRxController {
             }
         }
 
-        public WorkerFunction setSignalConfig(float amp, float freq) {
-            if (mStartFunction != null) {
-                mStartFunction.setAmplitude(amp);
-                mStartFunction.setTargetFrequency(freq);
-            }
-            return mStartFunction;
+        public interface CommandListener {
+            void onCommandApplied(int ret, String description, long latencyNanos);
         }
 
-        public WorkerFunction setSignalConfig(String amp, String freqs) {
-            if (mStartFunction != null) {
-                mStartFunction.setAmplitudes(amp);
-                mStartFunction.setTargetFrequencies(freqs);
+        // Commands are applied by the playback thread, the listener is called from there as well
+        private static class PlaybackCommand {
+            static final int TYPE_STOP = 0;
+            static final int TYPE_SEEK = 1;
+            static final int TYPE_SEEK_COMPLETED = 2;
+            static final int TYPE_SIGNAL_CONFIG = 3;
+
+            final int type;
+            final CommandListener listener;
+            final long postedNanos;
+            int seekPositionMs;
+            String amps;
+            String freqs;
+
+            PlaybackCommand(int type, CommandListener listener) {
+                this.type = type;
+                this.listener = listener;
+                this.postedNanos = System.nanoTime();
             }
-            return mStartFunction;
+
+            void complete(int ret, String description) {
+                if (listener != null)
+                    listener.onCommandApplied(ret, description, System.nanoTime() - postedNanos);
+            }
+        }
+
+        public void setSignalConfig(float amp, float freq, CommandListener l) {
+            setSignalConfig(String.valueOf(amp), String.valueOf(freq), l);
+        }
+
+        public void setSignalConfig(String amps, String freqs, CommandListener l) {
+            PlaybackCommand command = new PlaybackCommand(PlaybackCommand.TYPE_SIGNAL_CONFIG, l);
+            command.amps = amps;
+            command.freqs = freqs;
+            postCommand(command);
         }
 
         public PlaybackStartFunction getStartFunction() {
@@ -366,6 +469,10 @@ public class PlaybackController extends AudioController.AudioRxController {
             return exitPending;
         }
 
+        public boolean awaitDone(long timeoutMillis) throws InterruptedException {
+            return mDoneLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
         public void tryStop() {
             tryStop(null);
         }
@@ -377,22 +484,69 @@ public class PlaybackController extends AudioController.AudioRxController {
         public void tryStop(
                 PlaybackStopFunction function, WorkerFunction.WorkerFunctionListener l) {
             if (l != null) mListener = l;
-            exitPending = true;
             mStopFunction = function;
+            mStopRequestNanos = System.nanoTime();
+            exitPending = true;
+            postCommand(new PlaybackCommand(PlaybackCommand.TYPE_STOP, null));
         }
 
         @Override
         public void run() {
-            if (mStartFunction.getPlaybackType().equals(PlaybackStartFunction.TASK_NONOFFLOAD))
-                run_nonoffload();
-            else run_offload();
+            try {
+                if (mStartFunction
+                        .getPlaybackType()
+                        .equals(PlaybackStartFunction.TASK_NONOFFLOAD)) run_nonoffload();
+                else run_offload();
+            } finally {
+                mDoneLatch.countDown();
+                rejectPendingCommands();
+            }
         }
 
-        public void seekTo(int positionInMs) {
-            if (positionInMs <= mFileDurationMs) {
-                mSeekPositionMs = positionInMs;
-            } else {
-                Log.e(TAG, "Cannot seek to position past the audio file duration!");
+        public void seekTo(int positionInMs, CommandListener l) {
+            PlaybackCommand command = new PlaybackCommand(PlaybackCommand.TYPE_SEEK, l);
+            command.seekPositionMs = positionInMs;
+            postCommand(command);
+        }
+
+        private void postCommand(PlaybackCommand command) {
+            mMailbox.offer(command);
+            // Nobody will take the command once the playback thread has gone
+            if (mDoneLatch.getCount() == 0) rejectPendingCommands();
+        }
+
+        private void rejectPendingCommands() {
+            PlaybackCommand command;
+            while ((command = mMailbox.poll()) != null)
+                command.complete(-1, "playback is not running");
+        }
+
+        private void applyCommand(PlaybackCommand command, MediaPlayer player) {
+            switch (command.type) {
+                case PlaybackCommand.TYPE_SEEK:
+                    if (player == null) {
+                        command.complete(-1, "seek is not supported by AudioTrack playback");
+                    } else if (command.seekPositionMs > mFileDurationMs) {
+                        Log.e(TAG, "Cannot seek to position past the audio file duration!");
+                        command.complete(-1, "cannot seek past the audio file duration");
+                    } else {
+                        // The seek is acked once the player reports its completion
+                        mPendingSeeks.add(command);
+                        player.seekTo(command.seekPositionMs);
+                    }
+                    break;
+                case PlaybackCommand.TYPE_SEEK_COMPLETED:
+                    for (PlaybackCommand seek : mPendingSeeks) seek.complete(0, "seek applied");
+                    mPendingSeeks.clear();
+                    break;
+                case PlaybackCommand.TYPE_SIGNAL_CONFIG:
+                    mStartFunction.setAmplitudes(command.amps);
+                    mStartFunction.setTargetFrequencies(command.freqs);
+                    mSignalConfigChanged = true;
+                    command.complete(0, "signal config applied");
+                    break;
+                default:
+                    break;
             }
         }
 
@@ -471,12 +625,7 @@ public class PlaybackController extends AudioController.AudioRxController {
 
             double[] signal = new double[frameCount];
             ArrayList<SinusoidalGenerator> signalGenerators = new ArrayList<>(numChannels);
-            ArrayList<SparseArray<SinusoidalGenerator.ModelInfo>> infos =
-                    new ArrayList<>(numChannels);
-            for (int i = 0; i < numChannels; i++) {
-                signalGenerators.add(new SinusoidalGenerator());
-                infos.add(new SparseArray<SinusoidalGenerator.ModelInfo>());
-            }
+            for (int i = 0; i < numChannels; i++) signalGenerators.add(new SinusoidalGenerator());
 
             // Allocate buffers outside the loop
             byte[] byteBuffer = (bitWidth == 8) ? new byte[frameCount * numChannels] : null;
@@ -484,7 +633,6 @@ public class PlaybackController extends AudioController.AudioRxController {
             int[] intBuffer = (bitWidth == 32) ? new int[frameCount * numChannels] : null;
             byte[] byteBuffer32 = (bitWidth == 32) ? new byte[intBuffer.length * 4] : null;
 
-            exitPending = false;
             Log.d(
                     TAG,
                     "playFromAudioTrack: start running (id: "
@@ -495,14 +643,62 @@ public class PlaybackController extends AudioController.AudioRxController {
 
             ArrayList<Double> freqs = mStartFunction.getTargetFrequencies();
             ArrayList<Float> amps = mStartFunction.getAmplitudes();
+            ToneCache.Block block = getToneBlock(freqs, amps, numChannels);
+            int blockPos = 0;
+            // The phase of the next frame of each channel, carried over a signal config change
+            double[] phases = new double[numChannels];
             while (!exitPending) {
+                PlaybackCommand command;
+                while ((command = mMailbox.poll()) != null) applyCommand(command, null);
+                if (mSignalConfigChanged) {
+                    if (block != null) {
+                        block.phasesAt(blockPos, phases);
+                    } else {
+                        for (int c = 0; c < numChannels; c++)
+                            phases[c] = signalGenerators.get(c).getPhase();
+                    }
+
+                    freqs = mStartFunction.getTargetFrequencies();
+                    amps = mStartFunction.getAmplitudes();
+                    block = getToneBlock(freqs, amps, numChannels);
+                    blockPos =
+                            block != null
+                                    ? block.offsetOf(
+                                            phases,
+                                            Constants.Controllers.Config.Playback
+                                                    .TONE_CACHE_PHASE_TOLERANCE)
+                                    : -1;
+                    // The tones are rendered from the phases reached when no frame of the block
+                    // starts at them all, e.g. for channels of unrelated frequencies
+                    if (blockPos < 0) {
+                        if (block != null)
+                            Log.d(TAG, "playFromAudioTrack: no cached frame at the tone phases");
+                        block = null;
+                        for (int c = 0; c < numChannels; c++)
+                            signalGenerators.set(c, new SinusoidalGenerator(phases[c]));
+                    }
+                    mSignalConfigChanged = false;
+                }
+
+                // A steady tone is only sliced out of its cached periods
+                if (block != null) {
+                    int frames = Math.min(frameCount, block.numFrames - blockPos);
+                    if (block.shorts != null)
+                        mTrack.write(block.shorts, blockPos * numChannels, frames * numChannels);
+                    else
+                        mTrack.write(
+                                block.bytes,
+                                blockPos * block.frameSize(),
+                                frames * block.frameSize());
+                    blockPos = (blockPos + frames) % block.numFrames;
+                    continue;
+                }
+
                 for (int c = 0; c < numChannels; c++) {
                     double freq = freqs.get(freqs.size() > c ? c : freqs.size() - 1);
                     float amp = amps.get(amps.size() > c ? c : amps.size() - 1);
-                    SparseArray<SinusoidalGenerator.ModelInfo> info = infos.get(c);
                     SinusoidalGenerator signalGenerator = signalGenerators.get(c);
-                    info.put(0, new SinusoidalGenerator.ModelInfo(amp, freq));
-                    signalGenerator.render(signal, info, mStartFunction.getSamplingFreq());
+                    signalGenerator.render(signal, amp, freq, mStartFunction.getSamplingFreq());
 
                     switch (bitWidth) {
                         case 8:
@@ -544,34 +740,49 @@ public class PlaybackController extends AudioController.AudioRxController {
             mController.broadcastStateChange(mController);
         }
 
-        private void run_offload() {
-            Log.d(TAG, "Generating wav file...");
-            int retry = 5;
-            while (!genAudioFile()) {
-                Log.w(TAG, "Failed to generate wav file");
-                if (--retry < 0) {
-                    Log.e(TAG, "retry count has been reached, abort the request");
-                    return;
-                }
-            }
-            Log.d(
-                    TAG,
-                    "Generate "
-                            + Constants.Controllers.Config.Playback.TONE_FILE_DURATION_SECONDS
-                            + " sec "
-                            + mStartFunction.getTargetFrequenciesString()
-                            + "Hz tone wav");
+        // Returns null if the tones cannot be cached, they are then rendered buffer by buffer
+        private ToneCache.Block getToneBlock(
+                ArrayList<Double> freqs, ArrayList<Float> amps, int numChannels) {
+            int bitWidth = mStartFunction.getBitWidth();
+            if (bitWidth != 8 && bitWidth != 16 && bitWidth != 32) return null;
+
+            ToneCache.Block block =
+                    ToneCache.get(
+                            mStartFunction.getSamplingFreq(),
+                            bitWidth,
+                            getChannelFrequencies(freqs, numChannels),
+                            getChannelAmplitudes(amps, numChannels));
+            if (block == null) Log.d(TAG, "playFromAudioTrack: tones are not cacheable");
+            return block;
+        }
+
+        // The channels beyond the given values repeat the last one
+        private double[] getChannelFrequencies(ArrayList<Double> freqs, int numChannels) {
+            double[] channelFreqs = new double[numChannels];
+            for (int c = 0; c < numChannels; c++)
+                channelFreqs[c] = freqs.get(freqs.size() > c ? c : freqs.size() - 1);
+            return channelFreqs;
+        }
+
+        private float[] getChannelAmplitudes(ArrayList<Float> amps, int numChannels) {
+            float[] channelAmps = new float[numChannels];
+            for (int c = 0; c < numChannels; c++)
+                channelAmps[c] = amps.get(amps.size() > c ? c : amps.size() - 1);
+            return channelAmps;
+        }
 
+        private void run_offload() {
             String wavPath =
                     new File(mController.getDataDir(), getTempName() + ".wav").getAbsolutePath();
             String mp3Path =
                     new File(mController.getDataDir(), getTempName() + ".mp3").getAbsolutePath();
-            String path = wavPath;
+            String path;
             if (Files.exists(Paths.get(mStartFunction.getPlaybackFile()))) {
                 Log.d(TAG, "run_offload: Using file " + mStartFunction.getPlaybackFile());
                 path = mStartFunction.getPlaybackFile();
             } else {
-                path = convertToMp3(wavPath, mp3Path) ? mp3Path : wavPath;
+                path = obtainToneFile(wavPath, mp3Path);
+                if (path == null) return;
             }
 
             playFile(path);
@@ -586,15 +797,81 @@ public class PlaybackController extends AudioController.AudioRxController {
             File[] files = {new File(wavPath), new File(mp3Path)};
             for (File f : files) {
                 if (f.exists() && !f.delete()) {
-                    Log.w(TAG, "Delete " + wavPath + " failed");
+                    Log.w(TAG, "Delete " + f + " failed");
                 }
             }
         }
 
+        // Returns the cached tone file of the settings, or generates and encodes it into the
+        // temporary paths and moves the result into the cache. Null if the generation failed.
+        private String obtainToneFile(String wavPath, String mp3Path) {
+            ToneFileCache cache =
+                    mController instanceof PlaybackController
+                            ? ((PlaybackController) mController).mToneFileCache
+                            : null;
+            String key = cache != null ? ToneFileCache.keyOf(getToneFileDescription()) : null;
+            File cached = cache != null ? cache.lookup(key) : null;
+            if (cached != null) {
+                Log.d(TAG, "run_offload: Using cached file " + cached);
+                return cached.getAbsolutePath();
+            }
+
+            Log.d(TAG, "Generating wav file...");
+            int retry = 5;
+            while (!genAudioFile()) {
+                Log.w(TAG, "Failed to generate wav file");
+                if (--retry < 0) {
+                    Log.e(TAG, "retry count has been reached, abort the request");
+                    return null;
+                }
+            }
+            Log.d(
+                    TAG,
+                    "Generate "
+                            + Constants.Controllers.Config.Playback.TONE_FILE_DURATION_SECONDS
+                            + " sec "
+                            + mStartFunction.getTargetFrequenciesString()
+                            + "Hz tone wav");
+
+            // The key describes the MP3, a WAV left by a failed conversion is played uncached
+            if (!convertToMp3(wavPath, mp3Path)) return wavPath;
+
+            cached = cache != null ? cache.put(key, new File(mp3Path)) : null;
+            return cached != null ? cached.getAbsolutePath() : mp3Path;
+        }
+
+        // Everything the content of the generated and encoded tone file depends on
+        private String getToneFileDescription() {
+            return "rate="
+                    + mStartFunction.getSamplingFreq()
+                    + ";channels="
+                    + mStartFunction.getNumChannels()
+                    + ";bits="
+                    + mStartFunction.getBitWidth()
+                    + ";freqs="
+                    + mStartFunction.getTargetFrequencies()
+                    + ";amps="
+                    + mStartFunction.getAmplitudes()
+                    + ";seconds="
+                    + Constants.Controllers.Config.Playback.TONE_FILE_DURATION_SECONDS
+                    + ";mp3-kbps="
+                    + Constants.Controllers.Config.Playback.MP3_ENCODE.COMPRESSION_RATIO_KHZ
+                    + ";mp3-quality="
+                    + Constants.Controllers.Config.Playback.MP3_ENCODE.QUALITY;
+        }
+
         private void playFile(String path) {
-            exitPending = false;
             MediaPlayer player = new MediaPlayer();
             player.setAudioAttributes(mAttributes);
+            player.setOnSeekCompleteListener(
+                    new MediaPlayer.OnSeekCompleteListener() {
+                        @Override
+                        public void onSeekComplete(MediaPlayer mp) {
+                            postCommand(
+                                    new PlaybackCommand(
+                                            PlaybackCommand.TYPE_SEEK_COMPLETED, null));
+                        }
+                    });
             mController.broadcastStateChange(mController);
             try {
                 player.setDataSource(path);
@@ -610,18 +887,16 @@ public class PlaybackController extends AudioController.AudioRxController {
             }
             while (!exitPending) {
                 try {
-                    Thread.sleep(1000);
+                    applyCommand(mMailbox.take(), player);
                 } catch (InterruptedException e) {
                     exitPending = true;
                     e.printStackTrace();
                 }
-                if (mSeekPositionMs >= 0) {
-                    player.seekTo(mSeekPositionMs);
-                    mSeekPositionMs = -1;
-                }
             }
             player.stop();
             player.release();
+            for (PlaybackCommand seek : mPendingSeeks) seek.complete(-1, "playback stopped");
+            mPendingSeeks.clear();
             mController.broadcastStateChange(mController);
         }
 
@@ -666,121 +941,20 @@ public class PlaybackController extends AudioController.AudioRxController {
         }
 
         private boolean genAudioFile() {
+            String path =
+                    new File(mController.getDataDir(), getTempName() + ".wav").getAbsolutePath();
+            int nch = mStartFunction.getNumChannels();
+            ToneFileGenerator generator =
+                    new ToneFileGenerator(
+                            mStartFunction.getSamplingFreq(),
+                            mStartFunction.getBitWidth(),
+                            getChannelFrequencies(mStartFunction.getTargetFrequencies(), nch),
+                            getChannelAmplitudes(mStartFunction.getAmplitudes(), nch));
             try {
-                WavUtils.WavConfig config =
-                        new WavUtils.WavConfig.Builder()
-                                .withSamplingFrequency(mStartFunction.getSamplingFreq())
-                                .withNumChannels(mStartFunction.getNumChannels())
-                                .withBitPerSample(mStartFunction.getBitWidth())
-                                .withDurationMillis(
-                                        Constants.Controllers.Config.Playback
-                                                        .TONE_FILE_DURATION_SECONDS
-                                                * 1000)
-                                .build();
-                DataOutputStream data =
-                        WavUtils.obtainWavFile(
-                                config,
-                                new File(mController.getDataDir(), getTempName() + ".wav")
-                                        .getAbsolutePath());
-                double[] signal = new double[mStartFunction.getSamplingFreq()];
-                ArrayList<SinusoidalGenerator> signalGenerators =
-                        new ArrayList<>(mStartFunction.getNumChannels());
-                ArrayList<SparseArray<SinusoidalGenerator.ModelInfo>> infos =
-                        new ArrayList<>(mStartFunction.getNumChannels());
-                for (int i = 0; i < mStartFunction.getNumChannels(); i++) {
-                    signalGenerators.add(new SinusoidalGenerator());
-                    infos.add(new SparseArray<SinusoidalGenerator.ModelInfo>());
-                }
-                ArrayList<Double> freqs = mStartFunction.getTargetFrequencies();
-                ArrayList<Float> amps = mStartFunction.getAmplitudes();
-
-                for (int dummy = 0;
-                        dummy < Constants.Controllers.Config.Playback.TONE_FILE_DURATION_SECONDS;
-                        dummy++) {
-                    switch ((mStartFunction.getBitWidth())) {
-                        case 8:
-                            {
-                                byte[] raw =
-                                        new byte[signal.length * mStartFunction.getNumChannels()];
-                                for (int c = 0; c < mStartFunction.getNumChannels(); c++) {
-                                    double freq =
-                                            freqs.get(freqs.size() > c ? c : freqs.size() - 1);
-                                    float amp = amps.get(amps.size() > c ? c : amps.size() - 1);
-                                    SparseArray<SinusoidalGenerator.ModelInfo> info = infos.get(c);
-                                    SinusoidalGenerator signalGenerator = signalGenerators.get(c);
-                                    info.put(0, new SinusoidalGenerator.ModelInfo(amp, freq));
-                                    signalGenerator.render(
-                                            signal, info, mStartFunction.getSamplingFreq());
-
-                                    for (int i = 0; i < signal.length; i++)
-                                        raw[i * mStartFunction.getNumChannels() + c] =
-                                                (byte) ((1 << 7 - 1) * signal[i]);
-                                }
-                                data.write(raw);
-                            }
-                            break;
-                        case 32:
-                            {
-                                int[] raw =
-                                        new int[signal.length * mStartFunction.getNumChannels()];
-                                byte[] buffer = new byte[raw.length * 4];
-                                for (int c = 0; c < mStartFunction.getNumChannels(); c++) {
-                                    double freq =
-                                            freqs.get(freqs.size() > c ? c : freqs.size() - 1);
-                                    float amp = amps.get(amps.size() > c ? c : amps.size() - 1);
-                                    SparseArray<SinusoidalGenerator.ModelInfo> info = infos.get(c);
-                                    SinusoidalGenerator signalGenerator = signalGenerators.get(c);
-                                    info.put(0, new SinusoidalGenerator.ModelInfo(amp, freq));
-                                    signalGenerator.render(
-                                            signal, info, mStartFunction.getSamplingFreq());
-
-                                    for (int i = 0; i < signal.length; i++)
-                                        raw[i * mStartFunction.getNumChannels() + c] =
-                                                (int) ((1 << 31 - 1) * signal[i]);
-                                }
-                                ByteBuffer.wrap(buffer)
-                                        .order(ByteOrder.LITTLE_ENDIAN)
-                                        .asIntBuffer()
-                                        .put(raw);
-                                data.write(buffer);
-                            }
-                            break;
-                        case 16:
-                        default:
-                            {
-                                short[] raw =
-                                        new short[signal.length * mStartFunction.getNumChannels()];
-                                byte[] buffer = new byte[raw.length * 2];
-                                for (int c = 0; c < mStartFunction.getNumChannels(); c++) {
-                                    double freq =
-                                            freqs.get(freqs.size() > c ? c : freqs.size() - 1);
-                                    float amp = amps.get(amps.size() > c ? c : amps.size() - 1);
-                                    SparseArray<SinusoidalGenerator.ModelInfo> info = infos.get(c);
-                                    SinusoidalGenerator signalGenerator = signalGenerators.get(c);
-                                    info.put(0, new SinusoidalGenerator.ModelInfo(amp, freq));
-                                    signalGenerator.render(
-                                            signal, info, mStartFunction.getSamplingFreq());
-
-                                    for (int i = 0; i < signal.length; i++)
-                                        raw[i * mStartFunction.getNumChannels() + c] =
-                                                (short) ((1 << 15 - 1) * signal[i]);
-                                }
-                                ByteBuffer.wrap(buffer)
-                                        .order(ByteOrder.LITTLE_ENDIAN)
-                                        .asShortBuffer()
-                                        .put(raw);
-                                data.write(buffer);
-                            }
-                            break;
-                    }
-                }
-
-                data.close();
-                Log.d(
-                        TAG,
-                        "write data to: "
-                                + new File(mController.getDataDir(), getTempName() + ".wav")
-                                        .getAbsolutePath());
+                generator.generate(
+                        path,
+                        Constants.Controllers.Config.Playback.TONE_FILE_DURATION_SECONDS * 1000);
+                Log.d(TAG, "write data to: " + path);
                 return true;
             } catch (IOException e) {
                 e.printStackTrace();
@@ -804,6 +978,7 @@ public class PlaybackController extends AudioController.AudioRxController {
             } else if (function instanceof PlaybackStopFunction) {
                 ack.setReturnCode(ret);
                 ack.setDescription("stop command received");
+                ack.setReturns(getLatencyReturns(System.nanoTime() - mStopRequestNanos));
             } else {
                 ack.setReturnCode(-1);
                 ack.setDescription("invalid argument");
@@ -24,28 +24,36 @@ import com.google.audioworker.functions.commands.CommandHelper;
 import com.google.audioworker.functions.common.WorkerFunction;
 import com.google.audioworker.utils.Constants;
 import com.google.audioworker.utils.Constants.Controllers.Config.RecordTask;
-import com.google.audioworker.utils.signalproc.WavUtils;
+import com.google.audioworker.utils.concurrent.DispatchStage;
+import com.google.audioworker.utils.ds.AudioFrame;
+import com.google.audioworker.utils.signalproc.WavWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class RecordController extends AudioController.AudioTxController {
     private static final String TAG = Constants.packageTag("RecordController");
@@ -55,13 +63,17 @@ public class RecordController extends AudioController.AudioTxController {
     private HashMap<String, DetectorBase.DetectionListener> mDetectionListeners;
     private final ArrayList<RecordRunnable.RecordDataListener> mDataListeners = new ArrayList<>();
     private RecordRunnable[] mMainRunningTasks = new RecordRunnable[RecordTask.MAX_NUM];
+    private RecordRunnable[] mStoppingTasks = new RecordRunnable[RecordTask.MAX_NUM];
+    // The capture streams running for any controller, see attachCaptureSession()
+    private static final ArrayList<RecordInternalRunnable> sCaptureSessions = new ArrayList<>();
     private ThreadPoolExecutor mPoolExecuter;
 
     static {
         System.loadLibrary("native-lib");
     }
 
-    public native void openInput(
+    // Returns 0 once the stream is open, or a negative native error code
+    public native int openInput(
             int format,
             int channel,
             int sample_rate,
@@ -71,7 +83,7 @@ public class RecordController extends AudioController.AudioTxController {
             int api,
             int index);
 
-    public native void startRecording(int api, int index);
+    public native int startRecording(int api, int index);
 
     public native void stopRecording(int api, int index);
 
@@ -79,7 +91,11 @@ public class RecordController extends AudioController.AudioTxController {
 
     public native void saveWav(String filename, int api, int index);
 
-    public void openInput(
+    // Blocks until size bytes captured by the external API are copied into the direct buffer.
+    // Returns the number of bytes read, 0 on timeout or a negative value on error.
+    public native int readInput(ByteBuffer buffer, int size, int timeoutMs, int api, int index);
+
+    public int openInput(
             AudioFormat format,
             int channel,
             int source,
@@ -87,7 +103,7 @@ public class RecordController extends AudioController.AudioTxController {
             int bufferSize,
             int api,
             int index) {
-        openInput(
+        return openInput(
                 format.getEncoding(),
                 channel,
                 format.getSampleRate(),
@@ -153,33 +169,60 @@ public class RecordController extends AudioController.AudioTxController {
                     return;
                 }
 
+                // Keep the input stream if the running task captures the same format
+                if (isTxRunning(taskIndex)
+                        && mMainRunningTasks[taskIndex].canReconfigure(
+                                (RecordStartFunction) function)) {
+                    Log.d(TAG, "Reconfigure the running task[" + taskIndex + "]");
+                    pushFunctionBeingExecuted(function);
+
+                    RecordRunnable task = mMainRunningTasks[taskIndex];
+                    for (RecordRunnable.RecordDataListener dl : mDataListeners)
+                        task.registerDataListener(dl);
+                    task.reconfigure((RecordStartFunction) function, l);
+                    for (DetectorBase detector : mDetectors.values())
+                        task.registerDetector(detector);
+                    return;
+                }
+
                 if (isTxRunning(taskIndex)) {
                     for (RecordRunnable.RecordDataListener dl : mDataListeners)
                         mMainRunningTasks[taskIndex].unregisterDataListener(dl);
                     mMainRunningTasks[taskIndex].tryStop(new RecordStopFunction());
+                    retireTask(taskIndex);
+                }
 
-                    while (isTxRunning(taskIndex)) {
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
+                // The previous task may still hold the input, wait until it is released
+                if (mStoppingTasks[taskIndex] != null) {
+                    if (!awaitTaskDone(mStoppingTasks[taskIndex])) {
+                        Log.e(TAG, "Timed out waiting for the task[" + taskIndex + "] to stop");
+                        if (l != null) {
+                            WorkerFunction.Ack ack = WorkerFunction.Ack.ackToFunction(function);
+                            ack.setReturnCode(-1);
+                            ack.setDescription(
+                                    "timed out waiting for the previous task["
+                                            + taskIndex
+                                            + "] to stop");
+                            l.onAckReceived(ack);
                         }
+                        return;
                     }
+                    mStoppingTasks[taskIndex] = null;
                 }
 
                 pushFunctionBeingExecuted(function);
 
-                mMainRunningTasks[taskIndex] =
-                        new RecordRunnable((RecordStartFunction) function, l, this);
-                mMainRunningTasks[taskIndex].setRecordRunner(
-                        new RecordInternalRunnable(mMainRunningTasks[taskIndex]));
+                RecordRunnable task = new RecordRunnable((RecordStartFunction) function, l, this);
+                RecordInternalRunnable session = attachCaptureSession(task);
+                if (session == null)
+                    Log.d(TAG, "The task[" + taskIndex + "] shares a running capture stream");
+                mMainRunningTasks[taskIndex] = task;
                 for (RecordRunnable.RecordDataListener dl : mDataListeners)
-                    mMainRunningTasks[taskIndex].registerDataListener(dl);
-                for (DetectorBase detector : mDetectors.values())
-                    mMainRunningTasks[taskIndex].registerDetector(detector);
+                    task.registerDataListener(dl);
+                for (DetectorBase detector : mDetectors.values()) task.registerDetector(detector);
 
-                mPoolExecuter.execute(mMainRunningTasks[taskIndex]);
-                mPoolExecuter.execute(mMainRunningTasks[taskIndex].slave);
+                mPoolExecuter.execute(task);
+                if (session != null) mPoolExecuter.execute(session);
             } else if (function instanceof RecordStopFunction) {
                 int taskIndex = ((RecordFunction) function).getIndex();
                 if (l != null) {
@@ -195,7 +238,7 @@ public class RecordController extends AudioController.AudioTxController {
                     if (isTxRunning(i)) {
                         pushFunctionBeingExecuted(function);
                         mMainRunningTasks[i].tryStop((RecordStopFunction) function, l);
-                        mMainRunningTasks[i] = null;
+                        retireTask(i);
                     }
                 }
                 mDetectors.clear();
@@ -522,92 +565,454 @@ public class RecordController extends AudioController.AudioTxController {
         for (int i = 0; i < RecordTask.MAX_NUM; i++) {
             if (isTxRunning(i)) {
                 mMainRunningTasks[i].tryStop();
-                mMainRunningTasks[i] = null;
+                retireTask(i);
+            }
+        }
+    }
+
+    // Feeds the task from a running capture stream it can share, whichever controller opened it.
+    // Returns the new stream for the caller to run if there is none.
+    static RecordInternalRunnable attachCaptureSession(RecordRunnable task) {
+        RecordInternalRunnable session;
+        synchronized (sCaptureSessions) {
+            for (RecordInternalRunnable running : sCaptureSessions) {
+                if (running.canFeed(task.getStartFunction()) && running.attach(task)) {
+                    task.setRecordRunner(running);
+                    return null;
+                }
             }
+
+            session = new RecordInternalRunnable(task);
+            sCaptureSessions.add(session);
+        }
+        task.setRecordRunner(session);
+        return session;
+    }
+
+    private void retireTask(int index) {
+        mStoppingTasks[index] = mMainRunningTasks[index];
+        mMainRunningTasks[index] = null;
+    }
+
+    static boolean awaitTaskDone(RecordRunnable task) {
+        try {
+            return task.awaitDone(Constants.Controllers.Config.Common.TASK_STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return false;
         }
     }
 
-    public static class RecordSharedBuffer {
-        private byte[] raw;
-        private boolean hasRefreshed;
+    // A buffer filled once by the capture thread and shared by every task fed by the stream. Each
+    // of them reads it through its own read-only view, and it goes back to the pool of the stream
+    // once all of them are done with it.
+    static class CaptureBuffer {
+        private final ByteBuffer data;
+        private final ArrayBlockingQueue<CaptureBuffer> pool;
+        private final AtomicInteger refs = new AtomicInteger(0);
+        // Views made for the queues this buffer was handed to, only touched by the capture thread
+        private final RecordBufferQueue[] viewOwners =
+                new RecordBufferQueue[RecordTask.MAX_NUM + 1];
+        private final ByteBuffer[] views = new ByteBuffer[viewOwners.length];
+        private int nextView = 0;
+
+        CaptureBuffer(int size, ArrayBlockingQueue<CaptureBuffer> pool) {
+            data = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+            this.pool = pool;
+        }
 
-        RecordSharedBuffer(int buffsize) {
-            hasRefreshed = false;
-            raw = new byte[buffsize];
+        // From the pool, or a new one while every pooled buffer is still being read
+        static CaptureBuffer obtain(ArrayBlockingQueue<CaptureBuffer> pool, int size) {
+            CaptureBuffer buffer = pool.poll();
+            if (buffer == null) buffer = new CaptureBuffer(size, pool);
+            buffer.refs.set(1);
+            return buffer;
         }
 
-        boolean dataAvailable() {
-            return hasRefreshed;
+        // Where the capture thread writes to
+        ByteBuffer data() {
+            return data;
         }
 
-        void put(byte[] src) {
-            synchronized (this) {
-                System.arraycopy(src, 0, raw, 0, src.length);
-                hasRefreshed = true;
+        void retain() {
+            refs.incrementAndGet();
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) pool.offer(this);
+        }
+
+        private ByteBuffer viewFor(RecordBufferQueue queue) {
+            for (int i = 0; i < viewOwners.length; i++) {
+                if (viewOwners[i] == queue) {
+                    views[i].clear();
+                    return views[i];
+                }
             }
+
+            // Once full, the view of a queue which may have gone is replaced
+            int idx = nextView;
+            nextView = (nextView + 1) % viewOwners.length;
+            viewOwners[idx] = queue;
+            views[idx] = data.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            return views[idx];
+        }
+    }
+
+    public static class RecordBufferQueue {
+        private final CaptureBuffer[] slots;
+        private final ByteBuffer[] views;
+        private final int[] lengths;
+        private final long[] timestamps;
+        private final int bufferSize;
+
+        private volatile long writeCount = 0;
+        private volatile long readCount = 0;
+
+        private volatile long overrunBuffers = 0;
+        private volatile long overrunBytes = 0;
+        private volatile long underrunBuffers = 0;
+
+        RecordBufferQueue(int numBuffers, int buffsize) {
+            bufferSize = buffsize;
+            slots = new CaptureBuffer[Math.max(numBuffers, 1)];
+            views = new ByteBuffer[slots.length];
+            lengths = new int[slots.length];
+            timestamps = new long[slots.length];
+        }
+
+        int bufferSize() {
+            return bufferSize;
+        }
+
+        int capacity() {
+            return slots.length;
         }
 
-        void fetch(byte[] dest) {
+        // Called by the capture thread only. When the processing thread falls behind, the buffer
+        // is not queued and is accounted as an overrun.
+        boolean offer(CaptureBuffer buffer, int length, long timestampNanos) {
+            if (writeCount - readCount >= slots.length) {
+                overrunBuffers++;
+                overrunBytes += length;
+                return false;
+            }
+
+            int idx = (int) (writeCount % slots.length);
+            buffer.retain();
+            slots[idx] = buffer;
+            views[idx] = buffer.viewFor(this);
+            lengths[idx] = length;
+            timestamps[idx] = timestampNanos;
+            writeCount++;
             synchronized (this) {
-                System.arraycopy(raw, 0, dest, 0, dest.length);
-                hasRefreshed = false;
+                notify();
             }
+            return true;
+        }
+
+        // Called by the processing thread only, the buffer is read-only and valid until queueRead()
+        ByteBuffer dequeueRead(long timeoutMillis) throws InterruptedException {
+            if (writeCount == readCount) {
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                synchronized (this) {
+                    long remaining = timeoutMillis;
+                    while (writeCount == readCount && remaining > 0) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                }
+            }
+
+            if (writeCount == readCount) {
+                underrunBuffers++;
+                return null;
+            }
+
+            return views[(int) (readCount % slots.length)];
+        }
+
+        int readLength() {
+            return lengths[(int) (readCount % slots.length)];
+        }
+
+        long readTimestamp() {
+            return timestamps[(int) (readCount % slots.length)];
+        }
+
+        void queueRead() {
+            int idx = (int) (readCount % slots.length);
+            CaptureBuffer buffer = slots[idx];
+            slots[idx] = null;
+            views[idx] = null;
+            readCount++;
+            buffer.release();
+        }
+
+        // Gives the queued buffers back once the processing thread is done
+        void drain() {
+            while (readCount != writeCount) queueRead();
+        }
+
+        public long getOverrunBuffers() {
+            return overrunBuffers;
+        }
+
+        public long getOverrunBytes() {
+            return overrunBytes;
+        }
+
+        public long getUnderrunBuffers() {
+            return underrunBuffers;
         }
     }
 
+    // The last captured frames kept for RecordDumpFunction. A ring of a few megabytes or more lives
+    // in a memory-mapped file, unlinked right after being mapped, so long windows stay off the
+    // heap. The ring is reference counted, its owner and every reader hold a reference, and the
+    // last release() truncates the file so its disk space does not wait for the mapping's GC.
     static class RecordCircularBuffer {
-        private byte[] raw;
-        private int head = 0;
-        private int len = 0;
+        interface Sink {
+            void write(ByteBuffer data) throws IOException;
+        }
 
-        RecordCircularBuffer(int buffsize) {
-            raw = new byte[buffsize];
+        private final ByteBuffer raw;
+        // Views moved around under the lock by the writer and the readers
+        private final ByteBuffer writeView;
+        private final ByteBuffer readView;
+        private final int capacity;
+        private final int frameSize;
+        // The unlinked file of a mapped ring, kept open to be truncated on release
+        private final RandomAccessFile ringFile;
+        // The number of bytes pushed so far, guarded by the lock
+        private long committed = 0;
+        // Guarded by the lock, nothing touches the ring once it drops to 0
+        private int refs = 1;
+
+        RecordCircularBuffer(long buffsize, int frameSize) {
+            this(buffsize, frameSize, null);
         }
 
-        void push(byte[] src) {
-            synchronized (this) {
-                for (byte v : src) {
-                    raw[(head + len) % raw.length] = v;
-                    if (len < raw.length) {
-                        len++;
-                    } else {
-                        head++;
-                        head %= raw.length;
-                    }
+        RecordCircularBuffer(long buffsize, int frameSize, File dir) {
+            this.frameSize = Math.max(frameSize, 1);
+            capacity = capacityFor(buffsize, this.frameSize);
+            if (capacity < buffsize / this.frameSize * this.frameSize)
+                Log.w(TAG, "the dump buffer is limited to " + capacity + " bytes");
+
+            RandomAccessFile file = null;
+            ByteBuffer mapped = null;
+            if (dir != null
+                    && capacity >= Constants.Controllers.Config.Record.DUMP_MAP_MIN_BYTES) {
+                file = createRingFile(dir, capacity);
+                try {
+                    if (file != null)
+                        mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                } catch (IOException e) {
+                    Log.w(TAG, "the dump buffer falls back to the heap: " + e.getMessage());
+                    closeRingFile(file);
+                    file = null;
                 }
             }
+            ringFile = file;
+            raw = mapped != null ? mapped : ByteBuffer.allocate(capacity);
+            writeView = raw.duplicate();
+            readView = raw.duplicate();
+        }
+
+        // An open file of the size, already unlinked from the directory
+        private static RandomAccessFile createRingFile(File dir, int size) {
+            File file = null;
+            RandomAccessFile ring = null;
+            try {
+                if (!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+
+                file = File.createTempFile("dump-", ".pcm", dir);
+                ring = new RandomAccessFile(file, "rw");
+                ring.setLength(size);
+                return ring;
+            } catch (IOException e) {
+                Log.w(TAG, "the dump buffer falls back to the heap: " + e.getMessage());
+                closeRingFile(ring);
+                return null;
+            } finally {
+                if (file != null && !file.delete()) Log.w(TAG, "failed to delete " + file);
+            }
+        }
+
+        private static void closeRingFile(RandomAccessFile ring) {
+            if (ring == null) return;
+
+            try {
+                ring.close();
+            } catch (IOException e) {
+                Log.w(TAG, "failed to close the dump buffer file: " + e.getMessage());
+            }
+        }
+
+        // Whole frames, within what a single buffer can map
+        static int capacityFor(long buffsize, int frameSize) {
+            frameSize = Math.max(frameSize, 1);
+            long size = Math.min(Math.max(buffsize, 0), Integer.MAX_VALUE);
+            return (int) (size / frameSize * frameSize);
+        }
+
+        int capacity() {
+            return capacity;
+        }
+
+        int frameSize() {
+            return frameSize;
+        }
+
+        boolean isMapped() {
+            return raw.isDirect();
+        }
+
+        // Takes a reference for a reader, false once the ring has been released
+        synchronized boolean retain() {
+            if (refs == 0) return false;
+
+            refs++;
+            return true;
+        }
+
+        // Drops a reference. The last one stops every push and copy, and truncates the file of a
+        // mapped ring: the mapping itself only goes with the buffer, but is never touched again.
+        void release() {
+            synchronized (this) {
+                if (refs == 0 || --refs > 0) return;
+            }
+            if (ringFile == null) return;
+
+            try {
+                ringFile.setLength(0);
+            } catch (IOException e) {
+                Log.w(TAG, "failed to truncate the dump buffer file: " + e.getMessage());
+            }
+            closeRingFile(ringFile);
+        }
+
+        void push(byte[] src, int offset, int length) {
+            push(ByteBuffer.wrap(src, offset, length).slice(), length);
         }
 
-        void fetch(byte[] dest) {
+        // The first length bytes of the buffer, which is rewound afterwards
+        void push(ByteBuffer src, int length) {
+            if (capacity == 0 || length <= 0) return;
+
             synchronized (this) {
-                for (int i = 0; i < dest.length; i++) {
-                    dest[i] = raw[(head + i) % raw.length];
+                if (refs == 0) return;
+
+                long start = committed;
+                long end = start + length;
+                int offset = 0;
+                if (length > capacity) {
+                    offset = length - capacity;
+                    start = end - capacity;
+                    length = capacity;
+                }
+
+                int pos = (int) (start % capacity);
+                int first = Math.min(length, capacity - pos);
+                int limit = src.limit();
+                src.limit(offset + first).position(offset);
+                writeView.position(pos);
+                writeView.put(src);
+                if (first < length) {
+                    src.limit(offset + length);
+                    writeView.position(0);
+                    writeView.put(src);
+                }
+                src.limit(limit);
+                src.rewind();
+                committed = end;
+            }
+        }
+
+        // The position one past the newest byte pushed
+        synchronized long end() {
+            return committed;
+        }
+
+        // Hands the pushed bytes from position `from` up to `to` to the sink in order, one staging
+        // buffer at a time. Each chunk is copied under the push lock, so the writer is held up for
+        // at most one chunk and never tears it, while the sink runs unlocked. Bytes overwritten
+        // before the copy reaches them are skipped. Returns the number of bytes handed over.
+        long copyTo(long from, long to, ByteBuffer staging, Sink sink) throws IOException {
+            int chunk = staging.capacity() / frameSize * frameSize;
+            if (chunk <= 0) chunk = staging.capacity();
+
+            long pos = Math.max(from, 0);
+            long copied = 0;
+            while (true) {
+                staging.clear();
+                synchronized (this) {
+                    if (refs == 0) throw new IOException("the dump buffer has been released");
+
+                    pos = Math.max(pos, committed - capacity);
+                    if (pos >= to || capacity == 0) break;
+
+                    int n = (int) Math.min(to - pos, chunk);
+                    int start = (int) (pos % capacity);
+                    int first = Math.min(n, capacity - start);
+                    readView.limit(start + first).position(start);
+                    staging.put(readView);
+                    if (first < n) {
+                        readView.limit(n - first).position(0);
+                        staging.put(readView);
+                    }
                 }
+
+                staging.flip();
+                pos += staging.remaining();
+                copied += staging.remaining();
+                sink.write(staging);
             }
+
+            return copied;
         }
     }
 
     public static class RecordRunnable implements Runnable {
-        private RecordStartFunction mStartFunction;
+        private volatile RecordStartFunction mStartFunction;
         private RecordStopFunction mStopFunction;
         private WorkerFunction.WorkerFunctionListener mListener;
 
-        private final RecordSharedBuffer sharedBuffer;
-        private final AtomicBoolean needPush;
-
-        private final RecordCircularBuffer dumpBuffer;
-        private final int dumpBufferSize;
+        private final RecordBufferQueue bufferQueue;
+
+        // Only swapped by the record thread, see applyDumpBufferResize()
+        private volatile RecordCircularBuffer dumpBuffer;
+        private final long dumpBufferSize;
+        // A resized dump buffer filled by reconfigure() up to the end of its source
+        private volatile RecordCircularBuffer mPendingDumpBuffer;
+        private long mPendingDumpFrom;
+        // Set once the task has released its dump buffers, guarded by mDumpResizeLock
+        private boolean mDumpReleased;
+        private final ReentrantLock mDumpResizeLock = new ReentrantLock();
+        private RecordStreamWriter mStreamWriter;
         private RecordInternalRunnable slave;
 
         private ControllerBase mController;
         private final ArrayList<DetectorBase> mDetectors;
         private final ArrayList<RecordDataListener> mDataListeners;
-
-        private boolean exitPending;
-        private boolean hasDone;
-
+        private final DispatchStage<AudioFrame> mListenerStage;
+        // Frames taken by the record thread only, and given back once every consumer is done
+        private final ArrayBlockingQueue<AudioFrame> mFramePool;
+
+        private volatile boolean exitPending;
+        // Why the task stopped on its own, reported in the ack of its start function
+        private volatile String mFailureReason;
+        private volatile boolean hasDone;
+        private final CountDownLatch mDoneLatch = new CountDownLatch(1);
+        private volatile CountDownLatch mRunnerDoneLatch;
+
+        // The frame is reused once the call returns, so listeners must copy what they keep
         public interface RecordDataListener {
             void onDataUpdated(List<? extends Double>[] signal, RecordStartFunction function);
+
+            default void onDataUpdated(AudioFrame frame, RecordStartFunction function) {
+                onDataUpdated(frame.toLists(), function);
+            }
         }
 
         RecordRunnable(
@@ -623,19 +1028,46 @@ public class RecordController extends AudioController.AudioTxController {
                             mStartFunction.getSamplingFreq(),
                             AudioFormat.CHANNEL_IN_MONO,
                             parseEncodingFormat(mStartFunction.getBitWidth()));
-            sharedBuffer = new RecordSharedBuffer(minBuffsize);
-            dumpBufferSize =
-                    (int)
-                            (mStartFunction.getBitWidth()
-                                    / 8.
-                                    * mStartFunction.getNumChannels()
-                                    * mStartFunction.getSamplingFreq()
-                                    * mStartFunction.getDumpBufferSizeMs()
-                                    / 1000.);
-            dumpBuffer = new RecordCircularBuffer(dumpBufferSize);
-            needPush = new AtomicBoolean(true);
+            bufferQueue =
+                    new RecordBufferQueue(
+                            Constants.Controllers.Config.Record.NUM_HANDOFF_BUFFERS, minBuffsize);
+            dumpBufferSize = getDumpBufferSize(mStartFunction);
+            dumpBuffer = createDumpBuffer(mStartFunction);
             mDetectors = new ArrayList<>();
             mDataListeners = new ArrayList<>();
+            // The queued frames, the one being handled and the one being filled
+            int numFrames = Constants.Controllers.Config.Record.LISTENER_QUEUE_SIZE + 2;
+            mFramePool = new ArrayBlockingQueue<>(numFrames);
+            for (int i = 0; i < numFrames; i++) {
+                mFramePool.add(
+                        new AudioFrame(
+                                mStartFunction.getNumChannels(),
+                                0,
+                                mStartFunction.getSamplingFreq()));
+            }
+            mListenerStage =
+                    new DispatchStage<>(
+                            "RecordDataListener-" + mStartFunction.getIndex(),
+                            Constants.Controllers.Config.Record.LISTENER_QUEUE_SIZE,
+                            Constants.Controllers.Config.Record.LISTENER_OVERFLOW_POLICY,
+                            new DispatchStage.Handler<AudioFrame>() {
+                                @Override
+                                public void handle(AudioFrame frame) {
+                                    try {
+                                        synchronized (mDataListeners) {
+                                            for (RecordDataListener l : mDataListeners)
+                                                l.onDataUpdated(frame, mStartFunction);
+                                        }
+                                    } finally {
+                                        recycleFrame(frame);
+                                    }
+                                }
+
+                                @Override
+                                public void discard(AudioFrame frame) {
+                                    recycleFrame(frame);
+                                }
+                            });
         }
 
         public RecordStartFunction getStartFunction() {
@@ -650,6 +1082,17 @@ public class RecordController extends AudioController.AudioTxController {
             return hasDone;
         }
 
+        // Waits until both the processing and the capturing threads have terminated. A capture
+        // stream still shared with other tasks is not waited for.
+        public boolean awaitDone(long timeoutMillis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            if (!mDoneLatch.await(timeoutMillis, TimeUnit.MILLISECONDS)) return false;
+
+            return mRunnerDoneLatch == null
+                    || mRunnerDoneLatch.await(
+                            deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
         public void tryStop() {
             tryStop(null);
         }
@@ -664,6 +1107,14 @@ public class RecordController extends AudioController.AudioTxController {
             exitPending = true;
         }
 
+        // Stops the task on its own, only the first reason is kept
+        void fail(String reason) {
+            synchronized (this) {
+                if (mFailureReason == null) mFailureReason = reason;
+            }
+            exitPending = true;
+        }
+
         private int parseEncodingFormat(int bits) {
             switch (bits) {
                 case 8:
@@ -688,6 +1139,7 @@ public class RecordController extends AudioController.AudioTxController {
 
         public void setRecordRunner(RecordInternalRunnable runner) {
             slave = runner;
+            mRunnerDoneLatch = runner != null ? runner.mDoneLatch : null;
         }
 
         public void registerDataListener(@NonNull RecordDataListener l) {
@@ -708,10 +1160,142 @@ public class RecordController extends AudioController.AudioTxController {
                 detector.updateStartFunction(mStartFunction);
 
             synchronized (mDetectors) {
-                mDetectors.add(detector);
+                if (!mDetectors.contains(detector)) mDetectors.add(detector);
             }
         }
 
+        public boolean canReconfigure(RecordStartFunction function) {
+            if (!mStartFunction.isStreamCompatible(function)) return false;
+
+            // The streamed file belongs to the task, another one needs a new task
+            if (!mStartFunction.getStreamFileName().equals(function.getStreamFileName())
+                    || mStartFunction.getStreamSyncMs() != function.getStreamSyncMs())
+                return false;
+
+            // The effects of a shared stream apply to all the tasks
+            RecordInternalRunnable runner = slave;
+            return runner == null
+                    || runner.getNumSubscribers() <= 1
+                    || (function.isNoiseSuppressionEnabled()
+                                    == mStartFunction.isNoiseSuppressionEnabled()
+                            && function.isEchoCancellationEnabled()
+                                    == mStartFunction.isEchoCancellationEnabled());
+        }
+
+        // Applies a start function which shares the input stream of the running one, see
+        // RecordStartFunction.isStreamCompatible()
+        public void reconfigure(
+                RecordStartFunction function, WorkerFunction.WorkerFunctionListener l) {
+            if (l != null) mListener = l;
+
+            long size = function.usingExtApi() ? 0 : getDumpBufferSize(function);
+            mDumpResizeLock.lock();
+            try {
+                // The record thread keeps pushing to the current buffer, so the latest captured
+                // data is carried over here and the rest once it swaps the buffers
+                RecordCircularBuffer current = dumpBuffer;
+                RecordCircularBuffer resized = null;
+                long end = 0;
+                if (!mDumpReleased
+                        && RecordCircularBuffer.capacityFor(size, current.frameSize())
+                                != current.capacity()) {
+                    resized = createDumpBuffer(function);
+                    end = current.end();
+                    copyDumpBuffer(current, end - resized.capacity(), end, resized);
+                }
+                // Replaces a resize the record thread has not applied yet
+                RecordCircularBuffer replaced = mPendingDumpBuffer;
+                mPendingDumpBuffer = resized;
+                mPendingDumpFrom = end;
+                if (replaced != null) replaced.release();
+            } finally {
+                mDumpResizeLock.unlock();
+            }
+
+            mStartFunction = function;
+            synchronized (mDetectors) {
+                for (DetectorBase detector : mDetectors) detector.updateStartFunction(function);
+            }
+            if (slave != null) slave.requestEffectsUpdate();
+
+            returnAck(function, 0);
+        }
+
+        // On the record thread between two pushes, so no captured data is missed. Skipped while
+        // reconfigure() is filling a new buffer, which is then picked up on the next push.
+        private void applyDumpBufferResize() {
+            if (mPendingDumpBuffer == null || !mDumpResizeLock.tryLock()) return;
+            try {
+                RecordCircularBuffer resized = mPendingDumpBuffer;
+                if (resized == null) return;
+
+                RecordCircularBuffer current = dumpBuffer;
+                copyDumpBuffer(current, mPendingDumpFrom, current.end(), resized);
+                dumpBuffer = resized;
+                mPendingDumpBuffer = null;
+                // A dump still copying the old buffer holds its own reference
+                current.release();
+            } finally {
+                mDumpResizeLock.unlock();
+            }
+        }
+
+        // At the end of the task, along with a resize never applied
+        private void releaseDumpBuffers() {
+            mDumpResizeLock.lock();
+            try {
+                mDumpReleased = true;
+                if (mPendingDumpBuffer != null) mPendingDumpBuffer.release();
+                mPendingDumpBuffer = null;
+                dumpBuffer.release();
+            } finally {
+                mDumpResizeLock.unlock();
+            }
+        }
+
+        private static void copyDumpBuffer(
+                RecordCircularBuffer source,
+                long from,
+                long to,
+                final RecordCircularBuffer dest) {
+            ByteBuffer staging =
+                    ByteBuffer.allocate(
+                            (int)
+                                    Math.min(
+                                            Math.max(to - from, 1),
+                                            Constants.Controllers.Config.Record.DUMP_COPY_BYTES));
+            try {
+                source.copyTo(
+                        from,
+                        to,
+                        staging,
+                        new RecordCircularBuffer.Sink() {
+                            @Override
+                            public void write(ByteBuffer data) {
+                                dest.push(data, data.remaining());
+                            }
+                        });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private static long getDumpBufferSize(RecordStartFunction function) {
+            return (long) function.getDumpBufferSizeMs()
+                    * function.getSamplingFreq()
+                    / 1000
+                    * function.getNumChannels()
+                    * (function.getBitWidth() / 8);
+        }
+
+        // The external APIs keep their dump buffer on the native side
+        private RecordCircularBuffer createDumpBuffer(RecordStartFunction function) {
+            return new RecordCircularBuffer(
+                    function.usingExtApi() ? 0 : getDumpBufferSize(function),
+                    function.getNumChannels() * function.getBitWidth() / 8,
+                    mController != null ? new File(mController.getDataDir()) : null);
+        }
+
         public void unregisterDetector(DetectorBase detector) {
             synchronized (mDetectors) {
                 mDetectors.remove(detector);
@@ -725,11 +1309,16 @@ public class RecordController extends AudioController.AudioTxController {
             WorkerFunction.Ack ack = WorkerFunction.Ack.ackToFunction(function);
             if (function instanceof RecordStartFunction) {
                 ack.setReturnCode(ret);
-                if (ret < 0) ack.setDescription("unexpected stop");
+                if (ret < 0)
+                    ack.setDescription(
+                            mFailureReason != null
+                                    ? "unexpected stop: " + mFailureReason
+                                    : "unexpected stop");
                 else ack.setDescription("record start");
             } else if (function instanceof RecordStopFunction) {
                 ack.setReturnCode(ret);
                 ack.setDescription("stop command received");
+                ack.setReturns(getBufferStatistics());
             } else {
                 ack.setReturnCode(-1);
                 ack.setDescription("invalid argument");
@@ -740,39 +1329,61 @@ public class RecordController extends AudioController.AudioTxController {
 
         @Override
         public void run() {
-            int minBuffsize = sharedBuffer.raw.length;
+            try {
+                process();
+            } finally {
+                hasDone = true;
+                mDoneLatch.countDown();
+            }
+        }
+
+        private void process() {
+            int minBuffsize = bufferQueue.bufferSize();
             long minBuffsizeMillis =
                     minBuffsize
                             * 1000
                             / mStartFunction.getSamplingFreq()
                             / mStartFunction.getNumChannels()
                             / (mStartFunction.getBitWidth() / 8);
-            final byte[] buffer = new byte[minBuffsize];
+            long timeoutMillis =
+                    (long)
+                            (minBuffsizeMillis
+                                    * Constants.Controllers.Config.Record.TIMEOUT_MULTIPLIER);
+            final byte[] silence = new byte[minBuffsize];
+            // The native capture path has no 8-bit format and delivers 16-bit samples instead
+            final int bitWidth =
+                    mStartFunction.usingExtApi()
+                            ? Math.max(16, mStartFunction.getBitWidth())
+                            : mStartFunction.getBitWidth();
+            long framePosition = 0;
             Log.d(TAG, "RecordRunnable: start running");
-            returnAck(mStartFunction, 0);
+            // A failure is reported as an unexpected stop once the task is torn down
+            if (!mStartFunction.isStreamingToFile() || openStreamWriter(bitWidth)) {
+                returnAck(mStartFunction, 0);
+            }
 
             if (mController != null) mController.broadcastStateChange(mController);
 
-            exitPending = false;
-            hasDone = false;
             while (!exitPending) {
-                if (mStartFunction.usingExtApi()) continue;
-
+                ByteBuffer buffer = null;
                 try {
-                    if (!sharedBuffer.dataAvailable()) {
-                        synchronized (this) {
-                            wait(
-                                    (long)
-                                            (minBuffsizeMillis
-                                                    * Constants.Controllers.Config.Record
-                                                            .TIMEOUT_MULTIPLIER));
-                        }
-                    }
+                    buffer = bufferQueue.dequeueRead(timeoutMillis);
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
-                if (sharedBuffer.dataAvailable()) {
-                    sharedBuffer.fetch(buffer);
+
+                // Listeners are notified on their own stage, so every buffer gets its own frame
+                // from the pool which is then shared by all the detectors and listeners
+                final AudioFrame frame = obtainFrame();
+                long timestampNanos;
+                if (buffer != null) {
+                    int length = bufferQueue.readLength();
+                    timestampNanos = bufferQueue.readTimestamp();
+                    // The external API keeps its own dump buffer on the native side
+                    if (!mStartFunction.usingExtApi()) pushDumpBuffer(buffer, length);
+                    if (mStreamWriter != null) mStreamWriter.write(buffer, length);
+                    frame.decodePcm(buffer, length, bitWidth);
+                    bufferQueue.queueRead();
                 } else {
                     Log.w(
                             TAG,
@@ -780,63 +1391,42 @@ public class RecordController extends AudioController.AudioTxController {
                                     + " (buffer size: "
                                     + minBuffsizeMillis
                                     + " ms, timeout: "
-                                    + (minBuffsizeMillis
-                                            * Constants.Controllers.Config.Record
-                                                    .TIMEOUT_MULTIPLIER)
+                                    + timeoutMillis
                                     + " ms.");
-                    Arrays.fill(buffer, (byte) 0);
-                }
-
-                pushDumpBuffer(buffer);
-
-                @SuppressWarnings("unchecked")
-                final ArrayList<Double>[] values = new ArrayList[mStartFunction.getNumChannels()];
-                for (int c = 0; c < mStartFunction.getNumChannels(); c++)
-                    values[c] = new ArrayList<>();
-
-                switch (mStartFunction.getBitWidth()) {
-                    case 8:
-                        {
-                            for (int i = 0; i < buffer.length; i++) {
-                                byte v = buffer[i];
-                                values[i % mStartFunction.getNumChannels()].add(v * 1.0 / (1 << 7));
-                            }
-                        }
-                        break;
-
-                    default:
-                    case 16:
-                        {
-                            short[] frame = new short[buffer.length / 2];
-                            ByteBuffer.wrap(buffer)
-                                    .order(ByteOrder.LITTLE_ENDIAN)
-                                    .asShortBuffer()
-                                    .get(frame);
-
-                            for (int i = 0; i < frame.length; i++) {
-                                short v = frame[i];
-                                values[i % mStartFunction.getNumChannels()].add(
-                                        v * 1.0 / (1 << 15));
-                            }
-                        }
-                        break;
+                    timestampNanos = System.nanoTime();
+                    if (!mStartFunction.usingExtApi()) pushDumpBuffer(silence);
+                    if (mStreamWriter != null) mStreamWriter.write(silence);
+                    frame.decodePcm(silence, 0, silence.length, bitWidth);
                 }
+                frame.setPosition(framePosition, timestampNanos);
+                framePosition += frame.getNumFrames();
 
-                new Thread(
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        for (RecordDataListener l : mDataListeners)
-                                            l.onDataUpdated(values, mStartFunction);
-                                    }
-                                })
-                        .start();
+                boolean posted = !mDataListeners.isEmpty();
+                if (posted) mListenerStage.post(frame);
 
                 synchronized (mDetectors) {
-                    for (DetectorBase detector : mDetectors) detector.feed(values);
+                    for (DetectorBase detector : mDetectors) detector.feed(frame);
                 }
+                // Only this thread takes frames from the pool, so a frame the listener stage has
+                // already given back is not refilled before the detectors are done with it
+                if (!posted) recycleFrame(frame);
             }
 
+            if (bufferQueue.getOverrunBuffers() > 0 || bufferQueue.getUnderrunBuffers() > 0) {
+                Log.w(
+                        TAG,
+                        "RecordRunnable: "
+                                + bufferQueue.getOverrunBuffers()
+                                + " buffer(s) overrun ("
+                                + bufferQueue.getOverrunBytes()
+                                + " bytes lost), "
+                                + bufferQueue.getUnderrunBuffers()
+                                + " buffer(s) underrun");
+            }
+
+            if (mStreamWriter != null) mStreamWriter.close();
+            releaseDumpBuffers();
+
             if (mController != null) mController.broadcastStateChange(mController);
 
             if (mStopFunction != null) {
@@ -848,30 +1438,105 @@ public class RecordController extends AudioController.AudioTxController {
             }
             Log.d(TAG, "RecordRunnable: terminated");
             if (slave != null) {
-                slave.tryStop();
+                if (!slave.detach(this)) mRunnerDoneLatch = null;
                 slave = null;
             }
+            bufferQueue.drain();
 
+            mListenerStage.shutdown();
             mDataListeners.clear();
-            hasDone = true;
         }
 
-        private void pushDumpBuffer(final byte[] buffer) {
-            if (dumpBufferSize <= 0 || !needPush.get()) return;
+        // The capture is streamed at the bit width it is delivered in
+        private boolean openStreamWriter(int bitWidth) {
+            String path = mStartFunction.getStreamFileName();
+            if (!path.startsWith("/"))
+                path = new File(mController.getDataDir(), path).getAbsolutePath();
 
-            new Thread(
-                            new Runnable() {
-                                @Override
-                                public void run() {
-                                    dumpBuffer.push(buffer);
-                                }
-                            })
-                    .start();
+            try {
+                mStreamWriter =
+                        new RecordStreamWriter(
+                                path,
+                                mStartFunction.getSamplingFreq(),
+                                mStartFunction.getNumChannels(),
+                                bitWidth,
+                                mStartFunction.getStreamSyncMs());
+                Log.d(TAG, "RecordRunnable: stream the capture to " + path);
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "RecordRunnable: failed to open " + path + ": " + e.getMessage());
+                fail("failed to open the stream file " + path + ": " + e.getMessage());
+                return false;
+            }
+        }
+
+        private AudioFrame obtainFrame() {
+            AudioFrame frame = mFramePool.poll();
+            if (frame == null) {
+                // Only if a listener stage item got lost, e.g. posted while shutting down
+                frame =
+                        new AudioFrame(
+                                mStartFunction.getNumChannels(),
+                                0,
+                                mStartFunction.getSamplingFreq());
+            }
+            frame.setSamplingFreq(mStartFunction.getSamplingFreq());
+            return frame;
+        }
+
+        private void recycleFrame(AudioFrame frame) {
+            mFramePool.offer(frame);
+        }
+
+        private void pushDumpBuffer(byte[] buffer) {
+            applyDumpBufferResize();
+            dumpBuffer.push(buffer, 0, buffer.length);
+        }
+
+        private void pushDumpBuffer(ByteBuffer buffer, int length) {
+            applyDumpBufferResize();
+            dumpBuffer.push(buffer, length);
+        }
+
+        public RecordBufferQueue getBufferQueue() {
+            return bufferQueue;
+        }
+
+        public DispatchStage<AudioFrame> getListenerStage() {
+            return mListenerStage;
+        }
+
+        private ArrayList<Object> getBufferStatistics() {
+            ArrayList<Object> returns = new ArrayList<>();
+            try {
+                JSONObject stats = new JSONObject();
+                stats.put("overrun-buffers", bufferQueue.getOverrunBuffers());
+                stats.put("overrun-bytes", bufferQueue.getOverrunBytes());
+                stats.put("underrun-buffers", bufferQueue.getUnderrunBuffers());
+                stats.put("listener-queue-max-depth", mListenerStage.getMaxQueueDepth());
+                stats.put("listener-dropped-frames", mListenerStage.getNumDropped());
+                if (mStreamWriter != null) {
+                    stats.put("stream-file", mStreamWriter.getPath());
+                    stats.put("stream-frames-written", mStreamWriter.getFramesWritten());
+                    stats.put("stream-frames-dropped", mStreamWriter.getFramesDropped());
+                    if (mStreamWriter.getError() != null)
+                        stats.put("stream-error", mStreamWriter.getError().getMessage());
+                }
+                returns.add(stats.toString());
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+
+            return returns;
         }
 
         public void dumpBufferTo(final String path, final WorkerFunction function) {
-            if (dumpBufferSize <= 0) {
+            if (dumpBuffer.capacity() <= 0) {
+                WorkerFunction.Ack ack = WorkerFunction.Ack.ackToFunction(function);
+                ack.setReturnCode(-1);
+                ack.setDescription("Record dump failed: the task keeps no dump buffer");
                 mController.notifyFunctionHasBeenExecuted(function);
+                if (mListener != null) mListener.onAckReceived(ack);
                 return;
             }
 
@@ -888,25 +1553,38 @@ public class RecordController extends AudioController.AudioTxController {
         private void _dumpBufferTo(String path, WorkerFunction function) {
             WorkerFunction.Ack ack = WorkerFunction.Ack.ackToFunction(function);
             ArrayList<Object> returns = new ArrayList<>();
-            WavUtils.WavConfig config =
-                    new WavUtils.WavConfig.Builder()
-                            .withDurationMillis(mStartFunction.getDumpBufferSizeMs())
-                            .withBitPerSample(mStartFunction.getBitWidth())
-                            .withNumChannels(mStartFunction.getNumChannels())
-                            .withSamplingFrequency(mStartFunction.getSamplingFreq())
-                            .build();
-
+            RecordCircularBuffer source = dumpBuffer;
+            boolean retained = false;
             try {
-                DataOutputStream dump = WavUtils.obtainWavFile(config, path);
-                byte[] buffer = new byte[dumpBufferSize];
-
-                needPush.set(false);
-                dumpBuffer.fetch(buffer);
-                needPush.set(true);
-
-                Log.d(TAG, "dump buffer: " + buffer.length + " bytes");
-                dump.write(buffer);
-                dump.close();
+                // A buffer released by a resize in the meantime is already replaced
+                while (!source.retain()) {
+                    if (source == dumpBuffer) throw new IOException("the record task has ended");
+                    source = dumpBuffer;
+                }
+                retained = true;
+
+                try (final WavWriter dump =
+                        new WavWriter(
+                                path,
+                                mStartFunction.getSamplingFreq(),
+                                mStartFunction.getNumChannels(),
+                                mStartFunction.getBitWidth())) {
+                    // The ring is copied in order through a small direct buffer, whatever its size
+                    long end = source.end();
+                    long length =
+                            source.copyTo(
+                                    end - source.capacity(),
+                                    end,
+                                    ByteBuffer.allocateDirect(
+                                            Constants.Controllers.Config.Record.DUMP_COPY_BYTES),
+                                    new RecordCircularBuffer.Sink() {
+                                        @Override
+                                        public void write(ByteBuffer data) throws IOException {
+                                            dump.write(data);
+                                        }
+                                    });
+                    Log.d(TAG, "dump buffer: " + length + " bytes");
+                }
 
                 returns.add(path);
                 ack.setReturnCode(0);
@@ -919,6 +1597,8 @@ public class RecordController extends AudioController.AudioTxController {
                 ack.setReturnCode(-1);
                 ack.setDescription("Record dump failed: IO Exception");
                 ack.setReturns(returns);
+            } finally {
+                if (retained) source.release();
             }
 
             mController.notifyFunctionHasBeenExecuted(function);
@@ -930,25 +1610,127 @@ public class RecordController extends AudioController.AudioTxController {
 
     public static class RecordInternalRunnable implements Runnable {
         private final RecordRunnable master;
-        private boolean exitPending;
+        // The tasks fed by this capture stream, master is the one which opened it
+        private final CopyOnWriteArrayList<RecordRunnable> mSubscribers =
+                new CopyOnWriteArrayList<>();
+        private volatile boolean exitPending;
+        private volatile boolean effectsChanged;
+        private final CountDownLatch mDoneLatch = new CountDownLatch(1);
+        private final ArrayBlockingQueue<CaptureBuffer> mCapturePool;
+        private AcousticEchoCanceler aec;
+        private NoiseSuppressor ns;
 
         public RecordInternalRunnable(RecordRunnable masterTask) {
             master = masterTask;
+            mSubscribers.add(masterTask);
+            // Enough for every task to keep its queue full, only the first ones are allocated
+            int numBuffers = master.bufferQueue.capacity() + 1;
+            mCapturePool = new ArrayBlockingQueue<>(numBuffers * (RecordTask.MAX_NUM + 1));
+            for (int i = 0; i < numBuffers; i++)
+                mCapturePool.add(new CaptureBuffer(master.bufferQueue.bufferSize(), mCapturePool));
         }
 
-        public RecordInternalRunnable(RecordRunnable masterTask, int input) {
-            master = masterTask;
-            master.mStartFunction.setInputSrc(input);
+        public void tryStop() {
+            synchronized (mSubscribers) {
+                mSubscribers.clear();
+                exitPending = true;
+            }
         }
 
-        public void tryStop() {
-            exitPending = true;
+        // Returns false if the stream is already closing
+        boolean attach(RecordRunnable task) {
+            synchronized (mSubscribers) {
+                if (exitPending) return false;
+
+                mSubscribers.addIfAbsent(task);
+                return true;
+            }
+        }
+
+        // Returns true if the stream is closed because no task is left
+        boolean detach(RecordRunnable task) {
+            synchronized (mSubscribers) {
+                mSubscribers.remove(task);
+                if (mSubscribers.isEmpty()) exitPending = true;
+                return exitPending;
+            }
+        }
+
+        int getNumSubscribers() {
+            return mSubscribers.size();
+        }
+
+        boolean canFeed(RecordStartFunction function) {
+            return primaryTask().mStartFunction.canShareStream(function);
+        }
+
+        // Stops every task fed by the stream, which cannot deliver anything from here on
+        private void fail(String reason) {
+            Log.e(TAG, "RecordInternalRunnable: " + reason);
+            for (RecordRunnable task : mSubscribers) task.fail(reason);
+        }
+
+        // The first subscriber, or master once all of them have gone
+        private RecordRunnable primaryTask() {
+            Iterator<RecordRunnable> it = mSubscribers.iterator();
+            return it.hasNext() ? it.next() : master;
+        }
+
+        // NS and AEC are attached to the running session on the next captured buffer
+        void requestEffectsUpdate() {
+            effectsChanged = true;
+        }
+
+        private void updateEffects(AudioRecord record) {
+            if (record == null) return;
+
+            // The subscribers of a shared stream agree on the effects
+            RecordStartFunction startFunction = primaryTask().mStartFunction;
+            if (startFunction.isEchoCancellationEnabled()) {
+                if (aec == null && AcousticEchoCanceler.isAvailable()) {
+                    aec = AcousticEchoCanceler.create(record.getAudioSessionId());
+                    if (aec != null) {
+                        aec.setEnabled(true);
+                        Log.d(TAG, "AcousticEchoCanceler enabled");
+                    }
+                }
+            } else if (aec != null) {
+                aec.release();
+                aec = null;
+                Log.d(TAG, "AcousticEchoCanceler disabled");
+            }
+
+            if (startFunction.isNoiseSuppressionEnabled()) {
+                if (ns == null && NoiseSuppressor.isAvailable()) {
+                    ns = NoiseSuppressor.create(record.getAudioSessionId());
+                    if (ns != null) {
+                        ns.setEnabled(true);
+                        Log.d(TAG, "NoiseSuppressor enabled");
+                    }
+                }
+            } else if (ns != null) {
+                ns.release();
+                ns = null;
+                Log.d(TAG, "NoiseSuppressor disabled");
+            }
         }
 
         @RequiresApi(api = VERSION_CODES.S)
-        @SuppressWarnings("MissingPermission")
         @Override
         public void run() {
+            try {
+                capture();
+            } finally {
+                synchronized (sCaptureSessions) {
+                    sCaptureSessions.remove(this);
+                }
+                mDoneLatch.countDown();
+            }
+        }
+
+        @RequiresApi(api = VERSION_CODES.S)
+        @SuppressWarnings("MissingPermission")
+        private void capture() {
             RecordStartFunction startFunction = master.mStartFunction;
             AudioFormat.Builder formatBuilder =
                     new AudioFormat.Builder()
@@ -973,37 +1755,44 @@ public class RecordController extends AudioController.AudioTxController {
             int index = startFunction.getIndex();
             int channel = startFunction.getNumChannels();
 
-            while (master.sharedBuffer == null) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-            synchronized (master.sharedBuffer) {
-                minBuffsize = master.sharedBuffer.raw.length;
-            }
+            minBuffsize = master.bufferQueue.bufferSize();
 
             AudioRecord record = null;
             if (isExtApi) {
                 Log.d(TAG, "Recording start by external API");
-                ((RecordController) master.mController)
-                        .openInput(
-                                format,
-                                channel,
-                                inputSource,
-                                perfMode,
-                                master.dumpBufferSize,
-                                audioAPI,
-                                index);
+                int ret =
+                        ((RecordController) master.mController)
+                                .openInput(
+                                        format,
+                                        channel,
+                                        inputSource,
+                                        perfMode,
+                                        (int) Math.min(master.dumpBufferSize, Integer.MAX_VALUE),
+                                        audioAPI,
+                                        index);
+                if (ret < 0) {
+                    ((RecordController) master.mController).releaseRecording(audioAPI, index);
+                    fail("failed to open the input stream (native error " + ret + ")");
+                    return;
+                }
             } else {
                 Log.d(TAG, "Recording start");
-                record =
-                        new AudioRecord.Builder()
-                                .setAudioFormat(format)
-                                .setAudioSource(inputSource)
-                                .setBufferSizeInBytes(minBuffsize)
-                                .build();
+                try {
+                    record =
+                            new AudioRecord.Builder()
+                                    .setAudioFormat(format)
+                                    .setAudioSource(inputSource)
+                                    .setBufferSizeInBytes(minBuffsize)
+                                    .build();
+                } catch (UnsupportedOperationException e) {
+                    fail("failed to open the input stream: " + e.getMessage());
+                    return;
+                }
+                if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+                    record.release();
+                    fail("failed to open the input stream: AudioRecord not initialized");
+                    return;
+                }
             }
 
             if (master.mController instanceof RecordController
@@ -1027,47 +1816,90 @@ public class RecordController extends AudioController.AudioTxController {
                 }
             }
 
+            // The stream is still torn down below if it fails to start
             if (isExtApi) {
                 if (master.mController instanceof RecordController) {
-                    ((RecordController) master.mController).startRecording(audioAPI, index);
+                    int ret =
+                            ((RecordController) master.mController)
+                                    .startRecording(audioAPI, index);
+                    if (ret < 0) {
+                        fail("failed to start the input stream (native error " + ret + ")");
+                        exitPending = true;
+                    }
                 }
             } else {
-                record.startRecording();
-            }
-
-            AcousticEchoCanceler aec = null;
-            if (startFunction.isEchoCancellationEnabled()) {
-                if (AcousticEchoCanceler.isAvailable()) {
-                    aec = AcousticEchoCanceler.create(record.getAudioSessionId());
-                    if (aec != null) {
-                        aec.setEnabled(true);
-                        Log.d(TAG, "AcousticEchoCanceler enabled");
-                    }
+                try {
+                    record.startRecording();
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, "RecordInternalRunnable: " + e.getMessage());
                 }
-            }
-
-            NoiseSuppressor ns = null;
-            if (startFunction.isNoiseSuppressionEnabled()) {
-                if (NoiseSuppressor.isAvailable()) {
-                    ns = NoiseSuppressor.create(record.getAudioSessionId());
-                    if (ns != null) {
-                        ns.setEnabled(true);
-                        Log.d(TAG, "NoiseSuppressor enabled");
-                    }
+                if (record.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+                    fail("failed to start the input stream");
+                    exitPending = true;
                 }
             }
 
-            byte[] buffer = new byte[master.sharedBuffer.raw.length];
+            updateEffects(record);
 
             Log.d(TAG, "RecordInternalRunnable: start running");
 
+            RecordController controller =
+                    isExtApi && master.mController instanceof RecordController
+                            ? (RecordController) master.mController
+                            : null;
+            int readTimeoutMillis =
+                    Math.max(
+                            1,
+                            (int)
+                                    (minBuffsize
+                                            * 1000L
+                                            / format.getSampleRate()
+                                            / channel
+                                            / Math.max(1, startFunction.getBitWidth() / 8)));
             while (!exitPending) {
-                if (isExtApi) continue;
-                record.read(buffer, 0, minBuffsize);
-                master.sharedBuffer.put(buffer);
-                synchronized (master) {
-                    master.notify();
+                if (effectsChanged) {
+                    effectsChanged = false;
+                    updateEffects(record);
+                }
+
+                // Captured once and shared by all the tasks, see CaptureBuffer
+                CaptureBuffer capture = CaptureBuffer.obtain(mCapturePool, minBuffsize);
+                ByteBuffer buffer = capture.data();
+                int read;
+                if (isExtApi) {
+                    // The native callback wakes us up once a whole buffer is available, the
+                    // timeout only bounds how long a stop request can go unnoticed
+                    read =
+                            controller != null
+                                    ? controller.readInput(
+                                            buffer,
+                                            minBuffsize,
+                                            readTimeoutMillis,
+                                            audioAPI,
+                                            index)
+                                    : -1;
+                    if (read < 0) {
+                        capture.release();
+                        fail("failed to read from the input stream (native error " + read + ")");
+                        break;
+                    }
+                } else {
+                    read = record.read(buffer, minBuffsize);
+                    if (read < 0) {
+                        capture.release();
+                        fail(
+                                "failed to read from the input stream (AudioRecord error "
+                                        + read
+                                        + ")");
+                        break;
+                    }
+                }
+                if (read > 0) {
+                    long timestampNanos = System.nanoTime();
+                    for (RecordRunnable task : mSubscribers)
+                        task.bufferQueue.offer(capture, read, timestampNanos);
                 }
+                capture.release();
             }
 
             if (isExtApi) {
@@ -1082,9 +1914,11 @@ public class RecordController extends AudioController.AudioTxController {
 
             if (aec != null) {
                 aec.release();
+                aec = null;
             }
             if (ns != null) {
                 ns.release();
+                ns = null;
             }
 
             if (master.mController instanceof RecordController
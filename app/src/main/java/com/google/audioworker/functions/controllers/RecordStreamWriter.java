@@ -0,0 +1,173 @@
+package com.google.audioworker.functions.controllers;
+
+import android.util.Log;
+
+import com.google.audioworker.utils.Constants;
+import com.google.audioworker.utils.signalproc.WavWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Streams the capture of a record task to a WAV file, so a recording is bounded by the storage
+// rather than the heap. The capture thread copies its buffers into a fixed pool of direct batches
+// and never waits for the storage: once every batch is queued, the data is dropped and counted. A
+// writer thread appends the full batches through the FileChannel of a WavWriter and, at the sync
+// interval, patches the header sizes and forces the file, so a crash loses at most one interval.
+class RecordStreamWriter {
+    private static final String TAG = Constants.packageTag("RecordStreamWriter");
+
+    private final String mPath;
+    private final int mFrameSize;
+    private final long mSyncNanos;
+    private final int mPollMillis;
+    private final WavWriter mWriter;
+    private final ArrayBlockingQueue<ByteBuffer> mFreeBatches;
+    private final ArrayBlockingQueue<ByteBuffer> mFullBatches;
+    private final Thread mThread;
+
+    // Only touched by the capture thread
+    private ByteBuffer mCurrent;
+    private long mDroppedBytes = 0;
+
+    private volatile long mWrittenBytes = 0;
+    private volatile boolean mClosing = false;
+    private volatile IOException mError;
+
+    RecordStreamWriter(
+            String path, int samplingFreq, int numChannels, int bitWidth, int syncMillis)
+            throws IOException {
+        mPath = path;
+        mFrameSize = Math.max(numChannels * bitWidth / 8, 1);
+        mSyncNanos = TimeUnit.MILLISECONDS.toNanos(syncMillis);
+        mPollMillis = Constants.Controllers.Config.Record.STREAM_BATCH_MILLIS;
+        mWriter = new WavWriter(path, samplingFreq, numChannels, bitWidth, true);
+
+        int numBatches = Constants.Controllers.Config.Record.STREAM_NUM_BATCHES;
+        int batchFrames = Math.max(samplingFreq * mPollMillis / 1000, 1);
+        mFreeBatches = new ArrayBlockingQueue<>(numBatches);
+        mFullBatches = new ArrayBlockingQueue<>(numBatches);
+        for (int i = 0; i < numBatches; i++)
+            mFreeBatches.add(ByteBuffer.allocateDirect(batchFrames * mFrameSize));
+
+        mThread =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                loop();
+                            }
+                        },
+                        "RecordStreamWriter");
+        mThread.start();
+    }
+
+    String getPath() {
+        return mPath;
+    }
+
+    long getFramesWritten() {
+        return mWrittenBytes / mFrameSize;
+    }
+
+    // Frames lost because the storage fell behind or failed, only valid on the capture thread
+    long getFramesDropped() {
+        return mDroppedBytes / mFrameSize;
+    }
+
+    IOException getError() {
+        return mError;
+    }
+
+    // The first length bytes of the buffer, which is left as it is
+    void write(ByteBuffer data, int length) {
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.limit(length);
+        while (src.hasRemaining()) {
+            if (mCurrent == null) {
+                mCurrent = mFreeBatches.poll();
+                if (mCurrent == null) {
+                    mDroppedBytes += src.remaining();
+                    return;
+                }
+            }
+
+            int limit = src.limit();
+            src.limit(src.position() + Math.min(src.remaining(), mCurrent.remaining()));
+            mCurrent.put(src);
+            src.limit(limit);
+            if (!mCurrent.hasRemaining()) queueCurrent();
+        }
+    }
+
+    void write(byte[] data) {
+        write(ByteBuffer.wrap(data), data.length);
+    }
+
+    // Hands the last batch over, waits for the writer to drain and completes the file
+    void close() {
+        if (mClosing) return;
+
+        if (mCurrent != null && mCurrent.position() > 0) queueCurrent();
+        mClosing = true;
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mThread.interrupt();
+        }
+
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            if (mError == null) mError = e;
+        }
+        if (mError != null) Log.e(TAG, "failed to stream to " + mPath, mError);
+        Log.d(
+                TAG,
+                "streamed "
+                        + getFramesWritten()
+                        + " frames to "
+                        + mPath
+                        + ", "
+                        + getFramesDropped()
+                        + " frames dropped");
+    }
+
+    private void queueCurrent() {
+        mCurrent.flip();
+        // Never full, there are only as many batches as the queue holds
+        mFullBatches.add(mCurrent);
+        mCurrent = null;
+    }
+
+    private void loop() {
+        long nextSync = System.nanoTime() + mSyncNanos;
+        try {
+            while (true) {
+                ByteBuffer batch = mFullBatches.poll(mPollMillis, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    int length = batch.remaining();
+                    mWriter.write(batch);
+                    mWrittenBytes += length;
+                    batch.clear();
+                    mFreeBatches.add(batch);
+                } else if (mClosing && mFullBatches.isEmpty()) {
+                    break;
+                }
+
+                if (mSyncNanos > 0 && System.nanoTime() - nextSync >= 0) {
+                    mWriter.sync();
+                    nextSync = System.nanoTime() + mSyncNanos;
+                }
+            }
+        } catch (IOException e) {
+            // The batches are no longer returned, so the capture is dropped from here on
+            mError = e;
+        } catch (InterruptedException e) {
+            Log.w(TAG, "interrupted with " + mFullBatches.size() + " batch(es) pending");
+        }
+    }
+}
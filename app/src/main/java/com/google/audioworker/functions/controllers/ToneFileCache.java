@@ -0,0 +1,211 @@
+package com.google.audioworker.functions.controllers;
+
+import android.util.Log;
+
+import com.google.audioworker.utils.Constants;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+// Tone files of the offload playback, stored under the hash of everything that determines their
+// content. Every entry has a JSON record of its file name, length and modification time, written
+// only once the file is complete, so a truncated or rewritten file is detected and dropped on
+// lookup without reading it. The record also keeps the last access of the entry, and the least
+// recently used entries are evicted once the total size exceeds the limit.
+class ToneFileCache {
+    private static final String TAG = Constants.packageTag("ToneFileCache");
+
+    private static final String RECORD_EXT = ".json";
+    private static final String KEY_FILE = "file";
+    private static final String KEY_LENGTH = "length";
+    private static final String KEY_MODIFIED = "modified";
+    private static final String KEY_ACCESSED = "accessed";
+
+    private final File mDir;
+    private final long mMaxBytes;
+    // Strictly increasing so that the accesses within a clock tick keep their order
+    private long mLastAccess;
+
+    ToneFileCache(File dir, long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+    }
+
+    // Returns the key of the content described, the description has to cover every setting that
+    // changes the generated or encoded file
+    static String keyOf(String description) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(description.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : hash) key.append(String.format("%02x", b));
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Returns the intact file of the key or null, a hit makes the entry the most recently used
+    synchronized File lookup(String key) {
+        if (key == null) return null;
+
+        File record = new File(mDir, key + RECORD_EXT);
+        if (!record.exists()) return null;
+
+        try {
+            JSONObject json = readRecord(record);
+            File file = new File(mDir, json.getString(KEY_FILE));
+            if (file.exists()
+                    && file.length() == json.getLong(KEY_LENGTH)
+                    && file.lastModified() == json.getLong(KEY_MODIFIED)) {
+                // A failed update only makes the entry look older than it is
+                if (!writeRecord(key, file)) Log.w(TAG, "failed to update the access of " + key);
+                return file;
+            }
+            Log.w(TAG, "drop the corrupted entry " + key);
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "drop the unreadable entry " + key + ": " + e.getMessage());
+        }
+
+        remove(key);
+        return null;
+    }
+
+    // Moves the file into the cache under the key and returns the cached file, or null if it
+    // could not be stored and the source is left in place
+    synchronized File put(String key, File source) {
+        if (key == null || !source.exists()) return null;
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            Log.w(TAG, "failed to create " + mDir);
+            return null;
+        }
+
+        remove(key);
+        String name = source.getName();
+        File file = new File(mDir, key + name.substring(Math.max(name.lastIndexOf('.'), 0)));
+        if (!source.renameTo(file)) {
+            Log.w(TAG, "failed to move " + source + " into the cache");
+            return null;
+        }
+
+        if (!writeRecord(key, file)) {
+            file.delete();
+            return null;
+        }
+
+        evict(key);
+        return file;
+    }
+
+    // Writes the record of the file as accessed now, replacing the previous one at once
+    private boolean writeRecord(String key, File file) {
+        mLastAccess = Math.max(System.currentTimeMillis(), mLastAccess + 1);
+
+        File record = new File(mDir, key + RECORD_EXT);
+        File pending = new File(mDir, key + RECORD_EXT + ".tmp");
+        try (PrintWriter writer = new PrintWriter(pending)) {
+            JSONObject json = new JSONObject();
+            json.put(KEY_FILE, file.getName());
+            json.put(KEY_LENGTH, file.length());
+            json.put(KEY_MODIFIED, file.lastModified());
+            json.put(KEY_ACCESSED, mLastAccess);
+            writer.write(json.toString());
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "failed to record " + file + ": " + e.getMessage());
+            pending.delete();
+            return false;
+        }
+        if (!pending.renameTo(record)) {
+            pending.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static JSONObject readRecord(File record) throws IOException, JSONException {
+        return new JSONObject(new String(Files.readAllBytes(record.toPath())));
+    }
+
+    // The last access of the entry, an unreadable record is the oldest
+    private static long lastAccessOf(File record) {
+        try {
+            return readRecord(record).getLong(KEY_ACCESSED);
+        } catch (IOException | JSONException e) {
+            return 0;
+        }
+    }
+
+    private void remove(String key) {
+        File record = new File(mDir, key + RECORD_EXT);
+        File[] files = mDir.listFiles();
+        if (files == null) return;
+
+        // The record goes first so that a half removed entry is never seen as intact
+        if (record.exists() && !record.delete()) Log.w(TAG, "failed to delete " + record);
+        for (File f : files) {
+            if (f.getName().startsWith(key) && f.exists() && !f.delete())
+                Log.w(TAG, "failed to delete " + f);
+        }
+    }
+
+    // Drops the least recently used entries but the given one until the limit is kept
+    private void evict(String keep) {
+        File[] records = mDir.listFiles();
+        if (records == null) return;
+
+        ArrayList<String> keys = new ArrayList<>();
+        long total = 0;
+        for (File record : records) {
+            String name = record.getName();
+            if (!name.endsWith(RECORD_EXT)) continue;
+
+            String key = name.substring(0, name.length() - RECORD_EXT.length());
+            keys.add(key);
+            total += entrySize(key);
+        }
+        if (total <= mMaxBytes) return;
+
+        final HashMap<String, Long> accesses = new HashMap<>();
+        for (String key : keys) accesses.put(key, lastAccessOf(new File(mDir, key + RECORD_EXT)));
+        Collections.sort(
+                keys,
+                new Comparator<String>() {
+                    @Override
+                    public int compare(String a, String b) {
+                        return Long.compare(accesses.get(a), accesses.get(b));
+                    }
+                });
+        for (String key : keys) {
+            if (total <= mMaxBytes) break;
+            if (key.equals(keep)) continue;
+
+            total -= entrySize(key);
+            remove(key);
+            Log.d(TAG, "evict " + key);
+        }
+    }
+
+    private long entrySize(String key) {
+        long size = 0;
+        File[] files = mDir.listFiles();
+        if (files == null) return 0;
+
+        for (File f : files) {
+            if (f.getName().startsWith(key)) size += f.length();
+        }
+        return size;
+    }
+}
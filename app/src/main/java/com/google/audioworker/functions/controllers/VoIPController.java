@@ -107,10 +107,13 @@ public class VoIPController extends AudioController.AudioRxTxController {
             final WorkerFunction function, WorkerFunction.WorkerFunctionListener l) {
         if (function instanceof VoIPFunction && function.isValid()) {
             if (function instanceof VoIPStartFunction) {
+                PlaybackController.PlaybackRunnable prevRxRunnable = null;
+                RecordController.RecordRunnable prevTxRunnable = null;
                 if (isRxRunning()) {
                     PlaybackStopFunction rxStopFunction = new PlaybackStopFunction();
                     initRxStopFunction(function, rxStopFunction);
                     mRxRunnable.tryStop(rxStopFunction);
+                    prevRxRunnable = mRxRunnable;
                     mRxRunnable = null;
                 }
                 if (isTxRunning()) {
@@ -119,15 +122,23 @@ public class VoIPController extends AudioController.AudioRxTxController {
                     for (RecordController.RecordRunnable.RecordDataListener dl : mDataListeners)
                         mTxRunnable.unregisterDataListener(dl);
                     mTxRunnable.tryStop(txStopFunction);
+                    prevTxRunnable = mTxRunnable;
+                    mTxRunnable = null;
+                }
 
-                    while (!mTxRunnable.hasDone()) {
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
+                // Both directions are stopping concurrently, wait until they are released
+                if ((prevRxRunnable != null && !PlaybackController.awaitTaskDone(prevRxRunnable))
+                        || (prevTxRunnable != null
+                                && !RecordController.awaitTaskDone(prevTxRunnable))) {
+                    Log.e(TAG, "Timed out waiting for the previous VoIP process to stop");
+                    if (l != null) {
+                        WorkerFunction.Ack ack = WorkerFunction.Ack.ackToFunction(function);
+                        ack.setReturnCode(-1);
+                        ack.setDescription(
+                                "timed out waiting for the previous VoIP process to stop");
+                        l.onAckReceived(ack);
                     }
-                    mTxRunnable = null;
+                    return;
                 }
 
                 PlaybackStartFunction rxStartFunction = new PlaybackStartFunction();
@@ -148,9 +159,8 @@ public class VoIPController extends AudioController.AudioRxTxController {
                         new PlaybackController.PlaybackRunnable(
                                 rxStartFunction, listener, this, attr);
                 mTxRunnable = new RecordController.RecordRunnable(txStartFunction, listener, this);
-                mTxRunnable.setRecordRunner(
-                        new RecordController.RecordInternalRunnable(
-                                mTxRunnable, MediaRecorder.AudioSource.VOICE_COMMUNICATION));
+                RecordController.RecordInternalRunnable txSession =
+                        RecordController.attachCaptureSession(mTxRunnable);
 
                 if (mContextRef.get() != null) {
                     AudioManager audioManager =
@@ -178,7 +188,7 @@ public class VoIPController extends AudioController.AudioRxTxController {
                     mTxRunnable.registerDetector(detector);
                 mPoolExecuter.execute(mRxRunnable);
                 mPoolExecuter.execute(mTxRunnable);
-                mPoolExecuter.execute(mTxRunnable.getSlave());
+                if (txSession != null) mPoolExecuter.execute(txSession);
             } else if (function instanceof VoIPStopFunction) {
                 PlaybackStopFunction rxStopFunction = new PlaybackStopFunction();
                 RecordStopFunction txStopFunction = new RecordStopFunction();
@@ -206,15 +216,8 @@ public class VoIPController extends AudioController.AudioRxTxController {
                 }
                 mDetectors.clear();
             } else if (function instanceof VoIPConfigFunction) {
-                WorkerFunction.Ack ack = WorkerFunction.Ack.ackToFunction(function);
                 if (isRxRunning()) {
-                    WorkerFunction f =
-                            mRxRunnable.setSignalConfig(
-                                    ((VoIPConfigFunction) function).getRxAmplitude(),
-                                    ((VoIPConfigFunction) function).getTargetFrequency());
-                    ArrayList<Object> returns = new ArrayList<>();
-                    returns.add(f.toString());
-
+                    final ArrayList<Object> returns = new ArrayList<>();
                     AudioManager audioManager =
                             (AudioManager)
                                     mContextRef.get().getSystemService(Context.AUDIO_SERVICE);
@@ -229,15 +232,34 @@ public class VoIPController extends AudioController.AudioRxTxController {
                                                 : "default"));
                     }
 
-                    ack.setReturnCode(0);
-                    ack.setDescription("VoIP config sent");
-                    ack.setReturns(returns);
-                } else {
+                    // The ack is sent by the playback thread once the new signal is rendered
+                    final PlaybackController.PlaybackRunnable rxRunnable = mRxRunnable;
+                    final WorkerFunction.WorkerFunctionListener listener = l;
+                    rxRunnable.setSignalConfig(
+                            ((VoIPConfigFunction) function).getRxAmplitude(),
+                            ((VoIPConfigFunction) function).getTargetFrequency(),
+                            new PlaybackController.PlaybackRunnable.CommandListener() {
+                                @Override
+                                public void onCommandApplied(
+                                        int ret, String description, long latencyNanos) {
+                                    if (listener == null) return;
+
+                                    WorkerFunction.Ack ack =
+                                            WorkerFunction.Ack.ackToFunction(function);
+                                    returns.add(0, rxRunnable.getStartFunction().toString());
+                                    returns.addAll(
+                                            PlaybackController.getLatencyReturns(latencyNanos));
+                                    ack.setReturnCode(ret);
+                                    ack.setDescription(
+                                            ret < 0 ? description : "VoIP config applied");
+                                    ack.setReturns(returns);
+                                    listener.onAckReceived(ack);
+                                }
+                            });
+                } else if (l != null) {
+                    WorkerFunction.Ack ack = WorkerFunction.Ack.ackToFunction(function);
                     ack.setReturnCode(-1);
                     ack.setDescription("VoIP is not running");
-                }
-
-                if (l != null) {
                     l.onAckReceived(ack);
                 }
             } else if (function instanceof VoIPDetectFunction) {
@@ -461,6 +483,7 @@ public class VoIPController extends AudioController.AudioRxTxController {
         txFunction.setNumChannels(function.getTxNumChannels());
         txFunction.setSamplingFreq(function.getTxSamplingFreq());
         txFunction.setDumpBufferSizeMs(function.getTxDumpBufferSizeMs());
+        txFunction.setInputSrc(MediaRecorder.AudioSource.VOICE_COMMUNICATION);
     }
 
     private void initRxStopFunction(WorkerFunction function, PlaybackStopFunction rxFunction) {
@@ -14,6 +14,9 @@ import com.google.audioworker.fragments.GeneralInfoFragment;
 import com.google.audioworker.utils.Constants.Controllers.Config.AudioApi;
 import com.google.audioworker.utils.Constants.Controllers.Config.PerformanceMode;
 import com.google.audioworker.utils.Constants.Controllers.Config.RecordTask;
+import com.google.audioworker.utils.concurrent.DispatchStage;
+import com.google.audioworker.utils.signalproc.FftEngine;
+import com.google.audioworker.utils.signalproc.WindowFunction;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -226,10 +229,23 @@ public class Constants {
                 public static final int MAX_THREAD_COUNT = 10;
                 public static final int KEEP_ALIVE_TIME_SECONDS = 30;
                 public static final int BYTE_BUFFER_SIZE = 1024;
+                public static final long TASK_STOP_TIMEOUT_MILLIS = 5000;
             }
 
             public static class Playback {
                 public static final int TONE_FILE_DURATION_SECONDS = 60;
+                // Tone files are rendered in chunks of this length in parallel
+                public static final int TONE_FILE_CHUNK_MILLIS = 1000;
+                public static final int TONE_FILE_CHUNKS_PER_WORKER = 2;
+                // Steady tones are played from cached blocks of whole periods, see ToneCache
+                public static final int TONE_CACHE_MAX_ENTRIES = 4;
+                public static final int TONE_CACHE_MAX_SECONDS = 1;
+                public static final int TONE_CACHE_MIN_BLOCK_MILLIS = 100;
+                // The largest phase jump in radians to resume a tone from a cached block
+                public static final double TONE_CACHE_PHASE_TOLERANCE = 1e-3;
+                // Generated and encoded offload tone files are kept under the data folder
+                public static final String TONE_FILE_CACHE_DIR = "tone-cache";
+                public static final long TONE_FILE_CACHE_MAX_BYTES = 256L * 1024 * 1024;
 
                 public static class MP3_ENCODE {
                     public static final int MODE_CBR = 0;
@@ -248,6 +264,18 @@ public class Constants {
 
             public static class Record {
                 public static final float TIMEOUT_MULTIPLIER = 5.0f;
+                public static final int NUM_HANDOFF_BUFFERS = 8;
+                public static final int LISTENER_QUEUE_SIZE = 4;
+                public static final DispatchStage.OverflowPolicy LISTENER_OVERFLOW_POLICY =
+                        DispatchStage.OverflowPolicy.DROP_OLDEST;
+                // Capture streamed to a file is handed to the writer thread in batches, the pool
+                // bounds the backlog the storage may fall behind by
+                public static final int STREAM_BATCH_MILLIS = 100;
+                public static final int STREAM_NUM_BATCHES = 32;
+                public static final int STREAM_SYNC_MILLIS = 1000;
+                // Dump buffers from this size on are memory-mapped files, read in chunks
+                public static final int DUMP_MAP_MIN_BYTES = 4 * 1024 * 1024;
+                public static final int DUMP_COPY_BYTES = 256 * 1024;
             }
 
             public static class PerformanceMode {
@@ -323,10 +351,31 @@ public class Constants {
             public static final String PARAM_TARGET_FREQ = "target-freq";
             public static final String PARAM_CLEAR_TARGETS = "clear-target";
             public static final String PARAM_DUMP_HISTORY = "dump-history";
+            public static final String PARAM_FFT_ENGINE = "fft-engine";
+            public static final String PARAM_DETECT_METHOD = "detect-method";
+            public static final String PARAM_HOP_MILLIS = "hop-ms";
+            public static final String PARAM_WINDOW = "window";
+            public static final String PARAM_FFT_SIZE_POLICY = "fft-size-policy";
+
+            public static final String DETECT_METHOD_AUTO = "auto";
+            public static final String DETECT_METHOD_FFT = "fft";
+            public static final String DETECT_METHOD_GOERTZEL = "goertzel";
 
             public static class Config {
                 public static final int PROCESS_FRAME_MILLIS = 50;
                 public static final int TOL_DIFF_SEMI = 1;
+                public static final String FFT_ENGINE = FftEngine.NAME_AUTO;
+                public static final String DETECT_METHOD = DETECT_METHOD_AUTO;
+                // The Goertzel bank is chosen by "auto" for up to this many targets
+                public static final int GOERTZEL_MAX_TARGETS = 3;
+                public static final int HOP_MILLIS = 25;
+                public static final String WINDOW = WindowFunction.RECTANGULAR;
+                // Frames are transformed at their own length unless rounded up by the policy
+                public static final String FFT_SIZE_POLICY = FftEngine.SIZE_EXACT;
+                // A hop is skipped only if this many frames of its channel are still queued
+                public static final int ANALYSIS_FRAMES_PER_CHANNEL = 2;
+                public static final DispatchStage.OverflowPolicy ANALYSIS_OVERFLOW_POLICY =
+                        DispatchStage.OverflowPolicy.DROP_NEWEST;
             }
         }
 
@@ -344,6 +393,17 @@ public class Constants {
         }
     }
 
+    public static class SignalProcessing {
+        public static class Fft {
+            public static final int[] CROSS_CHECK_SIZES = {1024, 2205, 1031};
+            public static final double CROSS_CHECK_TOLERANCE = 1e-9;
+        }
+
+        public static class Wav {
+            public static final int WRITE_BUFFER_BYTES = 64 * 1024;
+        }
+    }
+
     public static class Logging {
         public static final String TIME_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS '(UTF+8)'";
         public static final Locale LOCALE = Locale.TAIWAN;
@@ -0,0 +1,198 @@
+package com.google.audioworker.utils.concurrent;
+
+import android.util.Log;
+
+import com.google.audioworker.utils.Constants;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DispatchStage<T> {
+    private static final String TAG = Constants.packageTag("DispatchStage");
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        BLOCK
+    }
+
+    // Every posted item ends up in exactly one of handle() and discard()
+    public interface Handler<T> {
+        void handle(T item);
+
+        // Called for the items dropped by the overflow policy or the shutdown
+        default void discard(T item) {}
+    }
+
+    private final String mName;
+    private final ArrayBlockingQueue<T> mQueue;
+    private final OverflowPolicy mPolicy;
+    private final Handler<T> mHandler;
+    private final long mKeepAliveMillis;
+
+    private final AtomicLong mNumDispatched = new AtomicLong(0);
+    private final AtomicLong mNumDropped = new AtomicLong(0);
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger(0);
+
+    private Thread mWorker;
+    private volatile boolean mShutdown = false;
+
+    public DispatchStage(String name, int capacity, OverflowPolicy policy, Handler<T> handler) {
+        this(
+                name,
+                capacity,
+                policy,
+                handler,
+                Constants.Controllers.Config.Common.KEEP_ALIVE_TIME_SECONDS * 1000L);
+    }
+
+    public DispatchStage(
+            String name,
+            int capacity,
+            OverflowPolicy policy,
+            Handler<T> handler,
+            long keepAliveMillis) {
+        mName = name;
+        mQueue = new ArrayBlockingQueue<>(Math.max(capacity, 1));
+        mPolicy = policy;
+        mHandler = handler;
+        mKeepAliveMillis = keepAliveMillis;
+    }
+
+    public boolean post(T item) {
+        if (mShutdown) {
+            mNumDropped.incrementAndGet();
+            mHandler.discard(item);
+            return false;
+        }
+
+        boolean queued = false;
+        switch (mPolicy) {
+            case DROP_OLDEST:
+                while (!(queued = mQueue.offer(item))) {
+                    T oldest = mQueue.poll();
+                    if (oldest != null) {
+                        mNumDropped.incrementAndGet();
+                        mHandler.discard(oldest);
+                    }
+                }
+                break;
+            case BLOCK:
+                try {
+                    while (!mShutdown && !(queued = mQueue.offer(item, 10, TimeUnit.MILLISECONDS)))
+                        ensureWorker();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (!queued) {
+                    mNumDropped.incrementAndGet();
+                    mHandler.discard(item);
+                }
+                break;
+            case DROP_NEWEST:
+            default:
+                queued = mQueue.offer(item);
+                if (!queued) {
+                    mNumDropped.incrementAndGet();
+                    mHandler.discard(item);
+                }
+                break;
+        }
+
+        // Only once the item is queued: a worker which timed out on the empty queue before then
+        // has let go under the same lock, and is brought back here
+        ensureWorker();
+
+        int depth = mQueue.size();
+        int max = mMaxQueueDepth.get();
+        while (depth > max && !mMaxQueueDepth.compareAndSet(max, depth))
+            max = mMaxQueueDepth.get();
+
+        return queued;
+    }
+
+    public void shutdown() {
+        mShutdown = true;
+        synchronized (this) {
+            discardQueued();
+            if (mWorker != null) mWorker.interrupt();
+        }
+    }
+
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    public long getNumDispatched() {
+        return mNumDispatched.get();
+    }
+
+    public long getNumDropped() {
+        return mNumDropped.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return mPolicy;
+    }
+
+    private synchronized void ensureWorker() {
+        // An item queued while shutting down would never be handled
+        if (mShutdown) {
+            discardQueued();
+            return;
+        }
+        if (mWorker != null) return;
+
+        mWorker =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                loop();
+                            }
+                        },
+                        mName);
+        mWorker.start();
+    }
+
+    private synchronized void discardQueued() {
+        T item;
+        while ((item = mQueue.poll()) != null) mHandler.discard(item);
+    }
+
+    private void loop() {
+        while (true) {
+            T item;
+            try {
+                item = mQueue.poll(mKeepAliveMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                item = null;
+            }
+
+            if (item == null) {
+                // Let the worker go when idle, the next post brings it back
+                synchronized (this) {
+                    if (mShutdown || mQueue.isEmpty()) {
+                        mWorker = null;
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            try {
+                mHandler.handle(item);
+            } catch (RuntimeException e) {
+                Log.e(TAG, mName + ": failed to handle the dispatched item");
+                e.printStackTrace();
+            }
+            mNumDispatched.incrementAndGet();
+        }
+    }
+}
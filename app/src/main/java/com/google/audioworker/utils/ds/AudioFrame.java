@@ -0,0 +1,168 @@
+package com.google.audioworker.utils.ds;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AudioFrame {
+    private double[][] data;
+    private int numChannels;
+    private int numFrames;
+    private int samplingFreq;
+    private long framePosition;
+    private long timestampNanos;
+
+    private List<Double>[] lists;
+
+    public AudioFrame(int numChannels, int capacity, int samplingFreq) {
+        this.data = new double[numChannels][capacity];
+        this.numChannels = numChannels;
+        this.numFrames = 0;
+        this.samplingFreq = samplingFreq;
+    }
+
+    public static AudioFrame fromLists(List<? extends Double>[] signal, int samplingFreq) {
+        int capacity = 0;
+        for (List<? extends Double> each : signal) capacity = Math.max(capacity, each.size());
+
+        AudioFrame frame = new AudioFrame(signal.length, capacity, samplingFreq);
+        frame.numFrames = capacity;
+        for (int c = 0; c < signal.length; c++) {
+            for (int i = 0; i < signal[c].size(); i++) frame.data[c][i] = signal[c].get(i);
+        }
+
+        return frame;
+    }
+
+    public void ensureCapacity(int numChannels, int capacity) {
+        if (numChannels != data.length || capacity > capacity()) {
+            data = new double[numChannels][Math.max(capacity, capacity())];
+        }
+        this.numChannels = numChannels;
+    }
+
+    public int capacity() {
+        return data.length > 0 ? data[0].length : 0;
+    }
+
+    public int decodePcm(byte[] src, int offset, int length, int bitWidth) {
+        int bytesPerSample = bytesPerSample(bitWidth);
+        int frames = length / bytesPerSample / numChannels;
+        ensureCapacity(numChannels, frames);
+
+        int idx = offset;
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < numChannels; c++) {
+                switch (bytesPerSample) {
+                    case 1:
+                        data[c][i] = src[idx] * 1.0 / (1 << 7);
+                        break;
+                    case 4:
+                        data[c][i] =
+                                ((src[idx] & 0xFF)
+                                                | (src[idx + 1] & 0xFF) << 8
+                                                | (src[idx + 2] & 0xFF) << 16
+                                                | src[idx + 3] << 24)
+                                        * 1.0
+                                        / (1L << 31);
+                        break;
+                    default:
+                        data[c][i] =
+                                (short) ((src[idx] & 0xFF) | src[idx + 1] << 8) * 1.0 / (1 << 15);
+                        break;
+                }
+                idx += bytesPerSample;
+            }
+        }
+
+        numFrames = frames;
+        lists = null;
+        return frames;
+    }
+
+    // The byte order of src is respected and its position is left untouched
+    public int decodePcm(ByteBuffer src, int length, int bitWidth) {
+        int bytesPerSample = bytesPerSample(bitWidth);
+        int frames = length / bytesPerSample / numChannels;
+        ensureCapacity(numChannels, frames);
+
+        int idx = src.position();
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < numChannels; c++) {
+                switch (bytesPerSample) {
+                    case 1:
+                        data[c][i] = src.get(idx) * 1.0 / (1 << 7);
+                        break;
+                    case 4:
+                        data[c][i] = src.getInt(idx) * 1.0 / (1L << 31);
+                        break;
+                    default:
+                        data[c][i] = src.getShort(idx) * 1.0 / (1 << 15);
+                        break;
+                }
+                idx += bytesPerSample;
+            }
+        }
+
+        numFrames = frames;
+        lists = null;
+        return frames;
+    }
+
+    private static int bytesPerSample(int bitWidth) {
+        switch (bitWidth) {
+            case 8:
+            case 32:
+                return bitWidth / 8;
+            default:
+                return 2;
+        }
+    }
+
+    public void setPosition(long framePosition, long timestampNanos) {
+        this.framePosition = framePosition;
+        this.timestampNanos = timestampNanos;
+    }
+
+    public void setSamplingFreq(int samplingFreq) {
+        this.samplingFreq = samplingFreq;
+    }
+
+    public double[] getChannel(int c) {
+        return data[c];
+    }
+
+    public int getNumChannels() {
+        return numChannels;
+    }
+
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    public int getSamplingFreq() {
+        return samplingFreq;
+    }
+
+    public long getFramePosition() {
+        return framePosition;
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Double>[] toLists() {
+        if (lists != null) return lists;
+
+        List<Double>[] values = new ArrayList[numChannels];
+        for (int c = 0; c < numChannels; c++) {
+            values[c] = new ArrayList<>(numFrames);
+            for (int i = 0; i < numFrames; i++) values[c].add(data[c][i]);
+        }
+
+        lists = values;
+        return lists;
+    }
+}
@@ -0,0 +1,73 @@
+package com.google.audioworker.utils.ds;
+
+import java.util.Arrays;
+
+public class DoubleRingBuffer {
+    private final double[] raw;
+    private int head;
+    private int len;
+
+    public DoubleRingBuffer(int capacity) {
+        this.raw = new double[Math.max(capacity, 0)];
+        this.head = 0;
+        this.len = 0;
+    }
+
+    public int capacity() {
+        return raw.length;
+    }
+
+    public int size() {
+        return len;
+    }
+
+    public boolean isEmpty() {
+        return len == 0;
+    }
+
+    public void clear() {
+        head = 0;
+        len = 0;
+    }
+
+    public void fill(double value) {
+        Arrays.fill(raw, value);
+        head = 0;
+        len = raw.length;
+    }
+
+    public void write(double[] src, int off, int length) {
+        if (raw.length == 0 || length <= 0) return;
+
+        // Only the latest raw.length samples can survive the write
+        if (length > raw.length) {
+            off += length - raw.length;
+            length = raw.length;
+        }
+
+        int tail = (head + len) % raw.length;
+        int first = Math.min(length, raw.length - tail);
+        System.arraycopy(src, off, raw, tail, first);
+        if (first < length) System.arraycopy(src, off + first, raw, 0, length - first);
+
+        int overflow = len + length - raw.length;
+        if (overflow > 0) {
+            head = (head + overflow) % raw.length;
+            len = raw.length;
+        } else {
+            len += length;
+        }
+    }
+
+    public int copyLatest(double[] dest) {
+        int n = Math.min(dest.length, len);
+        if (n == 0) return 0;
+
+        int start = (head + len - n) % raw.length;
+        int first = Math.min(n, raw.length - start);
+        System.arraycopy(raw, start, dest, 0, first);
+        if (first < n) System.arraycopy(raw, 0, dest, first, n - first);
+
+        return n;
+    }
+}
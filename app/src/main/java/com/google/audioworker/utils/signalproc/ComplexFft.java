@@ -0,0 +1,341 @@
+package com.google.audioworker.utils.signalproc;
+
+import java.util.ArrayList;
+
+// The Java counterpart of the native ComplexFFTPlan: a forward complex transform of any size. Sizes
+// whose prime factors are all up to 7 run a mixed radix algorithm directly, other sizes go through
+// Bluestein's chirp z-transform on a power of two. Not thread-safe, the scratch arrays are shared.
+class ComplexFft {
+    private final int size;
+    private final int[] factors;
+    private final double[] cos;
+    private final double[] sin;
+    private double[] scratchRe = new double[7];
+    private double[] scratchIm = new double[7];
+
+    // Bluestein: the chirp, the transform of its conjugate and the convolution of size M >= 2N-1
+    private final ComplexFft conv;
+    private final double[] chirpRe;
+    private final double[] chirpIm;
+    private final double[] kernelRe;
+    private final double[] kernelIm;
+    private final double[] convRe;
+    private final double[] convIm;
+    private final double[] convOutRe;
+    private final double[] convOutIm;
+
+    ComplexFft(int n) {
+        size = Math.max(n, 1);
+
+        if (size > 1 && !isSmooth(size)) {
+            int m = 1;
+            while (m < 2 * size - 1) m <<= 1;
+            conv = new ComplexFft(m);
+            chirpRe = new double[size];
+            chirpIm = new double[size];
+            convRe = new double[m];
+            convIm = new double[m];
+            convOutRe = new double[m];
+            convOutIm = new double[m];
+            kernelRe = new double[m];
+            kernelIm = new double[m];
+
+            // e^(-i*pi*k^2/N), with k^2 reduced modulo 2N to keep the angle accurate
+            for (int k = 0; k < size; k++) {
+                long k2 = ((long) k * k) % (2L * size);
+                double radius = Math.PI * k2 / size;
+                chirpRe[k] = Math.cos(radius);
+                chirpIm[k] = -Math.sin(radius);
+            }
+
+            double[] bRe = new double[m];
+            double[] bIm = new double[m];
+            bRe[0] = chirpRe[0];
+            bIm[0] = -chirpIm[0];
+            for (int k = 1; k < size; k++) {
+                bRe[k] = bRe[m - k] = chirpRe[k];
+                bIm[k] = bIm[m - k] = -chirpIm[k];
+            }
+            conv.transform(bRe, bIm, kernelRe, kernelIm);
+
+            factors = new int[0];
+            cos = sin = null;
+            return;
+        }
+
+        conv = null;
+        chirpRe = chirpIm = kernelRe = kernelIm = null;
+        convRe = convIm = convOutRe = convOutIm = null;
+
+        // Radix 4 first, then 2, 3, 5 and 7, the same order as the native plan
+        ArrayList<Integer> stages = new ArrayList<>();
+        int rest = size;
+        int p = 4;
+        while (rest > 1) {
+            while (rest % p != 0) {
+                if (p == 4) p = 2;
+                else if (p == 2) p = 3;
+                else p += 2;
+            }
+            rest /= p;
+            stages.add(p);
+            stages.add(rest);
+        }
+        factors = new int[stages.size()];
+        for (int i = 0; i < factors.length; i++) factors[i] = stages.get(i);
+
+        // e^(-2*pi*i*k/N)
+        cos = new double[size];
+        sin = new double[size];
+        for (int k = 0; k < size; k++) {
+            double radius = 2 * Math.PI * k / size;
+            cos[k] = Math.cos(radius);
+            sin[k] = -Math.sin(radius);
+        }
+    }
+
+    static boolean isSmooth(int n) {
+        if (n <= 0) return false;
+
+        for (int p : new int[] {2, 3, 5, 7}) {
+            while (n % p == 0) n /= p;
+        }
+        return n == 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Unscaled, the input and output arrays must not be the same
+    void transform(double[] inRe, double[] inIm, double[] outRe, double[] outIm) {
+        if (size == 1) {
+            outRe[0] = inRe[0];
+            outIm[0] = inIm[0];
+            return;
+        }
+
+        if (conv == null) {
+            work(outRe, outIm, 0, inRe, inIm, 0, 1, 0);
+            return;
+        }
+
+        int m = conv.size();
+        for (int k = 0; k < size; k++) {
+            convRe[k] = inRe[k] * chirpRe[k] - inIm[k] * chirpIm[k];
+            convIm[k] = inRe[k] * chirpIm[k] + inIm[k] * chirpRe[k];
+        }
+        for (int k = size; k < m; k++) convRe[k] = convIm[k] = 0;
+        conv.transform(convRe, convIm, convOutRe, convOutIm);
+
+        // The inverse transform as the conjugate of the forward transform of the conjugate
+        for (int k = 0; k < m; k++) {
+            double re = convOutRe[k] * kernelRe[k] - convOutIm[k] * kernelIm[k];
+            double im = convOutRe[k] * kernelIm[k] + convOutIm[k] * kernelRe[k];
+            convRe[k] = re;
+            convIm[k] = -im;
+        }
+        conv.transform(convRe, convIm, convOutRe, convOutIm);
+
+        for (int k = 0; k < size; k++) {
+            double re = convOutRe[k] / m;
+            double im = -convOutIm[k] / m;
+            outRe[k] = re * chirpRe[k] - im * chirpIm[k];
+            outIm[k] = re * chirpIm[k] + im * chirpRe[k];
+        }
+    }
+
+    private void work(
+            double[] outRe,
+            double[] outIm,
+            int out,
+            double[] inRe,
+            double[] inIm,
+            int in,
+            int fstride,
+            int stage) {
+        int p = factors[stage];
+        int m = factors[stage + 1];
+
+        if (m == 1) {
+            for (int i = 0; i < p; i++) {
+                outRe[out + i] = inRe[in + i * fstride];
+                outIm[out + i] = inIm[in + i * fstride];
+            }
+        } else {
+            for (int i = 0; i < p; i++) {
+                int from = in + i * fstride;
+                work(outRe, outIm, out + i * m, inRe, inIm, from, fstride * p, stage + 2);
+            }
+        }
+
+        switch (p) {
+            case 2:
+                butterfly2(outRe, outIm, out, fstride, m);
+                break;
+            case 3:
+                butterfly3(outRe, outIm, out, fstride, m);
+                break;
+            case 4:
+                butterfly4(outRe, outIm, out, fstride, m);
+                break;
+            case 5:
+                butterfly5(outRe, outIm, out, fstride, m);
+                break;
+            default:
+                butterflyGeneric(outRe, outIm, out, fstride, m, p);
+                break;
+        }
+    }
+
+    private void butterfly2(double[] re, double[] im, int out, int fstride, int m) {
+        for (int u = 0; u < m; u++) {
+            int a = out + u;
+            int b = a + m;
+            int t = u * fstride;
+            double tr = re[b] * cos[t] - im[b] * sin[t];
+            double ti = re[b] * sin[t] + im[b] * cos[t];
+            re[b] = re[a] - tr;
+            im[b] = im[a] - ti;
+            re[a] += tr;
+            im[a] += ti;
+        }
+    }
+
+    private void butterfly3(double[] re, double[] im, int out, int fstride, int m) {
+        double epi3 = sin[fstride * m];
+        for (int u = 0; u < m; u++) {
+            int a = out + u;
+            int t1 = u * fstride;
+            int t2 = 2 * u * fstride;
+            double s1r = re[a + m] * cos[t1] - im[a + m] * sin[t1];
+            double s1i = re[a + m] * sin[t1] + im[a + m] * cos[t1];
+            double s2r = re[a + 2 * m] * cos[t2] - im[a + 2 * m] * sin[t2];
+            double s2i = re[a + 2 * m] * sin[t2] + im[a + 2 * m] * cos[t2];
+            double s3r = s1r + s2r;
+            double s3i = s1i + s2i;
+            double s0r = (s1r - s2r) * epi3;
+            double s0i = (s1i - s2i) * epi3;
+
+            double midr = re[a] - s3r * 0.5;
+            double midi = im[a] - s3i * 0.5;
+            re[a] += s3r;
+            im[a] += s3i;
+            re[a + 2 * m] = midr + s0i;
+            im[a + 2 * m] = midi - s0r;
+            re[a + m] = midr - s0i;
+            im[a + m] = midi + s0r;
+        }
+    }
+
+    private void butterfly4(double[] re, double[] im, int out, int fstride, int m) {
+        for (int u = 0; u < m; u++) {
+            int a = out + u;
+            int t1 = u * fstride;
+            int t2 = 2 * u * fstride;
+            int t3 = 3 * u * fstride;
+            double s0r = re[a + m] * cos[t1] - im[a + m] * sin[t1];
+            double s0i = re[a + m] * sin[t1] + im[a + m] * cos[t1];
+            double s1r = re[a + 2 * m] * cos[t2] - im[a + 2 * m] * sin[t2];
+            double s1i = re[a + 2 * m] * sin[t2] + im[a + 2 * m] * cos[t2];
+            double s2r = re[a + 3 * m] * cos[t3] - im[a + 3 * m] * sin[t3];
+            double s2i = re[a + 3 * m] * sin[t3] + im[a + 3 * m] * cos[t3];
+
+            double s5r = re[a] - s1r;
+            double s5i = im[a] - s1i;
+            double f0r = re[a] + s1r;
+            double f0i = im[a] + s1i;
+            double s3r = s0r + s2r;
+            double s3i = s0i + s2i;
+            double s4r = s0r - s2r;
+            double s4i = s0i - s2i;
+
+            re[a + 2 * m] = f0r - s3r;
+            im[a + 2 * m] = f0i - s3i;
+            re[a] = f0r + s3r;
+            im[a] = f0i + s3i;
+            re[a + m] = s5r + s4i;
+            im[a + m] = s5i - s4r;
+            re[a + 3 * m] = s5r - s4i;
+            im[a + 3 * m] = s5i + s4r;
+        }
+    }
+
+    private void butterfly5(double[] re, double[] im, int out, int fstride, int m) {
+        double yar = cos[fstride * m];
+        double yai = sin[fstride * m];
+        double ybr = cos[2 * fstride * m];
+        double ybi = sin[2 * fstride * m];
+        double[] sr = scratchRe;
+        double[] si = scratchIm;
+        for (int u = 0; u < m; u++) {
+            int a = out + u;
+            sr[0] = re[a];
+            si[0] = im[a];
+            for (int q = 1; q < 5; q++) {
+                int t = q * u * fstride;
+                sr[q] = re[a + q * m] * cos[t] - im[a + q * m] * sin[t];
+                si[q] = re[a + q * m] * sin[t] + im[a + q * m] * cos[t];
+            }
+
+            double s7r = sr[1] + sr[4];
+            double s7i = si[1] + si[4];
+            double s10r = sr[1] - sr[4];
+            double s10i = si[1] - si[4];
+            double s8r = sr[2] + sr[3];
+            double s8i = si[2] + si[3];
+            double s9r = sr[2] - sr[3];
+            double s9i = si[2] - si[3];
+
+            re[a] = sr[0] + s7r + s8r;
+            im[a] = si[0] + s7i + s8i;
+
+            double s5r = sr[0] + s7r * yar + s8r * ybr;
+            double s5i = si[0] + s7i * yar + s8i * ybr;
+            double s6r = s10i * yai + s9i * ybi;
+            double s6i = -s10r * yai - s9r * ybi;
+            re[a + m] = s5r - s6r;
+            im[a + m] = s5i - s6i;
+            re[a + 4 * m] = s5r + s6r;
+            im[a + 4 * m] = s5i + s6i;
+
+            double s11r = sr[0] + s7r * ybr + s8r * yar;
+            double s11i = si[0] + s7i * ybr + s8i * yar;
+            double s12r = -s10i * ybi + s9i * yai;
+            double s12i = s10r * ybi - s9r * yai;
+            re[a + 2 * m] = s11r + s12r;
+            im[a + 2 * m] = s11i + s12i;
+            re[a + 3 * m] = s11r - s12r;
+            im[a + 3 * m] = s11i - s12i;
+        }
+    }
+
+    private void butterflyGeneric(double[] re, double[] im, int out, int fstride, int m, int p) {
+        if (scratchRe.length < p) {
+            scratchRe = new double[p];
+            scratchIm = new double[p];
+        }
+
+        for (int u = 0; u < m; u++) {
+            for (int q = 0; q < p; q++) {
+                scratchRe[q] = re[out + u + q * m];
+                scratchIm[q] = im[out + u + q * m];
+            }
+
+            for (int q1 = 0; q1 < p; q1++) {
+                int k = u + q1 * m;
+                int t = 0;
+                double sumRe = scratchRe[0];
+                double sumIm = scratchIm[0];
+                for (int q = 1; q < p; q++) {
+                    t += fstride * k;
+                    if (t >= size) t %= size;
+                    sumRe += scratchRe[q] * cos[t] - scratchIm[q] * sin[t];
+                    sumIm += scratchRe[q] * sin[t] + scratchIm[q] * cos[t];
+                }
+                re[out + k] = sumRe;
+                im[out + k] = sumIm;
+            }
+        }
+    }
+}
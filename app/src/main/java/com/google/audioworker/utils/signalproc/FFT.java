@@ -9,7 +9,90 @@ public class FFT {
         System.loadLibrary("native-fft");
     }
 
+    // The native tables of a real-input transform, see createPlan(). A plan is not thread-safe and
+    // has to be released explicitly.
+    public static class Plan {
+        private long handle;
+        private final int size;
+
+        private Plan(long handle) {
+            this.handle = handle;
+            this.size = nativePlanSize(handle);
+        }
+
+        // The transform size, exactly the requested size
+        public int size() {
+            return size;
+        }
+
+        // The number of bins of the non-negative frequencies
+        public int numBins() {
+            return size / 2 + 1;
+        }
+
+        public synchronized void release() {
+            if (handle == 0) return;
+
+            nativeDestroyPlan(handle);
+            handle = 0;
+        }
+    }
+
+    public static Plan createPlan(int n) {
+        return new Plan(nativeCreatePlan(n));
+    }
+
+    // Writes min(spectrum.length, plan.numBins()) magnitudes, scaled the same way as
+    // transformAbs(), and returns the number of bins written. A released plan writes nothing.
+    public static int transformAbsInto(Plan plan, double[] signal, double[] spectrum) {
+        synchronized (plan) {
+            if (plan.handle == 0) return 0;
+
+            return nativeTransformAbsInto(plan.handle, signal, spectrum);
+        }
+    }
+
+    // Transforms the signal and fits the peaks around the target bins of the spectrum in a single
+    // native call, the spectrum itself is never copied back. The features are laid out as by
+    // PeakDetector.extractFeatureInto() and the number of targets is returned, or -1 on failure.
+    public static int transformAbsAndExtractFeatures(
+            Plan plan,
+            double[] signal,
+            int[] targetIndices,
+            PeakDetector.Config config,
+            double[] features) {
+        synchronized (plan) {
+            if (plan.handle == 0) return -1;
+
+            return nativeTransformAbsAndExtractFeatures(
+                    plan.handle,
+                    signal,
+                    targetIndices,
+                    config.minNormFactor,
+                    config.numPoints,
+                    config.step,
+                    features);
+        }
+    }
+
     public static native double[] transformAbs(double[] signal);
 
     public static native String getVersion();
+
+    private static native long nativeCreatePlan(int n);
+
+    private static native int nativePlanSize(long plan);
+
+    private static native void nativeDestroyPlan(long plan);
+
+    private static native int nativeTransformAbsInto(long plan, double[] signal, double[] spectrum);
+
+    private static native int nativeTransformAbsAndExtractFeatures(
+            long plan,
+            double[] signal,
+            int[] targetIndices,
+            double minNormFactor,
+            int numPoints,
+            int step,
+            double[] features);
 }
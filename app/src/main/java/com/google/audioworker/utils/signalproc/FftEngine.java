@@ -0,0 +1,40 @@
+package com.google.audioworker.utils.signalproc;
+
+public interface FftEngine {
+    String NAME_AUTO = "auto";
+    String NAME_NATIVE = "native";
+    String NAME_JAVA = "java";
+
+    // How a frame length is turned into a transform size, see FftEngines.roundSize()
+    String SIZE_EXACT = "exact";
+    String SIZE_SMOOTH = "smooth";
+    String SIZE_POW2 = "pow2";
+
+    String getName();
+
+    // Creates a real-input transform of exactly n samples, any size is supported
+    Transform createTransform(int n);
+
+    interface Transform {
+        int size();
+
+        // The number of bins of the non-negative frequencies
+        int numBins();
+
+        // Writes min(spectrum.length, numBins()) magnitudes scaled by 1/sqrt(size()) and returns
+        // the number of bins written. The signal is zero padded or truncated to size().
+        int transformAbs(double[] signal, double[] spectrum);
+
+        // Transforms the signal into the bins below the Nyquist frequency and fits the peaks
+        // around the target bins, see PeakDetector.extractFeatureInto(). The spectrum is scratch
+        // space of size() / 2 bins that an engine may leave untouched.
+        int extractPeakFeatures(
+                double[] signal,
+                double[] spectrum,
+                int[] targetIndices,
+                PeakDetector.Config config,
+                double[] features);
+
+        void release();
+    }
+}
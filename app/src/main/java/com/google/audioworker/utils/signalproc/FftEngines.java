@@ -0,0 +1,106 @@
+package com.google.audioworker.utils.signalproc;
+
+import com.google.audioworker.utils.Constants;
+
+import java.util.Random;
+
+// Free of Android classes so the engines run on a plain JVM, the callers report the fallbacks
+public class FftEngines {
+    private static final FftEngine sJavaEngine = new JavaFftEngine();
+    private static FftEngine sNativeEngine;
+    private static boolean sNativeEngineChecked = false;
+    private static String sNativeEngineError;
+
+    // Picks the engine by name. The native engine, also picked by "auto", is only used once it has
+    // been loaded and cross-checked against the Java one, see getNativeEngineError() otherwise.
+    public static FftEngine get(String name) {
+        if (FftEngine.NAME_JAVA.equals(name)) return sJavaEngine;
+
+        FftEngine nativeEngine = getNativeEngine();
+        return nativeEngine != null ? nativeEngine : sJavaEngine;
+    }
+
+    // Why the native engine is not used, or null
+    public static synchronized String getNativeEngineError() {
+        return sNativeEngineError;
+    }
+
+    public static boolean isValidName(String name) {
+        return FftEngine.NAME_AUTO.equals(name)
+                || FftEngine.NAME_NATIVE.equals(name)
+                || FftEngine.NAME_JAVA.equals(name);
+    }
+
+    public static boolean isValidSizePolicy(String policy) {
+        return FftEngine.SIZE_EXACT.equals(policy)
+                || FftEngine.SIZE_SMOOTH.equals(policy)
+                || FftEngine.SIZE_POW2.equals(policy);
+    }
+
+    // Returns the transform size for frames of n samples: n itself, the next size whose prime
+    // factors are all up to 7, which runs without the Bluestein fallback, or the next power of two.
+    // A frame shorter than the size is zero padded.
+    public static int roundSize(int n, String policy) {
+        n = Math.max(n, 1);
+        if (FftEngine.SIZE_POW2.equals(policy)) {
+            int size = 1;
+            while (size < n) size <<= 1;
+            return size;
+        }
+
+        if (FftEngine.SIZE_SMOOTH.equals(policy)) {
+            int size = n;
+            while (!ComplexFft.isSmooth(size)) size++;
+            return size;
+        }
+
+        return n;
+    }
+
+    private static synchronized FftEngine getNativeEngine() {
+        if (sNativeEngineChecked) return sNativeEngine;
+
+        sNativeEngineChecked = true;
+        try {
+            FftEngine engine = new NativeFftEngine();
+            // A power of two, a mixed radix size and a prime one for the Bluestein path
+            double error = 0;
+            for (int n : Constants.SignalProcessing.Fft.CROSS_CHECK_SIZES)
+                error = Math.max(error, crossCheck(engine, sJavaEngine, n));
+            if (error > Constants.SignalProcessing.Fft.CROSS_CHECK_TOLERANCE) {
+                sNativeEngineError =
+                        "native FFT disagrees with the Java one (max error: " + error + ")";
+            } else {
+                sNativeEngine = engine;
+            }
+        } catch (UnsatisfiedLinkError | NoClassDefFoundError e) {
+            sNativeEngineError = "native FFT is not loadable: " + e.getMessage();
+        }
+
+        return sNativeEngine;
+    }
+
+    // Returns the max absolute difference between the spectra of both engines for a random signal
+    public static double crossCheck(FftEngine a, FftEngine b, int n) {
+        double[] signal = new double[n];
+        Random random = new Random(n);
+        for (int i = 0; i < n; i++) signal[i] = random.nextDouble() * 2 - 1;
+
+        FftEngine.Transform ta = a.createTransform(n);
+        FftEngine.Transform tb = b.createTransform(n);
+        try {
+            double[] sa = new double[ta.numBins()];
+            double[] sb = new double[tb.numBins()];
+            if (ta.size() != tb.size()
+                    || ta.transformAbs(signal, sa) != tb.transformAbs(signal, sb))
+                return Double.POSITIVE_INFINITY;
+
+            double error = 0;
+            for (int k = 0; k < sa.length; k++) error = Math.max(error, Math.abs(sa[k] - sb[k]));
+            return error;
+        } finally {
+            ta.release();
+            tb.release();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.google.audioworker.utils.signalproc;
+
+// A bank of Goertzel filters evaluating the DFT of whole frames at a few given frequencies. A
+// frame costs O(length * numFilters) regardless of the transform size an FFT would need, and no
+// state is kept from one frame to the next.
+public class GoertzelBank {
+    private final double[] coeffs;
+    private final double[] cos;
+    private final double[] sin;
+    // Scratch space of the peak fitting
+    private final double[] normalized;
+    private double[] fitPoints;
+
+    // The frequencies are normalized by the sampling frequency, in cycles per sample
+    public GoertzelBank(double[] normalizedFreqs) {
+        int n = normalizedFreqs.length;
+        this.coeffs = new double[n];
+        this.cos = new double[n];
+        this.sin = new double[n];
+        this.normalized = new double[n];
+        this.fitPoints = new double[0];
+
+        for (int i = 0; i < n; i++) {
+            double w = 2 * Math.PI * normalizedFreqs[i];
+            cos[i] = Math.cos(w);
+            sin[i] = Math.sin(w);
+            coeffs[i] = 2 * cos[i];
+        }
+    }
+
+    public int numFilters() {
+        return coeffs.length;
+    }
+
+    // Writes the DFT magnitudes of the length samples of frame from offset, multiplied by scale
+    public void evaluate(double[] frame, int offset, int length, double[] out, double scale) {
+        for (int i = 0; i < Math.min(coeffs.length, out.length); i++) {
+            double coeff = coeffs[i];
+            double s1 = 0;
+            double s2 = 0;
+            for (int j = offset; j < offset + length; j++) {
+                double s = frame[j] + coeff * s1 - s2;
+                s2 = s1;
+                s1 = s;
+            }
+
+            // One more step with a zero input, after which s - s1 * e^(-jw) is the DFT value
+            double s = coeff * s1 - s2;
+            double re = s - s1 * cos[i];
+            double im = s1 * sin[i];
+            out[i] = Math.sqrt(re * re + im * im) * scale;
+        }
+    }
+
+    // Fits the peaks around the targets of the bins written by evaluate(), like
+    // FftEngine.Transform.extractPeakFeatures() on a spectrum. The bins do not tell the strongest
+    // bin of the full spectrum, so the fitting is normalized by minNormFactor at least, in place
+    // of the factor of the config. Returns the number of targets or -1 if out is too short.
+    public int extractPeakFeatures(
+            double[] bins,
+            int[] targetIndices,
+            PeakDetector.Config config,
+            double minNormFactor,
+            double[] features) {
+        QuadraticFit fit = config.javaFit;
+        if (fitPoints.length < fit.numPoints()) fitPoints = new double[fit.numPoints()];
+        return fit.featureInto(
+                bins,
+                Math.min(bins.length, normalized.length),
+                minNormFactor,
+                targetIndices,
+                normalized,
+                fitPoints,
+                features);
+    }
+}
@@ -0,0 +1,132 @@
+package com.google.audioworker.utils.signalproc;
+
+public class JavaFftEngine implements FftEngine {
+    @Override
+    public String getName() {
+        return NAME_JAVA;
+    }
+
+    @Override
+    public FftEngine.Transform createTransform(int n) {
+        return new Transform(n);
+    }
+
+    // The same real-input scheme as the native FFTPlan: an even number of samples is packed into
+    // N/2 complex ones and the result split into the N/2+1 output bins, an odd number is
+    // transformed as N complex samples
+    public static class Transform implements FftEngine.Transform {
+        private final int size;
+        private final int half;
+        private final ComplexFft fft;
+        private final double[] postCos;
+        private final double[] postSin;
+        private final double[] inRe;
+        private final double[] inIm;
+        private final double[] re;
+        private final double[] im;
+        private final double scale;
+        // Scratch space of the peak fitting
+        private final double[] normalized;
+        private double[] fitPoints;
+
+        Transform(int n) {
+            this.size = Math.max(n, 1);
+            this.half = size / 2;
+            this.fft = new ComplexFft(size % 2 == 0 ? half : size);
+
+            // e^(-2*pi*i*k/N) to split the bins of the packed transform
+            postCos = new double[half + 1];
+            postSin = new double[half + 1];
+            for (int k = 0; k <= half; k++) {
+                double radius = 2 * Math.PI * k / size;
+                postCos[k] = Math.cos(radius);
+                postSin[k] = -Math.sin(radius);
+            }
+
+            inRe = new double[fft.size()];
+            inIm = new double[fft.size()];
+            re = new double[fft.size()];
+            im = new double[fft.size()];
+            scale = 1.0 / Math.sqrt(size);
+            normalized = new double[half];
+            fitPoints = new double[0];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int numBins() {
+            return half + 1;
+        }
+
+        @Override
+        public int transformAbs(double[] signal, double[] spectrum) {
+            int count = Math.min(spectrum.length, half + 1);
+
+            if (size % 2 != 0) {
+                for (int i = 0; i < size; i++) {
+                    inRe[i] = i < signal.length ? signal[i] : 0;
+                    inIm[i] = 0;
+                }
+                fft.transform(inRe, inIm, re, im);
+
+                for (int k = 0; k < count; k++)
+                    spectrum[k] = Math.sqrt(re[k] * re[k] + im[k] * im[k]) * scale;
+                return count;
+            }
+
+            for (int m = 0; m < half; m++) {
+                inRe[m] = 2 * m < signal.length ? signal[2 * m] : 0;
+                inIm[m] = 2 * m + 1 < signal.length ? signal[2 * m + 1] : 0;
+            }
+            fft.transform(inRe, inIm, re, im);
+
+            for (int k = 0; k < count; k++) {
+                int p = k % half;
+                int q = (half - k) % half;
+                // even = (Z[k] + conj(Z[M-k])) / 2, odd = (Z[k] - conj(Z[M-k])) / 2i
+                double er = (re[p] + re[q]) * 0.5;
+                double ei = (im[p] - im[q]) * 0.5;
+                double or = (im[p] + im[q]) * 0.5;
+                double oi = (re[q] - re[p]) * 0.5;
+                double wr = postCos[k];
+                double wi = postSin[k];
+                double xr = er + wr * or - wi * oi;
+                double xi = ei + wr * oi + wi * or;
+                spectrum[k] = Math.sqrt(xr * xr + xi * xi) * scale;
+            }
+
+            return count;
+        }
+
+        // Fitted in Java like the bins below the Nyquist frequency of the native engine, the
+        // native PeakDetector is never loaded by this engine
+        @Override
+        public int extractPeakFeatures(
+                double[] signal,
+                double[] spectrum,
+                int[] targetIndices,
+                PeakDetector.Config config,
+                double[] features) {
+            int count = Math.min(transformAbs(signal, spectrum), half);
+            if (count <= 0) return -1;
+
+            QuadraticFit fit = config.javaFit;
+            if (fitPoints.length < fit.numPoints()) fitPoints = new double[fit.numPoints()];
+            return fit.featureInto(
+                    spectrum,
+                    count,
+                    config.minNormFactor,
+                    targetIndices,
+                    normalized,
+                    fitPoints,
+                    features);
+        }
+
+        @Override
+        public void release() {}
+    }
+}
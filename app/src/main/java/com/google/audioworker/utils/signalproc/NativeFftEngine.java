@@ -0,0 +1,53 @@
+package com.google.audioworker.utils.signalproc;
+
+public class NativeFftEngine implements FftEngine {
+    @Override
+    public String getName() {
+        return NAME_NATIVE;
+    }
+
+    @Override
+    public FftEngine.Transform createTransform(int n) {
+        return new Transform(FFT.createPlan(n));
+    }
+
+    public static class Transform implements FftEngine.Transform {
+        private final FFT.Plan plan;
+
+        Transform(FFT.Plan plan) {
+            this.plan = plan;
+        }
+
+        @Override
+        public int size() {
+            return plan.size();
+        }
+
+        @Override
+        public int numBins() {
+            return plan.numBins();
+        }
+
+        @Override
+        public int transformAbs(double[] signal, double[] spectrum) {
+            return FFT.transformAbsInto(plan, signal, spectrum);
+        }
+
+        // A single JNI crossing instead of one for the transform and one for the fitting
+        @Override
+        public int extractPeakFeatures(
+                double[] signal,
+                double[] spectrum,
+                int[] targetIndices,
+                PeakDetector.Config config,
+                double[] features) {
+            return FFT.transformAbsAndExtractFeatures(
+                    plan, signal, targetIndices, config, features);
+        }
+
+        @Override
+        public void release() {
+            plan.release();
+        }
+    }
+}
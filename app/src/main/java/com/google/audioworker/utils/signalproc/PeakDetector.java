@@ -22,6 +22,20 @@ public class PeakDetector {
             System.arraycopy(feature, 3, y, 0, config.numPoints);
         }
 
+        // An empty feature to be reused with load()
+        public QuadraticFeature(Config config) {
+            coeffs = new double[3];
+            y = new double[config.numPoints];
+        }
+
+        // Loads the feature of the index-th target from the output of extractFeatureInto()
+        public QuadraticFeature load(double[] features, int numTargets, int index) {
+            for (int j = 0; j < 3; j++) coeffs[j] = features[j * numTargets + index];
+            for (int j = 0; j < y.length; j++) y[j] = features[(j + 3) * numTargets + index];
+
+            return this;
+        }
+
         public double dataDensity() {
             double normsq = 0;
             for (double v : y) normsq += (v * v);
@@ -39,12 +53,34 @@ public class PeakDetector {
         }
     }
 
+    // A config owns the target bins and the fits of its numPoints and step, so it is meant to be
+    // built once and reused as long as the targets do not change. The native fit is only looked
+    // up on first use, building a config does not load the native library.
     public static class Config {
         double[] targetFreqs;
+        int[] targetIndices;
         int numPoints;
         int step;
         double fstep;
         double minNormFactor;
+        QuadraticFit javaFit;
+        private volatile long fit;
+
+        // The native fits are shared by numPoints and step, a racing lookup gets the same one
+        long nativeFit() {
+            long f = fit;
+            if (f == 0) fit = f = nativeGetFit(numPoints, step);
+            return f;
+        }
+
+        public int numTargets() {
+            return targetFreqs.length;
+        }
+
+        // The length of the output of extractFeatureInto()
+        public int featureSize() {
+            return (3 + numPoints) * targetFreqs.length;
+        }
 
         public static class Builder {
             ArrayList<Double> targetFreqs;
@@ -105,6 +141,13 @@ public class PeakDetector {
                 config.fstep = fstep;
                 config.minNormFactor = minNormFactor;
 
+                config.targetIndices = new int[config.targetFreqs.length];
+                if (fstep > 0) {
+                    for (int i = 0; i < config.targetIndices.length; i++)
+                        config.targetIndices[i] = (int) Math.round(config.targetFreqs[i] / fstep);
+                }
+                config.javaFit = new QuadraticFit(Math.max(numPoints, 0), step);
+
                 return config;
             }
         }
@@ -115,17 +158,18 @@ public class PeakDetector {
     }
 
     public static ArrayList<double[]> extractFeature(double[] data, Config config) {
-        int ncols = config.targetFreqs.length;
-        int nrows = 3 + config.numPoints;
+        return extractFeature(data, config.targetIndices, config);
+    }
 
-        int[] targetIndices = new int[ncols];
-        for (int i = 0; i < ncols; i++) {
-            targetIndices[i] = (int) Math.round(config.targetFreqs[i] / config.fstep);
-        }
+    // The indices of the targets in data are given directly, e.g. when data only holds the bins
+    // around the targets. The config is used for the fitting parameters only.
+    public static ArrayList<double[]> extractFeature(
+            double[] data, int[] targetIndices, Config config) {
+        int ncols = targetIndices.length;
+        int nrows = 3 + config.numPoints;
 
-        double[] nativeFeatures =
-                PeakDetector.extractQuadFeature(
-                        data, targetIndices, config.minNormFactor, config.numPoints, config.step);
+        double[] nativeFeatures = new double[nrows * ncols];
+        extractFeatureInto(data, targetIndices, config, nativeFeatures);
         ArrayList<double[]> features = new ArrayList<>(ncols);
 
         for (int i = 0; i < ncols; i++) {
@@ -138,8 +182,22 @@ public class PeakDetector {
         return features;
     }
 
+    // Writes the features of all the targets into out, 3 + numPoints rows of one column per
+    // target, without allocating. Returns the number of targets or -1 if out is too short.
+    public static int extractFeatureInto(double[] data, Config config, double[] out) {
+        return extractFeatureInto(data, config.targetIndices, config, out);
+    }
+
+    public static int extractFeatureInto(
+            double[] data, int[] targetIndices, Config config, double[] out) {
+        return nativeExtractQuadFeatureInto(
+                config.nativeFit(), data, targetIndices, config.minNormFactor, out);
+    }
+
     public static native String getVersion();
 
-    private static native double[] extractQuadFeature(
-            double[] data, int[] targetIndices, double minNormFactor, int numPoints, int step);
+    private static native long nativeGetFit(int numPoints, int step);
+
+    private static native int nativeExtractQuadFeatureInto(
+            long fit, double[] data, int[] targetIndices, double minNormFactor, double[] out);
 }
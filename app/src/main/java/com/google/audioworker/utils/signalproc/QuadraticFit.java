@@ -0,0 +1,107 @@
+package com.google.audioworker.utils.signalproc;
+
+// The Java counterpart of the native QuadraticFit and PeakDetector::quadratic_feature_into(), so
+// the Java FFT engine fits its peaks without loading any native library
+class QuadraticFit {
+    private final int numPoints;
+    private final int step;
+    // The least squares fit (A^T A)^-1 A^T of 3 rows, A[j] = [d^2, d, 1] at the offset d of the
+    // j-th point from the target
+    private final double[] weights;
+
+    QuadraticFit(int numPoints, int step) {
+        this.numPoints = numPoints;
+        this.step = step;
+        this.weights = new double[3 * numPoints];
+
+        double[][] a = new double[numPoints][3];
+        for (int j = 0; j < numPoints; j++) {
+            double d = -(numPoints / 2 - j) * step;
+            a[j][0] = d * d;
+            a[j][1] = d;
+            a[j][2] = 1;
+        }
+
+        double[][] m = new double[3][3];
+        for (int r = 0; r < 3; r++)
+            for (int c = 0; c < 3; c++)
+                for (int j = 0; j < numPoints; j++) m[r][c] += a[j][r] * a[j][c];
+
+        // Fewer than 3 distinct points cannot be fitted, all the coefficients are left to zero
+        double[][] inv = invert(m);
+        if (inv == null) return;
+
+        for (int k = 0; k < 3; k++)
+            for (int j = 0; j < numPoints; j++)
+                for (int c = 0; c < 3; c++) weights[k * numPoints + j] += inv[k][c] * a[j][c];
+    }
+
+    private static double[][] invert(double[][] m) {
+        double[][] inv = new double[3][3];
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                // The cofactor of m[c][r], the adjugate being the transposed cofactor matrix
+                int r0 = (c + 1) % 3, r1 = (c + 2) % 3;
+                int c0 = (r + 1) % 3, c1 = (r + 2) % 3;
+                inv[r][c] = m[r0][c0] * m[r1][c1] - m[r0][c1] * m[r1][c0];
+            }
+        }
+
+        double det = m[0][0] * inv[0][0] + m[0][1] * inv[1][0] + m[0][2] * inv[2][0];
+        if (Math.abs(det) < 1e-12) return null;
+
+        for (int r = 0; r < 3; r++) for (int c = 0; c < 3; c++) inv[r][c] /= det;
+        return inv;
+    }
+
+    int numPoints() {
+        return numPoints;
+    }
+
+    // Same as PeakDetector::quadratic_feature_into() on the first size values of data. The
+    // normalized copy and y are scratch space of at least size and numPoints values.
+    int featureInto(
+            double[] data,
+            int size,
+            double minNormFactor,
+            int[] targets,
+            double[] normalized,
+            double[] y,
+            double[] out) {
+        int numTargets = targets.length;
+        if (out.length < (3 + numPoints) * numTargets) return -1;
+
+        double normFactor = minNormFactor;
+        for (int i = 0; i < size; i++) normFactor = Math.max(normFactor, data[i]);
+        for (int i = 0; i < size; i++) normalized[i] = data[i] / normFactor;
+
+        // The local normalization of a target is seen by the following targets, as natively
+        for (int i = 0; i < numTargets; i++) {
+            int from = targets[i] - numPoints / 2;
+            double localFactor = 0;
+            for (int j = Math.max(from, 0); j < Math.min(from + numPoints, size); j++)
+                localFactor = Math.max(localFactor, normalized[j]);
+
+            if (localFactor < normFactor / 10.0) continue;
+
+            for (int j = Math.max(from, 0); j < Math.min(from + numPoints, size); j++)
+                normalized[j] /= localFactor;
+        }
+
+        for (int i = 0; i < numTargets; i++) {
+            for (int j = 0; j < numPoints; j++) {
+                int idx = targets[i] - (numPoints / 2 - j) * step;
+                y[j] = (idx >= 0 && idx < size) ? normalized[idx] : 0;
+                out[(j + 3) * numTargets + i] = y[j];
+            }
+
+            for (int k = 0; k < 3; k++) {
+                double sum = 0;
+                for (int j = 0; j < numPoints; j++) sum += weights[k * numPoints + j] * y[j];
+                out[k * numTargets + i] = sum;
+            }
+        }
+
+        return numTargets;
+    }
+}
@@ -6,9 +6,17 @@ import com.google.audioworker.utils.Constants;
 
 import java.util.Arrays;
 
+// Renders sinusoids with a complex phasor rotated once per sample instead of a cos() call per
+// sample. The phasor is renormalized periodically so that rounding errors never build up in the
+// amplitude, and the model points are searched once per block, so rendering allocates nothing.
 public class SinusoidalGenerator {
     private static final String TAG = Constants.packageTag("SinusoidalGenerator");
-    private double phaseOffset;
+    private static final int RENORMALIZE_INTERVAL = 1024;
+
+    // e^(j*phase), the phase of the next sample
+    private double phasorRe;
+    private double phasorIm;
+    private int sinceRenormalized;
 
     public static class ModelInfo {
         public double analogMagnitude;
@@ -32,72 +40,142 @@ public class SinusoidalGenerator {
     }
 
     public SinusoidalGenerator(double initPhase) {
-        phaseOffset = initPhase;
+        phasorRe = Math.cos(initPhase);
+        phasorIm = Math.sin(initPhase);
+    }
+
+    // The phase of the next sample in radians, in (-pi, pi]
+    public double getPhase() {
+        return Math.atan2(phasorIm, phasorRe);
     }
 
     public void render(double[] dest, SparseArray<ModelInfo> signalInfo, double samplingFreq) {
         render(dest, signalInfo, samplingFreq, ModelInfo.INTERP_LINEAR);
     }
 
+    // The model points are keyed by sample index. Before the first point the output is silent,
+    // after the last one its tone is held, and in between the magnitude and frequency are held or
+    // interpolated linearly.
     public void render(
             double[] dest, SparseArray<ModelInfo> signalInfo, double samplingFreq, int interp) {
-        if (signalInfo.size() == 0) {
+        int numPoints = signalInfo.size();
+        if (numPoints == 0) {
             Arrays.fill(dest, 0);
             return;
         }
 
-        for (int i = 0; i < dest.length; i++) {
-            ModelInfo info = interpInfo(signalInfo, i, interp);
-            dest[i] = info.analogMagnitude * Math.cos(phaseOffset);
-            phaseOffset += (2 * Math.PI * info.analogFrequency) / samplingFreq;
+        int j = floorIndex(signalInfo, 0);
+        int i = 0;
+        while (i < dest.length) {
+            if (j < 0) {
+                int end = Math.min(dest.length, signalInfo.keyAt(0));
+                Arrays.fill(dest, i, end, 0);
+                i = end;
+                j = 0;
+                continue;
+            }
+
+            ModelInfo from = signalInfo.valueAt(j);
+            int fromIdx = signalInfo.keyAt(j);
+            int end = dest.length;
+            if (j + 1 < numPoints) end = Math.min(end, signalInfo.keyAt(j + 1));
+
+            if (interp == ModelInfo.INTERP_LINEAR && j + 1 < numPoints) {
+                ModelInfo to = signalInfo.valueAt(j + 1);
+                int span = signalInfo.keyAt(j + 1) - fromIdx;
+                double magSlope = (to.analogMagnitude - from.analogMagnitude) / span;
+                double freqSlope = (to.analogFrequency - from.analogFrequency) / span;
+                renderSweep(
+                        dest,
+                        i,
+                        end,
+                        from.analogMagnitude + magSlope * (i - fromIdx),
+                        magSlope,
+                        2 * Math.PI * (from.analogFrequency + freqSlope * (i - fromIdx))
+                                / samplingFreq,
+                        2 * Math.PI * freqSlope / samplingFreq);
+            } else {
+                renderSweep(
+                        dest,
+                        i,
+                        end,
+                        from.analogMagnitude,
+                        0,
+                        2 * Math.PI * from.analogFrequency / samplingFreq,
+                        0);
+            }
+
+            i = end;
+            j++;
+        }
+    }
+
+    // A tone of constant magnitude and frequency, the same as a single model point at index 0
+    public void render(double[] dest, double magnitude, double frequency, double samplingFreq) {
+        renderSweep(dest, 0, dest.length, magnitude, 0, 2 * Math.PI * frequency / samplingFreq, 0);
+    }
+
+    // Renders dest[start, end) with the magnitude and the phase increment (in radians per sample)
+    // both changing linearly. The increment is a second phasor rotated by e^(j*omegaSlope).
+    private void renderSweep(
+            double[] dest,
+            int start,
+            int end,
+            double mag,
+            double magSlope,
+            double omega,
+            double omegaSlope) {
+        double re = phasorRe;
+        double im = phasorIm;
+        double stepRe = Math.cos(omega);
+        double stepIm = Math.sin(omega);
+        double slopeRe = Math.cos(omegaSlope);
+        double slopeIm = Math.sin(omegaSlope);
+        boolean sweeping = omegaSlope != 0;
+
+        for (int k = start; k < end; k++) {
+            dest[k] = (mag + magSlope * (k - start)) * re;
+
+            double t = re * stepRe - im * stepIm;
+            im = re * stepIm + im * stepRe;
+            re = t;
+
+            if (sweeping) {
+                t = stepRe * slopeRe - stepIm * slopeIm;
+                stepIm = stepRe * slopeIm + stepIm * slopeRe;
+                stepRe = t;
+            }
+
+            if (++sinceRenormalized >= RENORMALIZE_INTERVAL) {
+                sinceRenormalized = 0;
+                // One Newton step towards |z| = 1, enough for the tiny drift of an interval
+                double g = (3 - (re * re + im * im)) * 0.5;
+                re *= g;
+                im *= g;
+                g = (3 - (stepRe * stepRe + stepIm * stepIm)) * 0.5;
+                stepRe *= g;
+                stepIm *= g;
+            }
         }
+
+        phasorRe = re;
+        phasorIm = im;
     }
 
-    private ModelInfo interpInfo(SparseArray<ModelInfo> signalInfo, int idx, int interp) {
-        switch (interp) {
-            case ModelInfo.INTERP_LINEAR:
-                {
-                    int from = idx;
-                    for (int j = signalInfo.size() - 1; j >= 0; j--) {
-                        if (idx == signalInfo.keyAt(j)) return signalInfo.get(idx);
-                        if (idx > signalInfo.keyAt(j)) {
-                            from = signalInfo.keyAt(j);
-                            break;
-                        }
-                    }
-                    int to = from;
-                    for (int j = signalInfo.indexOfKey(from); j < signalInfo.size(); j++) {
-                        if (idx == signalInfo.keyAt(j)) return signalInfo.get(idx);
-                        if (idx < signalInfo.keyAt(j)) {
-                            to = signalInfo.keyAt(j);
-                            break;
-                        }
-                    }
-                    if (from == to) {
-                        return signalInfo.get(from);
-                    }
-                    ModelInfo info1 = signalInfo.get(from);
-                    ModelInfo info2 = signalInfo.get(to);
-                    ModelInfo info = new ModelInfo();
-                    double weight = (double) (idx - from) / (to - from);
-                    info.analogFrequency =
-                            info1.analogFrequency
-                                    + (info2.analogFrequency - info1.analogFrequency) * weight;
-                    info.analogMagnitude =
-                            info1.analogMagnitude
-                                    + (info2.analogMagnitude - info1.analogMagnitude) * weight;
-
-                    return info;
-                }
-            case ModelInfo.INTERP_STEP:
-            default:
-                {
-                    ModelInfo info = new ModelInfo();
-                    for (int i = signalInfo.size() - 1; i >= 0; i--) {
-                        if (idx >= signalInfo.keyAt(i)) return signalInfo.get(signalInfo.keyAt(i));
-                    }
-                    return info;
-                }
+    // Returns the position of the last point at or before idx, or -1 if there is none
+    private static int floorIndex(SparseArray<ModelInfo> signalInfo, int idx) {
+        int lo = 0;
+        int hi = signalInfo.size() - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (signalInfo.keyAt(mid) <= idx) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
         }
+        return found;
     }
 }
@@ -0,0 +1,181 @@
+package com.google.audioworker.utils.signalproc;
+
+import com.google.audioworker.utils.Constants;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Steady tones are periodic, so a block of PCM holding a whole number of periods of every channel
+// can be rendered once and then played back by slicing. The blocks are shared by all playbacks of
+// the same tones and format, and the least recently used ones are evicted.
+public class ToneCache {
+    // The frequencies are matched as multiples of 1, 0.1, 0.01 or 0.001 Hz
+    private static final int[] FREQ_SCALES = {1, 10, 100, 1000};
+    private static final double FREQ_TOLERANCE = 1e-6;
+
+    private static final LinkedHashMap<String, Block> sBlocks =
+            new LinkedHashMap<String, Block>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Block> eldest) {
+                    return size() > Constants.Controllers.Config.Playback.TONE_CACHE_MAX_ENTRIES;
+                }
+            };
+
+    // Interleaved PCM in the form AudioTrack.write() takes for the bit width: shorts for 16 bits,
+    // bytes for 8 bits and little endian bytes for 32 bits. Every channel starts at phase 0.
+    public static class Block {
+        public final int numFrames;
+        public final int numChannels;
+        public final int bitWidth;
+        public final byte[] bytes;
+        public final short[] shorts;
+        private final int samplingFreq;
+        private final double[] freqs;
+        private final float[] amps;
+
+        Block(int samplingFreq, double[] freqs, float[] amps, int numFrames, int bitWidth) {
+            this.numFrames = numFrames;
+            this.numChannels = freqs.length;
+            this.bitWidth = bitWidth;
+            this.samplingFreq = samplingFreq;
+            this.freqs = freqs.clone();
+            this.amps = amps.clone();
+            int numSamples = numFrames * numChannels;
+            this.bytes = bitWidth == 16 ? null : new byte[numSamples * bitWidth / 8];
+            this.shorts = bitWidth == 16 ? new short[numSamples] : null;
+        }
+
+        public int frameSize() {
+            return numChannels * bitWidth / 8;
+        }
+
+        // Writes the phase of every channel at the frame into phases, in radians
+        public void phasesAt(int frame, double[] phases) {
+            for (int c = 0; c < numChannels; c++) phases[c] = phaseAt(c, frame);
+        }
+
+        // Returns the first frame at which every audible channel is within tolerance of the
+        // phases, to carry on a tone from there without a jump, or -1 if there is none
+        public int offsetOf(double[] phases, double tolerance) {
+            for (int frame = 0; frame < numFrames; frame++) {
+                boolean matched = true;
+                for (int c = 0; c < numChannels && matched; c++) {
+                    if (amps[c] == 0) continue;
+
+                    double diff = phases[c] - phaseAt(c, frame);
+                    diff -= 2 * Math.PI * Math.rint(diff / (2 * Math.PI));
+                    matched = Math.abs(diff) <= tolerance;
+                }
+                if (matched) return frame;
+            }
+            return -1;
+        }
+
+        private double phaseAt(int c, int frame) {
+            // The cycles are reduced to their fraction before the angle to keep it accurate
+            double cycles = freqs[c] * frame / samplingFreq;
+            return 2 * Math.PI * (cycles - Math.floor(cycles));
+        }
+    }
+
+    // Returns the block of the tones, one frequency and amplitude per channel, or null if the
+    // periods of the channels have no common multiple short enough to be cached
+    public static Block get(int samplingFreq, int bitWidth, double[] freqs, float[] amps) {
+        String key =
+                samplingFreq
+                        + "/"
+                        + bitWidth
+                        + "/"
+                        + Arrays.toString(freqs)
+                        + "/"
+                        + Arrays.toString(amps);
+        synchronized (sBlocks) {
+            Block block = sBlocks.get(key);
+            if (block != null) return block;
+        }
+
+        long maxFrames =
+                (long) samplingFreq * Constants.Controllers.Config.Playback.TONE_CACHE_MAX_SECONDS;
+        long period = 1;
+        for (int c = 0; c < freqs.length; c++) {
+            long p = amps[c] == 0 ? 1 : periodFrames(samplingFreq, freqs[c]);
+            if (p <= 0) return null;
+            period = period / gcd(period, p) * p;
+            if (period > maxFrames) return null;
+        }
+
+        // Whole periods, enough of them for the writes not to be cut into tiny slices
+        long minFrames =
+                (long) samplingFreq
+                        * Constants.Controllers.Config.Playback.TONE_CACHE_MIN_BLOCK_MILLIS
+                        / 1000;
+        long numFrames = Math.max((minFrames + period - 1) / period, 1) * period;
+        if (numFrames > maxFrames) numFrames = period;
+
+        Block block = render(samplingFreq, bitWidth, freqs, amps, (int) numFrames);
+        synchronized (sBlocks) {
+            sBlocks.put(key, block);
+        }
+        return block;
+    }
+
+    // The number of frames after which the tone repeats exactly, or 0 if it is not a rational
+    // multiple of the sampling frequency with a small denominator
+    private static long periodFrames(int samplingFreq, double freq) {
+        freq = Math.abs(freq);
+        for (int scale : FREQ_SCALES) {
+            double scaled = freq * scale;
+            long cycles = Math.round(scaled);
+            if (Math.abs(scaled - cycles) > FREQ_TOLERANCE) continue;
+            if (cycles == 0) return 1;
+
+            long frames = (long) samplingFreq * scale;
+            return frames / gcd(frames, cycles);
+        }
+        return 0;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static Block render(
+            int samplingFreq, int bitWidth, double[] freqs, float[] amps, int numFrames) {
+        int numChannels = freqs.length;
+        Block block = new Block(samplingFreq, freqs, amps, numFrames, bitWidth);
+        int[] intBuffer = bitWidth == 32 ? new int[numFrames * numChannels] : null;
+
+        double[] signal = new double[numFrames];
+        for (int c = 0; c < numChannels; c++) {
+            new SinusoidalGenerator().render(signal, amps[c], freqs[c], samplingFreq);
+
+            // The same conversion as the sample by sample playback
+            switch (bitWidth) {
+                case 8:
+                    for (int i = 0; i < numFrames; i++)
+                        block.bytes[i * numChannels + c] = (byte) (signal[i] * 127);
+                    break;
+                case 16:
+                    for (int i = 0; i < numFrames; i++)
+                        block.shorts[i * numChannels + c] = (short) (signal[i] * 32767);
+                    break;
+                case 32:
+                    for (int i = 0; i < numFrames; i++)
+                        intBuffer[i * numChannels + c] = (int) (signal[i] * Integer.MAX_VALUE);
+                    break;
+            }
+        }
+
+        if (intBuffer != null)
+            ByteBuffer.wrap(block.bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(intBuffer);
+        return block;
+    }
+}
@@ -0,0 +1,135 @@
+package com.google.audioworker.utils.signalproc;
+
+import com.google.audioworker.utils.Constants;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Writes a WAV file of steady tones. The file is cut into chunks which are rendered in parallel on
+// the common fork-join pool, every chunk starting its channels at the phase they reach there, and
+// a single WavWriter appends the chunks in order. Only a few chunks are in flight at a time and
+// their buffers are reused, so the memory use does not grow with the duration.
+public class ToneFileGenerator {
+    private final int samplingFreq;
+    private final int bitWidth;
+    private final int bytesPerSample;
+    private final double[] freqs;
+    private final float[] amps;
+    private final int chunkFrames;
+    private final ConcurrentLinkedQueue<Chunk> freeChunks = new ConcurrentLinkedQueue<>();
+
+    private static class Chunk {
+        final ByteBuffer data;
+        final double[] signal;
+
+        Chunk(int numBytes, int numFrames) {
+            data = ByteBuffer.allocate(numBytes).order(ByteOrder.LITTLE_ENDIAN);
+            signal = new double[numFrames];
+        }
+    }
+
+    // One frequency and amplitude per channel
+    public ToneFileGenerator(int samplingFreq, int bitWidth, double[] freqs, float[] amps) {
+        this.samplingFreq = samplingFreq;
+        this.bitWidth = bitWidth;
+        this.bytesPerSample = bitWidth == 8 ? 1 : bitWidth == 32 ? 4 : 2;
+        this.freqs = freqs;
+        this.amps = amps;
+        this.chunkFrames =
+                Math.max(
+                        samplingFreq
+                                * Constants.Controllers.Config.Playback.TONE_FILE_CHUNK_MILLIS
+                                / 1000,
+                        1);
+    }
+
+    public void generate(String path, int durationMillis) throws IOException {
+        final long numFrames = (long) samplingFreq * durationMillis / 1000;
+        int numChunks = (int) ((numFrames + chunkFrames - 1) / chunkFrames);
+        int maxInFlight =
+                Math.max(ForkJoinPool.getCommonPoolParallelism(), 1)
+                        * Constants.Controllers.Config.Playback.TONE_FILE_CHUNKS_PER_WORKER;
+
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        try (WavWriter writer = new WavWriter(path, samplingFreq, freqs.length, bitWidth)) {
+            int submitted = 0;
+            for (int written = 0; written < numChunks; written++) {
+                while (submitted < numChunks && pending.size() < maxInFlight) {
+                    final long start = (long) submitted * chunkFrames;
+                    final int frames = (int) Math.min(chunkFrames, numFrames - start);
+                    pending.add(
+                            ForkJoinPool.commonPool()
+                                    .submit(
+                                            new Callable<Chunk>() {
+                                                @Override
+                                                public Chunk call() {
+                                                    return render(start, frames);
+                                                }
+                                            }));
+                    submitted++;
+                }
+
+                Chunk chunk = pending.poll().get();
+                writer.write(chunk.data);
+                freeChunks.add(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("tone generation interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("failed to render the tones", e.getCause());
+        } finally {
+            for (Future<Chunk> f : pending) f.cancel(false);
+        }
+    }
+
+    private Chunk render(long start, int frames) {
+        int numChannels = freqs.length;
+        Chunk chunk = freeChunks.poll();
+        if (chunk == null)
+            chunk = new Chunk(chunkFrames * numChannels * bytesPerSample, chunkFrames);
+        chunk.data.clear();
+        chunk.data.limit(frames * numChannels * bytesPerSample);
+
+        // Half of the positive full scale, which the tone files have always been written with
+        double scale = (double) (1L << (bytesPerSample * 8 - 2));
+        for (int c = 0; c < numChannels; c++) {
+            // Only the fractional cycles matter, computed before the multiplication by 2*pi
+            double cycles = freqs[c] * start / samplingFreq;
+            double phase = 2 * Math.PI * (cycles - Math.floor(cycles));
+            new SinusoidalGenerator(phase).render(chunk.signal, amps[c], freqs[c], samplingFreq);
+
+            int stride = numChannels * bytesPerSample;
+            int offset = c * bytesPerSample;
+            switch (bytesPerSample) {
+                case 1:
+                    // 8-bit WAV data is unsigned, as written by WavWriter.write(float[])
+                    for (int i = 0; i < frames; i++) {
+                        int value = (int) (scale * chunk.signal[i]) + 128;
+                        chunk.data.put(i * stride + offset, (byte) value);
+                    }
+                    break;
+                case 4:
+                    for (int i = 0; i < frames; i++)
+                        chunk.data.putInt(i * stride + offset, (int) (scale * chunk.signal[i]));
+                    break;
+                default:
+                    for (int i = 0; i < frames; i++) {
+                        short value = (short) (scale * chunk.signal[i]);
+                        chunk.data.putShort(i * stride + offset, value);
+                    }
+                    break;
+            }
+        }
+
+        return chunk;
+    }
+}
@@ -2,6 +2,7 @@ package com.google.audioworker.utils.signalproc;
 
 import com.google.audioworker.utils.Constants;
 
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -21,6 +22,18 @@ public class WavUtils {
             dataLength = length;
         }
 
+        public int getSamplingRate() {
+            return samplingRate;
+        }
+
+        public int getNumChannels() {
+            return numChannels;
+        }
+
+        public int getBitPerSample() {
+            return bitPerSample;
+        }
+
         public static class Builder {
             private int samplingRate = Constants.PlaybackDefaultConfig.SAMPLING_FREQ;
             private int numChannels = Constants.PlaybackDefaultConfig.NUM_CHANNELS;
@@ -60,95 +73,29 @@ public class WavUtils {
         }
     }
 
+    // Prefer WavWriter, which does not need the data length up front
     public static DataOutputStream obtainWavFile(WavConfig config, final String filePath)
             throws IOException {
-        File waveFile = new File(filePath);
-
-        DataOutputStream output = new DataOutputStream(new FileOutputStream(waveFile));
-        // WAVE header
-        // see http://ccrma.stanford.edu/courses/422/projects/WaveFormat/
-        writeString(output, "RIFF"); // chunk id
-        writeInt(output, 36 + config.dataLength); // chunk size
-        writeString(output, "WAVE"); // format
-        writeString(output, "fmt "); // subchunk 1 id
-        writeInt(output, 16); // subchunk 1 size
-        writeShort(output, (short) 1); // audio format (1 = PCM)
-        writeShort(output, (short) config.numChannels); // number of channels
-        writeInt(output, config.samplingRate); // sample rate
-        writeInt(
-                output,
-                config.samplingRate
-                        * (config.bitPerSample / 8)
-                        // byte rate: SampleRate * NumChannels * BitsPerSample/8
-                        * config.numChannels);
-        writeShort(
-                output,
-                (short)
-                        ((config.bitPerSample / 8)
-                                // block align: NumChannels * BitsPerSample/8
-                                * config.numChannels));
-        writeShort(output, (short) config.bitPerSample); // bits per sample
-        writeString(output, "data"); // subchunk 2 id
-        writeInt(output, config.dataLength); // subchunk 2 size
+        DataOutputStream output =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)));
+        output.write(
+                WavWriter.createHeader(
+                                config.samplingRate,
+                                config.numChannels,
+                                config.bitPerSample,
+                                config.dataLength,
+                                false)
+                        .array());
 
         return output;
     }
 
     public static File rawToWave(byte[] rawData, WavConfig config, final String filePath)
             throws IOException {
-
-        File waveFile = new File(filePath);
-
-        DataOutputStream output = new DataOutputStream(new FileOutputStream(waveFile));
-        // WAVE header
-        // see http://ccrma.stanford.edu/courses/422/projects/WaveFormat/
-        writeString(output, "RIFF"); // chunk id
-        writeInt(output, 36 + rawData.length); // chunk size
-        writeString(output, "WAVE"); // format
-        writeString(output, "fmt "); // subchunk 1 id
-        writeInt(output, 16); // subchunk 1 size
-        writeShort(output, (short) 1); // audio format (1 = PCM)
-        writeShort(output, (short) config.numChannels); // number of channels
-        writeInt(output, config.samplingRate); // sample rate
-        writeInt(
-                output,
-                config.samplingRate
-                        * (config.bitPerSample / 8)
-                        // byte rate: SampleRate * NumChannels * BitsPerSample/8
-                        * config.numChannels);
-        writeShort(
-                output,
-                (short)
-                        ((config.bitPerSample / 8)
-                                // block align: NumChannels * BitsPerSample/8
-                                * config.numChannels));
-        writeShort(output, (short) config.bitPerSample); // bits per sample
-        writeString(output, "data"); // subchunk 2 id
-        writeInt(output, rawData.length); // subchunk 2 size
-        output.write(rawData);
-        output.close();
-
-        return waveFile;
-    }
-
-    private static void writeInt(final DataOutputStream output, final int value)
-            throws IOException {
-        for (int i = 0; i < 4; i++) {
-            output.write((value >> (8 * i)) & 0xFF);
-        }
-    }
-
-    private static void writeShort(final DataOutputStream output, final short value)
-            throws IOException {
-        for (int i = 0; i < 2; i++) {
-            output.write((value >> (8 * i)) & 0xFF);
+        try (WavWriter writer = new WavWriter(filePath, config)) {
+            writer.write(rawData, 0, rawData.length);
         }
-    }
 
-    private static void writeString(final DataOutputStream output, final String value)
-            throws IOException {
-        for (int i = 0; i < value.length(); i++) {
-            output.write(value.charAt(i));
-        }
+        return new File(filePath);
     }
 }
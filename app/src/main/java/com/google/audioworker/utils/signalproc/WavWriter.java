@@ -0,0 +1,251 @@
+package com.google.audioworker.utils.signalproc;
+
+import android.util.Log;
+
+import com.google.audioworker.utils.Constants;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+// Writes a PCM WAV file through a FileChannel and a reusable direct buffer. The data length does not
+// have to be known up front: the RIFF and data sizes are patched on close(). A writer opened with
+// RF64 support reserves a JUNK chunk after the format which becomes the ds64 chunk if the data grows
+// beyond what the 32-bit sizes can hold. Not thread-safe.
+public class WavWriter implements Closeable {
+    private static final String TAG = Constants.packageTag("WavWriter");
+
+    private static final int HEADER_SIZE = 44;
+    private static final int JUNK_CHUNK_SIZE = 36;
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+
+    private final FileOutputStream mOutput;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final int mSamplingRate;
+    private final int mNumChannels;
+    private final int mBitPerSample;
+    private final boolean mRf64;
+    private final int mHeaderSize;
+    private long mDataLength;
+    private boolean mClosed;
+
+    public WavWriter(String path, int samplingRate, int numChannels, int bitPerSample)
+            throws IOException {
+        this(path, samplingRate, numChannels, bitPerSample, false);
+    }
+
+    public WavWriter(
+            String path, int samplingRate, int numChannels, int bitPerSample, boolean allowRf64)
+            throws IOException {
+        mSamplingRate = samplingRate;
+        mNumChannels = numChannels;
+        mBitPerSample = bitPerSample;
+        mRf64 = allowRf64;
+        mHeaderSize = HEADER_SIZE + (allowRf64 ? JUNK_CHUNK_SIZE : 0);
+        mBuffer =
+                ByteBuffer.allocateDirect(Constants.SignalProcessing.Wav.WRITE_BUFFER_BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+
+        mOutput = new FileOutputStream(path);
+        mChannel = mOutput.getChannel();
+        try {
+            writeFully(createHeader(samplingRate, numChannels, bitPerSample, 0, allowRf64), 0);
+        } catch (IOException e) {
+            mOutput.close();
+            throw e;
+        }
+    }
+
+    public WavWriter(String path, WavUtils.WavConfig config) throws IOException {
+        this(path, config.getSamplingRate(), config.getNumChannels(), config.getBitPerSample());
+    }
+
+    // The header of the data length with the 32-bit sizes of a RIFF file. With the RF64
+    // reservation the format is followed by a JUNK chunk which keeps the header 80 bytes long.
+    public static ByteBuffer createHeader(
+            int samplingRate,
+            int numChannels,
+            int bitPerSample,
+            long dataLength,
+            boolean reserveRf64) {
+        int junkSize = reserveRf64 ? JUNK_CHUNK_SIZE : 0;
+        long riffSize = Math.min(HEADER_SIZE - 8 + junkSize + dataLength, MAX_RIFF_SIZE);
+        ByteBuffer header =
+                ByteBuffer.allocate(HEADER_SIZE + junkSize).order(ByteOrder.LITTLE_ENDIAN);
+        // see http://ccrma.stanford.edu/courses/422/projects/WaveFormat/
+        putString(header, "RIFF"); // chunk id
+        header.putInt((int) riffSize); // chunk size
+        putString(header, "WAVE"); // format
+        if (reserveRf64) {
+            putString(header, "JUNK"); // the room of the ds64 chunk
+            header.putInt(JUNK_CHUNK_SIZE - 8);
+            header.position(header.position() + JUNK_CHUNK_SIZE - 8);
+        }
+        putString(header, "fmt "); // subchunk 1 id
+        header.putInt(16); // subchunk 1 size
+        header.putShort((short) 1); // audio format (1 = PCM)
+        header.putShort((short) numChannels); // number of channels
+        header.putInt(samplingRate); // sample rate
+        // byte rate: SampleRate * NumChannels * BitsPerSample/8
+        header.putInt(samplingRate * (bitPerSample / 8) * numChannels);
+        // block align: NumChannels * BitsPerSample/8
+        header.putShort((short) ((bitPerSample / 8) * numChannels));
+        header.putShort((short) bitPerSample); // bits per sample
+        putString(header, "data"); // subchunk 2 id
+        header.putInt((int) Math.min(dataLength, MAX_RIFF_SIZE)); // subchunk 2 size
+
+        header.flip();
+        return header;
+    }
+
+    public long getDataLength() {
+        return mDataLength + mBuffer.position();
+    }
+
+    // Little endian PCM bytes as they are stored in the file
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!mBuffer.hasRemaining()) flush();
+
+            int n = Math.min(length, mBuffer.remaining());
+            mBuffer.put(data, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // The remaining bytes of the buffer, written as they are
+    public void write(ByteBuffer data) throws IOException {
+        flush();
+        int length = data.remaining();
+        writeFully(data, mHeaderSize + mDataLength);
+        mDataLength += length;
+    }
+
+    // Samples of a 16-bit file
+    public void write(short[] samples, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            if (mBuffer.remaining() < 2) flush();
+            mBuffer.putShort(samples[i]);
+        }
+    }
+
+    // Samples of a 32-bit file
+    public void write(int[] samples, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            if (mBuffer.remaining() < 4) flush();
+            mBuffer.putInt(samples[i]);
+        }
+    }
+
+    // Samples in [-1, 1], clipped and converted to the bit width of the file
+    public void write(float[] samples, int offset, int length) throws IOException {
+        int bytesPerSample = mBitPerSample / 8;
+        double scale = bytesPerSample == 4 ? Integer.MAX_VALUE : (1 << (mBitPerSample - 1)) - 1;
+        for (int i = offset; i < offset + length; i++) {
+            if (mBuffer.remaining() < bytesPerSample) flush();
+
+            double value = Math.max(-1, Math.min(1, samples[i])) * scale;
+            switch (bytesPerSample) {
+                case 1:
+                    // 8-bit WAV data is unsigned
+                    mBuffer.put((byte) (Math.round(value) + 128));
+                    break;
+                case 2:
+                    mBuffer.putShort((short) Math.round(value));
+                    break;
+                case 3:
+                    int v = (int) Math.round(value);
+                    mBuffer.put((byte) v).put((byte) (v >> 8)).put((byte) (v >> 16));
+                    break;
+                default:
+                    mBuffer.putInt((int) Math.round(value));
+                    break;
+            }
+        }
+    }
+
+    public void flush() throws IOException {
+        if (mBuffer.position() == 0) return;
+
+        mBuffer.flip();
+        int length = mBuffer.remaining();
+        writeFully(mBuffer, mHeaderSize + mDataLength);
+        mBuffer.clear();
+        mDataLength += length;
+    }
+
+    // Flushes the data, patches the sizes in the header and forces both to the storage, so the
+    // file is complete up to here even if it is never closed
+    public void sync() throws IOException {
+        flush();
+        writeHeader();
+        mChannel.force(false);
+    }
+
+    // Flushes the data and patches the sizes in the header
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+
+        mClosed = true;
+        try {
+            flush();
+            writeHeader();
+        } finally {
+            mOutput.close();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        writeFully(
+                createPatchedHeader(mSamplingRate, mNumChannels, mBitPerSample, mDataLength, mRf64),
+                0);
+    }
+
+    // The header written over the reserved one once the data length is known
+    static ByteBuffer createPatchedHeader(
+            int samplingRate,
+            int numChannels,
+            int bitPerSample,
+            long dataLength,
+            boolean allowRf64) {
+        int headerSize = HEADER_SIZE + (allowRf64 ? JUNK_CHUNK_SIZE : 0);
+        if (headerSize - 8 + dataLength <= MAX_RIFF_SIZE)
+            return createHeader(samplingRate, numChannels, bitPerSample, dataLength, allowRf64);
+        if (!allowRf64) {
+            Log.w(TAG, "the data outgrows the WAV sizes: " + dataLength + " bytes");
+            return createHeader(samplingRate, numChannels, bitPerSample, dataLength, false);
+        }
+
+        // The reserved JUNK chunk becomes the ds64 chunk holding the 64-bit sizes, and the 32-bit
+        // sizes are set to 0xFFFFFFFF as RF64 readers expect
+        ByteBuffer header =
+                createHeader(samplingRate, numChannels, bitPerSample, MAX_RIFF_SIZE, true);
+        putString(header, 0, "RF64");
+        header.putInt(4, (int) MAX_RIFF_SIZE);
+        putString(header, 12, "ds64");
+        header.putLong(20, headerSize - 8 + dataLength); // RIFF size
+        header.putLong(28, dataLength); // data size
+        header.putLong(36, dataLength / ((bitPerSample / 8) * numChannels)); // sample count
+        header.putInt(44, 0); // table length
+        return header;
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) position += mChannel.write(data, position);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        buffer.put(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void putString(ByteBuffer buffer, int index, String value) {
+        for (int i = 0; i < value.length(); i++) buffer.put(index + i, (byte) value.charAt(i));
+    }
+}
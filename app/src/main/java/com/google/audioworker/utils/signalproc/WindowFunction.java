@@ -0,0 +1,61 @@
+package com.google.audioworker.utils.signalproc;
+
+import java.util.HashMap;
+
+public class WindowFunction {
+    public static final String RECTANGULAR = "rect";
+    public static final String HANN = "hann";
+    public static final String HAMMING = "hamming";
+    public static final String BLACKMAN = "blackman";
+
+    private static final int MAX_CACHED_TABLES = 16;
+    private static final HashMap<String, double[]> sTables = new HashMap<>();
+
+    public static boolean isValidName(String name) {
+        return RECTANGULAR.equals(name)
+                || HANN.equals(name)
+                || HAMMING.equals(name)
+                || BLACKMAN.equals(name);
+    }
+
+    // Returns the shared periodic table of n points, scaled to a mean of 1 so that the peak of a
+    // windowed tone keeps the magnitude it has without a window. The rectangular window has no
+    // table and null is returned.
+    public static synchronized double[] get(String name, int n) {
+        if (!isValidName(name) || RECTANGULAR.equals(name) || n <= 0) return null;
+
+        String key = name + "/" + n;
+        double[] table = sTables.get(key);
+        if (table != null) return table;
+
+        table = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double phase = 2 * Math.PI * i / n;
+            switch (name) {
+                case HANN:
+                    table[i] = 0.5 - 0.5 * Math.cos(phase);
+                    break;
+                case HAMMING:
+                    table[i] = 0.54 - 0.46 * Math.cos(phase);
+                    break;
+                case BLACKMAN:
+                    table[i] = 0.42 - 0.5 * Math.cos(phase) + 0.08 * Math.cos(2 * phase);
+                    break;
+            }
+            sum += table[i];
+        }
+        for (int i = 0; i < n; i++) table[i] *= n / sum;
+
+        if (sTables.size() >= MAX_CACHED_TABLES) sTables.clear();
+        sTables.put(key, table);
+        return table;
+    }
+
+    // Multiplies the signal by the table in place, a null table leaves the signal untouched
+    public static void apply(double[] table, double[] signal) {
+        if (table == null) return;
+
+        for (int i = 0; i < Math.min(table.length, signal.length); i++) signal[i] *= table[i];
+    }
+}
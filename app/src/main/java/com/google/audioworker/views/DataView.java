@@ -9,6 +9,7 @@ import android.util.AttributeSet;
 import android.view.View;
 
 import com.google.audioworker.utils.Constants;
+import com.google.audioworker.utils.ds.AudioFrame;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -23,8 +24,7 @@ public class DataView extends View {
     private int mGridSlotsY;
 
     private final ArrayList<Paint> mDataPaints = new ArrayList<>();
-    private final ArrayList<ArrayList<Double>> mDataBuffer = new ArrayList<>(0);
-    ;
+    private final ArrayList<double[]> mDataBuffer = new ArrayList<>(0);
 
     public DataView(Context context) {
         super(context);
@@ -102,7 +102,9 @@ public class DataView extends View {
         synchronized (mDataBuffer) {
             mDataBuffer.clear();
             for (Collection<? extends Double> each : data) {
-                ArrayList<Double> array = new ArrayList<>(each);
+                double[] array = new double[each.size()];
+                int i = 0;
+                for (Double v : each) array[i++] = v;
                 mDataBuffer.add(array);
             }
         }
@@ -110,6 +112,24 @@ public class DataView extends View {
         this.postInvalidate();
     }
 
+    public void plot(AudioFrame frame) {
+        synchronized (mDataBuffer) {
+            while (mDataBuffer.size() > frame.getNumChannels())
+                mDataBuffer.remove(mDataBuffer.size() - 1);
+            for (int c = 0; c < frame.getNumChannels(); c++) {
+                double[] array = c < mDataBuffer.size() ? mDataBuffer.get(c) : null;
+                if (array == null || array.length != frame.getNumFrames()) {
+                    array = new double[frame.getNumFrames()];
+                    if (c < mDataBuffer.size()) mDataBuffer.set(c, array);
+                    else mDataBuffer.add(array);
+                }
+                System.arraycopy(frame.getChannel(c), 0, array, 0, array.length);
+            }
+        }
+
+        this.postInvalidate();
+    }
+
     private float convertToViewPosition(double dataY, int height) {
         return height / 2.0f * (1 - (float) dataY);
     }
@@ -145,15 +165,15 @@ public class DataView extends View {
                 if (j >= mDataPaints.size()) {
                     continue;
                 }
-                ArrayList<Double> data = mDataBuffer.get(j);
+                double[] data = mDataBuffer.get(j);
                 Paint paint = mDataPaints.get(j);
                 if (data == null || paint == null) continue;
 
-                for (int i = 0; i < data.size() - 1; i++) {
-                    float startX = (float) viewWidth / data.size() * i;
-                    float endX = (float) viewWidth / data.size() * (i + 1);
-                    float startY = this.convertToViewPosition(data.get(i), viewHeight);
-                    float endY = this.convertToViewPosition(data.get(i + 1), viewHeight);
+                for (int i = 0; i < data.length - 1; i++) {
+                    float startX = (float) viewWidth / data.length * i;
+                    float endX = (float) viewWidth / data.length * (i + 1);
+                    float startY = this.convertToViewPosition(data[i], viewHeight);
+                    float endY = this.convertToViewPosition(data[i + 1], viewHeight);
 
                     canvas.drawLine(startX, startY, endX, endY, paint);
                 }
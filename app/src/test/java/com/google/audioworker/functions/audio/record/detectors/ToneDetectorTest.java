@@ -0,0 +1,112 @@
+package com.google.audioworker.functions.audio.record.detectors;
+
+import static org.junit.Assert.*;
+
+import com.google.audioworker.utils.signalproc.FftEngine;
+import com.google.audioworker.utils.signalproc.JavaFftEngine;
+import com.google.audioworker.utils.signalproc.WindowFunction;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+public class ToneDetectorTest {
+    private static final int FS = 48000;
+    // 50 ms frames, bins of 20 Hz
+    private static final int SIZE = 2400;
+
+    private static double[] tones(double[] freqs, double[] amps, String window) {
+        double[] signal = new double[SIZE];
+        for (int k = 0; k < freqs.length; k++) {
+            for (int i = 0; i < SIZE; i++)
+                signal[i] += amps[k] * Math.cos(2 * Math.PI * freqs[k] * i / FS + k);
+        }
+        WindowFunction.apply(WindowFunction.get(window, SIZE), signal);
+        return signal;
+    }
+
+    private static ToneDetector.TargetAnalysis analysis(double[] targets) {
+        return new ToneDetector.TargetAnalysis(0, targets, new BitSet(), 1, FS, SIZE);
+    }
+
+    private static boolean[] detected(ToneDetector.TargetAnalysis analysis, int numFeatures) {
+        assertEquals(analysis.targetFreqs.length, numFeatures);
+        boolean[] detected = new boolean[numFeatures];
+        for (int i = 0; i < numFeatures; i++) detected[i] = analysis.isDetected(i, numFeatures);
+        return detected;
+    }
+
+    private static boolean[] detectByGoertzel(double[] targets, double[] signal) {
+        ToneDetector.TargetAnalysis analysis = analysis(targets);
+        analysis.useGoertzel();
+        return detected(analysis, ToneDetector.processBins(signal.clone(), analysis));
+    }
+
+    private static boolean[] detectByFft(double[] targets, double[] signal) {
+        ToneDetector.TargetAnalysis analysis = analysis(targets);
+        FftEngine.Transform transform = new JavaFftEngine().createTransform(SIZE);
+        return detected(
+                analysis,
+                transform.extractPeakFeatures(
+                        signal.clone(),
+                        new double[SIZE / 2],
+                        analysis.spectrumIndices,
+                        analysis.config,
+                        analysis.features));
+    }
+
+    private static void assertDetected(boolean[] expected, double[] targets, double[] signal) {
+        assertArrayEquals(expected, detectByGoertzel(targets, signal));
+        assertArrayEquals(expected, detectByFft(targets, signal));
+    }
+
+    // None of the tones holds a third of the frame energy, the bins alone decide anyway
+    @Test
+    public void processBins_detectsSeveralEqualTones() {
+        double[] targets = {1005, 2010, 3510, 5000};
+        double[] signal =
+                tones(new double[] {1005, 2010, 3510}, new double[] {0.3, 0.3, 0.3}, "rect");
+        assertDetected(new boolean[] {true, true, true, false}, targets, signal);
+    }
+
+    @Test
+    public void processBins_detectsWindowedTones() {
+        double[] targets = {440, 1234, 5000};
+        double[] amps = {0.5, 0.4};
+        for (String window : new String[] {WindowFunction.HANN, WindowFunction.BLACKMAN}) {
+            double[] signal = tones(new double[] {440, 1234}, amps, window);
+            assertDetected(new boolean[] {true, true, false}, targets, signal);
+        }
+    }
+
+    // A target far weaker than a tone elsewhere is not fitted, as in the FFT mode
+    @Test
+    public void processBins_ignoresATargetUnderALouderTone() {
+        double[] targets = {1005};
+        double[] signal = tones(new double[] {1005, 3000}, new double[] {0.01, 0.5}, "rect");
+        assertDetected(new boolean[] {false}, targets, signal);
+
+        signal = tones(new double[] {1005, 3000}, new double[] {0.5, 0.5}, "rect");
+        assertDetected(new boolean[] {true}, targets, signal);
+    }
+
+    // The energy spread over the spectrum keeps the bins of the targets below the floor
+    @Test
+    public void processBins_detectsNothingInNoise() {
+        double[] targets = {1005, 2010, 3510};
+        Random random = new Random(1);
+        for (int run = 0; run < 100; run++) {
+            double[] signal = new double[SIZE];
+            for (int i = 0; i < SIZE; i++) signal[i] = random.nextDouble() * 2 - 1;
+            assertArrayEquals(
+                    new boolean[] {false, false, false}, detectByGoertzel(targets, signal));
+        }
+    }
+
+    @Test
+    public void processBins_detectsNothingInSilence() {
+        double[] targets = {1000, 2000};
+        assertDetected(new boolean[] {false, false}, targets, new double[SIZE]);
+    }
+}
@@ -0,0 +1,86 @@
+package com.google.audioworker.functions.controllers;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class RecordBufferQueueTest {
+    private static final int BUFFER_SIZE = 16;
+
+    @Test
+    public void offer_sharesOneBufferUntilEveryQueueIsDone() throws Exception {
+        ArrayBlockingQueue<RecordController.CaptureBuffer> pool = new ArrayBlockingQueue<>(4);
+        RecordController.RecordBufferQueue first =
+                new RecordController.RecordBufferQueue(2, BUFFER_SIZE);
+        RecordController.RecordBufferQueue second =
+                new RecordController.RecordBufferQueue(2, BUFFER_SIZE);
+
+        RecordController.CaptureBuffer capture =
+                RecordController.CaptureBuffer.obtain(pool, BUFFER_SIZE);
+        capture.data().putShort(0, (short) 1234);
+        assertTrue(first.offer(capture, 8, 42));
+        assertTrue(second.offer(capture, 8, 42));
+        capture.release();
+
+        ByteBuffer a = first.dequeueRead(0);
+        ByteBuffer b = second.dequeueRead(0);
+        assertNotSame(a, b);
+        assertTrue(a.isReadOnly());
+        assertEquals(1234, a.getShort(0));
+        assertEquals(1234, b.getShort(0));
+        assertEquals(8, first.readLength());
+        assertEquals(42, second.readTimestamp());
+
+        // Each queue moves its own view around
+        a.position(4);
+        assertEquals(0, b.position());
+
+        first.queueRead();
+        assertTrue(pool.isEmpty());
+        second.queueRead();
+        assertEquals(1, pool.size());
+        assertSame(capture, RecordController.CaptureBuffer.obtain(pool, BUFFER_SIZE));
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void dequeueRead_returnsAReadOnlyBuffer() throws Exception {
+        ArrayBlockingQueue<RecordController.CaptureBuffer> pool = new ArrayBlockingQueue<>(1);
+        RecordController.RecordBufferQueue queue =
+                new RecordController.RecordBufferQueue(1, BUFFER_SIZE);
+        RecordController.CaptureBuffer capture =
+                RecordController.CaptureBuffer.obtain(pool, BUFFER_SIZE);
+        queue.offer(capture, BUFFER_SIZE, 0);
+        capture.release();
+
+        queue.dequeueRead(0).put(0, (byte) 1);
+    }
+
+    @Test
+    public void offer_toAFullQueueIsAnOverrun() throws Exception {
+        ArrayBlockingQueue<RecordController.CaptureBuffer> pool = new ArrayBlockingQueue<>(4);
+        RecordController.RecordBufferQueue queue =
+                new RecordController.RecordBufferQueue(1, BUFFER_SIZE);
+
+        RecordController.CaptureBuffer kept =
+                RecordController.CaptureBuffer.obtain(pool, BUFFER_SIZE);
+        assertTrue(queue.offer(kept, BUFFER_SIZE, 0));
+        kept.release();
+        RecordController.CaptureBuffer lost =
+                RecordController.CaptureBuffer.obtain(pool, BUFFER_SIZE);
+        assertFalse(queue.offer(lost, 10, 0));
+        lost.release();
+
+        assertEquals(1, queue.getOverrunBuffers());
+        assertEquals(10, queue.getOverrunBytes());
+        assertEquals(1, pool.size());
+
+        queue.drain();
+        assertEquals(2, pool.size());
+        assertNull(queue.dequeueRead(0));
+        assertEquals(1, queue.getUnderrunBuffers());
+    }
+}
@@ -0,0 +1,256 @@
+package com.google.audioworker.functions.controllers;
+
+import static org.junit.Assert.*;
+
+import com.google.audioworker.utils.Constants;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RecordCircularBufferTest {
+    private static final int FRAME_SIZE = 4;
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static ByteBuffer frames(int from, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(count * FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) buffer.putInt(from + i);
+        buffer.rewind();
+        return buffer;
+    }
+
+    private static int[] copyAll(RecordController.RecordCircularBuffer ring, int stagingBytes)
+            throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long end = ring.end();
+        long copied =
+                ring.copyTo(
+                        end - ring.capacity(),
+                        end,
+                        ByteBuffer.allocate(stagingBytes),
+                        new RecordController.RecordCircularBuffer.Sink() {
+                            @Override
+                            public void write(ByteBuffer data) {
+                                byte[] bytes = new byte[data.remaining()];
+                                data.get(bytes);
+                                out.write(bytes, 0, bytes.length);
+                            }
+                        });
+        assertEquals(out.size(), copied);
+
+        ByteBuffer result = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        int[] values = new int[result.remaining() / FRAME_SIZE];
+        for (int i = 0; i < values.length; i++) values[i] = result.getInt();
+        return values;
+    }
+
+    @Test
+    public void copyTo_returnsTheLatestFramesInOrderAfterWrapping() throws Exception {
+        RecordController.RecordCircularBuffer ring =
+                new RecordController.RecordCircularBuffer(10 * FRAME_SIZE, FRAME_SIZE);
+        for (int i = 0; i < 7; i++) ring.push(frames(i * 3, 3), 3 * FRAME_SIZE);
+
+        int[] values = copyAll(ring, 3 * FRAME_SIZE);
+        assertEquals(10, values.length);
+        for (int i = 0; i < values.length; i++) assertEquals(11 + i, values[i]);
+    }
+
+    @Test
+    public void push_leavesTheSourceRewound() {
+        RecordController.RecordCircularBuffer ring =
+                new RecordController.RecordCircularBuffer(8 * FRAME_SIZE, FRAME_SIZE);
+        ByteBuffer source = frames(0, 4);
+        source.position(8);
+        ring.push(source, 4 * FRAME_SIZE);
+        assertEquals(0, source.position());
+        assertEquals(4 * FRAME_SIZE, ring.end());
+    }
+
+    @Test
+    public void push_longerThanCapacityKeepsTheTail() throws Exception {
+        RecordController.RecordCircularBuffer ring =
+                new RecordController.RecordCircularBuffer(4 * FRAME_SIZE, FRAME_SIZE);
+        ring.push(frames(0, 9), 9 * FRAME_SIZE);
+
+        assertArrayEquals(new int[] {5, 6, 7, 8}, copyAll(ring, 64));
+    }
+
+    @Test
+    public void copyTo_stopsAtTheRequestedEnd() throws Exception {
+        RecordController.RecordCircularBuffer ring =
+                new RecordController.RecordCircularBuffer(16 * FRAME_SIZE, FRAME_SIZE);
+        ring.push(frames(0, 6), 6 * FRAME_SIZE);
+        long end = ring.end();
+        ring.push(frames(6, 6), 6 * FRAME_SIZE);
+
+        final int[] count = {0};
+        long copied =
+                ring.copyTo(
+                        2 * FRAME_SIZE,
+                        end,
+                        ByteBuffer.allocate(64),
+                        new RecordController.RecordCircularBuffer.Sink() {
+                            @Override
+                            public void write(ByteBuffer data) {
+                                data.order(ByteOrder.LITTLE_ENDIAN);
+                                while (data.hasRemaining())
+                                    assertEquals(2 + count[0]++, data.getInt());
+                            }
+                        });
+        assertEquals(4 * FRAME_SIZE, copied);
+        assertEquals(4, count[0]);
+    }
+
+    @Test
+    public void emptyRingCopiesNothing() throws Exception {
+        RecordController.RecordCircularBuffer ring =
+                new RecordController.RecordCircularBuffer(0, FRAME_SIZE);
+        ring.push(frames(0, 4), 4 * FRAME_SIZE);
+        assertEquals(0, ring.capacity());
+        assertEquals(0, copyAll(ring, 64).length);
+    }
+
+    @Test
+    public void capacityFor_keepsWholeFramesWithinOneBuffer() {
+        assertEquals(
+                Integer.MAX_VALUE / 6 * 6,
+                RecordController.RecordCircularBuffer.capacityFor(5L * Integer.MAX_VALUE, 6));
+        assertEquals(0, RecordController.RecordCircularBuffer.capacityFor(-1, 4));
+        assertEquals(12, RecordController.RecordCircularBuffer.capacityFor(14, 4));
+    }
+
+    // Every chunk handed over while a writer keeps pushing must be consecutive frames
+    @Test
+    public void copyTo_neverTearsAChunkWhileBeingWritten() throws Exception {
+        final RecordController.RecordCircularBuffer ring =
+                new RecordController.RecordCircularBuffer(4096 * FRAME_SIZE, FRAME_SIZE);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                int next = 0;
+                                while (running.get()) {
+                                    ring.push(frames(next, 97), 97 * FRAME_SIZE);
+                                    next += 97;
+                                }
+                            }
+                        });
+        writer.start();
+        try {
+            for (int run = 0; run < 200; run++) {
+                final int[] last = {-1};
+                long end = ring.end();
+                ring.copyTo(
+                        end - ring.capacity(),
+                        end,
+                        ByteBuffer.allocate(256 * FRAME_SIZE),
+                        new RecordController.RecordCircularBuffer.Sink() {
+                            @Override
+                            public void write(ByteBuffer data) {
+                                data.order(ByteOrder.LITTLE_ENDIAN);
+                                int first = data.getInt();
+                                assertTrue(first > last[0]);
+                                int previous = first;
+                                while (data.hasRemaining()) {
+                                    int value = data.getInt();
+                                    assertEquals(previous + 1, value);
+                                    previous = value;
+                                }
+                                last[0] = previous;
+                            }
+                        });
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void mappedRing_unlinksItsFileAndKeepsTheFrames() throws Exception {
+        RecordController.RecordCircularBuffer ring =
+                new RecordController.RecordCircularBuffer(
+                        Constants.Controllers.Config.Record.DUMP_MAP_MIN_BYTES,
+                        FRAME_SIZE,
+                        mFolder.getRoot());
+        assertTrue(ring.isMapped());
+        assertEquals(0, mFolder.getRoot().list().length);
+
+        int count = ring.capacity() / FRAME_SIZE + 5;
+        ring.push(frames(0, count), count * FRAME_SIZE);
+        int[] values = copyAll(ring, 64 * 1024);
+        assertEquals(ring.capacity() / FRAME_SIZE, values.length);
+        assertEquals(5, values[0]);
+        assertEquals(count - 1, values[values.length - 1]);
+        ring.release();
+    }
+
+    @Test
+    public void smallRing_staysOnTheHeap() {
+        RecordController.RecordCircularBuffer ring =
+                new RecordController.RecordCircularBuffer(
+                        64 * FRAME_SIZE, FRAME_SIZE, mFolder.getRoot());
+        assertFalse(ring.isMapped());
+        ring.release();
+    }
+
+    // A reader keeps the ring alive past the release of its owner
+    @Test
+    public void release_takesEffectWithTheLastReference() throws Exception {
+        RecordController.RecordCircularBuffer ring =
+                new RecordController.RecordCircularBuffer(
+                        Constants.Controllers.Config.Record.DUMP_MAP_MIN_BYTES,
+                        FRAME_SIZE,
+                        mFolder.getRoot());
+        ring.push(frames(0, 4), 4 * FRAME_SIZE);
+        assertTrue(ring.retain());
+        ring.release();
+
+        ring.push(frames(4, 4), 4 * FRAME_SIZE);
+        assertEquals(8 * FRAME_SIZE, ring.end());
+        long end = ring.end();
+        assertEquals(
+                8 * FRAME_SIZE,
+                ring.copyTo(
+                        0,
+                        end,
+                        ByteBuffer.allocate(64),
+                        new RecordController.RecordCircularBuffer.Sink() {
+                            @Override
+                            public void write(ByteBuffer data) {}
+                        }));
+
+        ring.release();
+        assertFalse(ring.retain());
+        ring.release();
+    }
+
+    @Test
+    public void release_stopsEveryPushAndCopy() throws Exception {
+        RecordController.RecordCircularBuffer ring =
+                new RecordController.RecordCircularBuffer(
+                        Constants.Controllers.Config.Record.DUMP_MAP_MIN_BYTES,
+                        FRAME_SIZE,
+                        mFolder.getRoot());
+        ring.push(frames(0, 4), 4 * FRAME_SIZE);
+        ring.release();
+
+        ring.push(frames(4, 4), 4 * FRAME_SIZE);
+        assertEquals(4 * FRAME_SIZE, ring.end());
+        try {
+            copyAll(ring, 64);
+            fail("copied from a released ring");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.google.audioworker.functions.controllers;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class ToneFileCacheTest {
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File source(String name, int length) throws IOException {
+        File file = new File(mFolder.getRoot(), name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[length]);
+        }
+        return file;
+    }
+
+    private ToneFileCache cache(long maxBytes) {
+        return new ToneFileCache(new File(mFolder.getRoot(), "cache"), maxBytes);
+    }
+
+    @Test
+    public void put_thenLookupReturnsTheMovedFile() throws Exception {
+        ToneFileCache cache = cache(1 << 20);
+        String key = ToneFileCache.keyOf("tone");
+        File source = source("tone.mp3", 100);
+
+        File cached = cache.put(key, source);
+        assertNotNull(cached);
+        assertFalse(source.exists());
+        assertTrue(cached.getName().endsWith(".mp3"));
+        assertEquals(cached, cache.lookup(key));
+        assertNull(cache.lookup(ToneFileCache.keyOf("other")));
+    }
+
+    @Test
+    public void lookup_dropsAFileOfAnotherLength() throws Exception {
+        ToneFileCache cache = cache(1 << 20);
+        String key = ToneFileCache.keyOf("tone");
+        File cached = cache.put(key, source("tone.wav", 100));
+        try (FileOutputStream out = new FileOutputStream(cached, true)) {
+            out.write(1);
+        }
+
+        assertNull(cache.lookup(key));
+        assertFalse(cached.exists());
+    }
+
+    // A file of the same length written again is caught by its modification time
+    @Test
+    public void lookup_dropsARewrittenFile() throws Exception {
+        ToneFileCache cache = cache(1 << 20);
+        String key = ToneFileCache.keyOf("tone");
+        File cached = cache.put(key, source("tone.wav", 100));
+        assertTrue(cached.setLastModified(cached.lastModified() - 60000));
+
+        assertNull(cache.lookup(key));
+        assertFalse(cached.exists());
+    }
+
+    // The order of the accesses is kept in the records, whatever the file times say
+    @Test
+    public void put_evictsTheLeastRecentlyLookedUpEntry() throws Exception {
+        ToneFileCache cache = cache(2500);
+        String first = ToneFileCache.keyOf("first");
+        String second = ToneFileCache.keyOf("second");
+        String third = ToneFileCache.keyOf("third");
+
+        File firstFile = cache.put(first, source("first.mp3", 1000));
+        File secondFile = cache.put(second, source("second.mp3", 1000));
+        assertEquals(firstFile, cache.lookup(first));
+        assertTrue(new File(mFolder.getRoot(), "cache/" + first + ".json").setLastModified(1000));
+        File thirdFile = cache.put(third, source("third.mp3", 1000));
+
+        assertNotNull(thirdFile);
+        assertFalse(secondFile.exists());
+        assertNull(cache.lookup(second));
+        assertEquals(thirdFile, cache.lookup(third));
+        assertEquals(firstFile, cache.lookup(first));
+    }
+
+    @Test
+    public void put_keepsTheNewEntryEvenAboveTheLimit() throws Exception {
+        ToneFileCache cache = cache(10);
+        String key = ToneFileCache.keyOf("tone");
+        File cached = cache.put(key, source("tone.mp3", 100));
+
+        assertNotNull(cached);
+        assertEquals(cached, cache.lookup(key));
+    }
+}
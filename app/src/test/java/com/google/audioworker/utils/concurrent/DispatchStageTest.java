@@ -0,0 +1,137 @@
+package com.google.audioworker.utils.concurrent;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DispatchStageTest {
+    // Blocks the worker on the first item until released, and records the others
+    private static class GatedHandler implements DispatchStage.Handler<Integer> {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> handled = new ArrayList<>();
+        final List<Integer> discarded = new ArrayList<>();
+
+        @Override
+        public void handle(Integer item) {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                handled.add(item);
+            }
+        }
+
+        @Override
+        public synchronized void discard(Integer item) {
+            discarded.add(item);
+        }
+    }
+
+    private static void awaitHandled(GatedHandler handler, int count) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            synchronized (handler) {
+                if (handler.handled.size() >= count) return;
+            }
+            Thread.sleep(1);
+        }
+        fail("timed out waiting for " + count + " handled items");
+    }
+
+    @Test
+    public void dropOldest_discardsTheOldestQueuedItems() throws Exception {
+        GatedHandler handler = new GatedHandler();
+        DispatchStage<Integer> stage =
+                new DispatchStage<>("test", 2, DispatchStage.OverflowPolicy.DROP_OLDEST, handler);
+        stage.post(0);
+        assertTrue(handler.started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 4; i++) stage.post(i);
+
+        handler.release.countDown();
+        awaitHandled(handler, 3);
+        assertEquals(2, stage.getNumDropped());
+        synchronized (handler) {
+            assertEquals(Arrays.asList(0, 3, 4), handler.handled);
+            assertEquals(Arrays.asList(1, 2), handler.discarded);
+        }
+        stage.shutdown();
+    }
+
+    @Test
+    public void dropNewest_discardsTheRejectedItem() throws Exception {
+        GatedHandler handler = new GatedHandler();
+        DispatchStage<Integer> stage =
+                new DispatchStage<>("test", 1, DispatchStage.OverflowPolicy.DROP_NEWEST, handler);
+        stage.post(0);
+        assertTrue(handler.started.await(5, TimeUnit.SECONDS));
+        assertTrue(stage.post(1));
+        assertFalse(stage.post(2));
+
+        handler.release.countDown();
+        awaitHandled(handler, 2);
+        synchronized (handler) {
+            assertEquals(Arrays.asList(0, 1), handler.handled);
+            assertEquals(Arrays.asList(2), handler.discarded);
+        }
+        stage.shutdown();
+    }
+
+    @Test
+    public void shutdown_discardsQueuedAndLaterItems() throws Exception {
+        GatedHandler handler = new GatedHandler();
+        DispatchStage<Integer> stage =
+                new DispatchStage<>("test", 4, DispatchStage.OverflowPolicy.DROP_OLDEST, handler);
+        stage.post(0);
+        assertTrue(handler.started.await(5, TimeUnit.SECONDS));
+        stage.post(1);
+        stage.post(2);
+
+        stage.shutdown();
+        assertFalse(stage.post(3));
+        handler.release.countDown();
+        synchronized (handler) {
+            assertEquals(Arrays.asList(1, 2, 3), handler.discarded);
+        }
+    }
+
+    // Without a keep-alive the worker lets go whenever it drains the queue, so posts keep racing
+    // with it; none of them may be left behind
+    @Test
+    public void post_isNeverLeftBehindByAnIdleWorker() throws Exception {
+        final AtomicInteger handled = new AtomicInteger();
+        DispatchStage<Integer> stage =
+                new DispatchStage<>(
+                        "test",
+                        4,
+                        DispatchStage.OverflowPolicy.BLOCK,
+                        new DispatchStage.Handler<Integer>() {
+                            @Override
+                            public void handle(Integer item) {
+                                handled.incrementAndGet();
+                            }
+                        },
+                        0);
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            stage.post(i);
+            // The item is the last one posted, no later post would rescue it
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (handled.get() <= i && System.nanoTime() < deadline) Thread.yield();
+            assertEquals(i + 1, handled.get());
+        }
+        assertEquals(0, stage.getNumDropped());
+        assertTrue(stage.getMaxQueueDepth() >= 1);
+        stage.shutdown();
+    }
+}
@@ -0,0 +1,79 @@
+package com.google.audioworker.utils.ds;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DoubleRingBufferTest {
+    private static double[] ramp(int from, int length) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) values[i] = from + i;
+        return values;
+    }
+
+    @Test
+    public void copyLatest_returnsWrittenSamplesInOrder() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(8);
+        buffer.write(ramp(0, 5), 0, 5);
+
+        double[] dest = new double[5];
+        assertEquals(5, buffer.copyLatest(dest));
+        assertArrayEquals(ramp(0, 5), dest, 0);
+        assertEquals(5, buffer.size());
+    }
+
+    @Test
+    public void write_wrapsAroundAndKeepsTheLatestSamples() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(8);
+        for (int i = 0; i < 10; i++) buffer.write(ramp(i * 3, 3), 0, 3);
+
+        double[] dest = new double[8];
+        assertEquals(8, buffer.copyLatest(dest));
+        assertArrayEquals(ramp(22, 8), dest, 0);
+        assertEquals(8, buffer.size());
+    }
+
+    @Test
+    public void write_longerThanCapacityKeepsTheTail() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(4);
+        buffer.write(ramp(0, 2), 0, 2);
+        buffer.write(ramp(100, 11), 1, 10);
+
+        double[] dest = new double[4];
+        assertEquals(4, buffer.copyLatest(dest));
+        assertArrayEquals(ramp(107, 4), dest, 0);
+    }
+
+    @Test
+    public void copyLatest_intoShorterDestinationTakesTheNewest() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(6);
+        buffer.write(ramp(0, 9), 0, 9);
+
+        double[] dest = new double[3];
+        assertEquals(3, buffer.copyLatest(dest));
+        assertArrayEquals(ramp(6, 3), dest, 0);
+    }
+
+    @Test
+    public void fillAndClear() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(3);
+        buffer.fill(0.5);
+        assertEquals(3, buffer.size());
+
+        double[] dest = new double[3];
+        buffer.copyLatest(dest);
+        assertArrayEquals(new double[] {0.5, 0.5, 0.5}, dest, 0);
+
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.copyLatest(dest));
+    }
+
+    @Test
+    public void zeroCapacityIgnoresWrites() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(0);
+        buffer.write(ramp(0, 4), 0, 4);
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.copyLatest(new double[4]));
+    }
+}
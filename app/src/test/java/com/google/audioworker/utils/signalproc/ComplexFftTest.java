@@ -0,0 +1,106 @@
+package com.google.audioworker.utils.signalproc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ComplexFftTest {
+    private static final double TOLERANCE = 1e-9;
+
+    private static void assertMatchesNaiveDft(int n) {
+        Random random = new Random(n);
+        double[] inRe = new double[n];
+        double[] inIm = new double[n];
+        for (int i = 0; i < n; i++) {
+            inRe[i] = random.nextDouble() * 2 - 1;
+            inIm[i] = random.nextDouble() * 2 - 1;
+        }
+
+        double[] outRe = new double[n];
+        double[] outIm = new double[n];
+        ComplexFft fft = new ComplexFft(n);
+        assertEquals(n, fft.size());
+        fft.transform(inRe, inIm, outRe, outIm);
+
+        // Relative to the expected magnitude of the bins of a random signal
+        double tolerance = TOLERANCE * Math.sqrt(n);
+        for (int k = 0; k < n; k++) {
+            double re = 0;
+            double im = 0;
+            for (int t = 0; t < n; t++) {
+                double radius = 2 * Math.PI * (((long) k * t) % n) / n;
+                re += inRe[t] * Math.cos(radius) + inIm[t] * Math.sin(radius);
+                im += inIm[t] * Math.cos(radius) - inRe[t] * Math.sin(radius);
+            }
+            assertEquals("size " + n + ", re[" + k + "]", re, outRe[k], tolerance);
+            assertEquals("size " + n + ", im[" + k + "]", im, outIm[k], tolerance);
+        }
+    }
+
+    @Test
+    public void isSmooth_acceptsPrimeFactorsUpToSeven() {
+        assertTrue(ComplexFft.isSmooth(1));
+        assertTrue(ComplexFft.isSmooth(441));
+        assertTrue(ComplexFft.isSmooth(2 * 3 * 5 * 7 * 16));
+        assertFalse(ComplexFft.isSmooth(11));
+        assertFalse(ComplexFft.isSmooth(2 * 13));
+        assertFalse(ComplexFft.isSmooth(0));
+    }
+
+    // Every radix on its own and mixed, the generic butterfly for 7
+    @Test
+    public void transform_mixedRadixMatchesNaiveDft() {
+        int[] sizes = {1, 2, 3, 4, 5, 7, 8, 16, 49, 60, 64, 105, 343, 441, 480, 1024, 1470};
+        for (int n : sizes) assertMatchesNaiveDft(n);
+    }
+
+    @Test
+    public void transform_bluesteinMatchesNaiveDft() {
+        int[] sizes = {11, 13, 22, 97, 121, 257, 1031, 2 * 1009};
+        for (int n : sizes) assertMatchesNaiveDft(n);
+    }
+
+    // A tone on an exact bin lands in that bin only, Bluestein included
+    @Test
+    public void transform_complexToneHitsItsBin() {
+        for (int n : new int[] {64, 97}) {
+            double[] inRe = new double[n];
+            double[] inIm = new double[n];
+            for (int t = 0; t < n; t++) {
+                inRe[t] = Math.cos(2 * Math.PI * 5 * t / n);
+                inIm[t] = Math.sin(2 * Math.PI * 5 * t / n);
+            }
+
+            double[] outRe = new double[n];
+            double[] outIm = new double[n];
+            new ComplexFft(n).transform(inRe, inIm, outRe, outIm);
+            for (int k = 0; k < n; k++) {
+                assertEquals(k == 5 ? n : 0, outRe[k], TOLERANCE * n);
+                assertEquals(0, outIm[k], TOLERANCE * n);
+            }
+        }
+    }
+
+    // The scratch arrays are reused, a second transform must not see the first one
+    @Test
+    public void transform_isRepeatable() {
+        int n = 1031;
+        ComplexFft fft = new ComplexFft(n);
+        Random random = new Random(7);
+        double[] inRe = new double[n];
+        double[] inIm = new double[n];
+        for (int i = 0; i < n; i++) inRe[i] = random.nextDouble();
+
+        double[] firstRe = new double[n];
+        double[] firstIm = new double[n];
+        fft.transform(inRe, inIm, firstRe, firstIm);
+        double[] secondRe = new double[n];
+        double[] secondIm = new double[n];
+        fft.transform(inRe, inIm, secondRe, secondIm);
+
+        assertArrayEquals(firstRe, secondRe, 0);
+        assertArrayEquals(firstIm, secondIm, 0);
+    }
+}
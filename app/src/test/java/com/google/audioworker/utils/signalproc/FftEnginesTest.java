@@ -0,0 +1,29 @@
+package com.google.audioworker.utils.signalproc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class FftEnginesTest {
+    @Test
+    public void get_fallsBackToJavaWithoutTheNativeLibrary() {
+        assertEquals(FftEngine.NAME_JAVA, FftEngines.get(FftEngine.NAME_JAVA).getName());
+        assertEquals(FftEngine.NAME_JAVA, FftEngines.get(FftEngine.NAME_AUTO).getName());
+        assertEquals(FftEngine.NAME_JAVA, FftEngines.get(FftEngine.NAME_NATIVE).getName());
+        assertNotNull(FftEngines.getNativeEngineError());
+    }
+
+    @Test
+    public void roundSize_followsThePolicy() {
+        assertEquals(1000, FftEngines.roundSize(1000, FftEngine.SIZE_EXACT));
+        assertEquals(1024, FftEngines.roundSize(1000, FftEngine.SIZE_POW2));
+        assertEquals(1008, FftEngines.roundSize(1001, FftEngine.SIZE_SMOOTH));
+        assertEquals(1, FftEngines.roundSize(0, FftEngine.SIZE_POW2));
+    }
+
+    @Test
+    public void crossCheck_ofAnEngineWithItselfIsExact() {
+        FftEngine engine = new JavaFftEngine();
+        assertEquals(0, FftEngines.crossCheck(engine, engine, 1031), 0);
+    }
+}
@@ -0,0 +1,89 @@
+package com.google.audioworker.utils.signalproc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class GoertzelBankTest {
+    private static final double TOLERANCE = 1e-9;
+
+    private static double[] randomSignal(int n, long seed) {
+        Random random = new Random(seed);
+        double[] signal = new double[n];
+        for (int i = 0; i < n; i++) signal[i] = random.nextDouble() * 2 - 1;
+        return signal;
+    }
+
+    private static double naiveAbs(double[] signal, double normalizedFreq) {
+        double re = 0;
+        double im = 0;
+        for (int t = 0; t < signal.length; t++) {
+            re += signal[t] * Math.cos(2 * Math.PI * normalizedFreq * t);
+            im -= signal[t] * Math.sin(2 * Math.PI * normalizedFreq * t);
+        }
+        return Math.sqrt(re * re + im * im);
+    }
+
+    @Test
+    public void evaluate_matchesNaiveDft() {
+        int n = 441;
+        double[] freqs = {0, 10.0 / n, 0.1234, 0.5};
+        double[] signal = randomSignal(n + 20, 1);
+        double[] frame = new double[n];
+        System.arraycopy(signal, 20, frame, 0, n);
+
+        GoertzelBank bank = new GoertzelBank(freqs);
+        double[] out = new double[freqs.length];
+        bank.evaluate(signal, 20, n, out, 0.5);
+        for (int i = 0; i < freqs.length; i++)
+            assertEquals(naiveAbs(frame, freqs[i]) * 0.5, out[i], TOLERANCE);
+    }
+
+    // Nothing of a frame is carried over to the next one
+    @Test
+    public void evaluate_isIndependentOfThePreviousFrames() {
+        int n = 64;
+        double[] signal = randomSignal(n, 3);
+        GoertzelBank bank = new GoertzelBank(new double[] {0.25});
+
+        double[] out = new double[1];
+        bank.evaluate(randomSignal(20, 4), 0, 20, out, 1);
+        bank.evaluate(signal, 0, n, out, 1);
+        assertEquals(naiveAbs(signal, 0.25), out[0], TOLERANCE);
+    }
+
+    // ToneDetector normalizes the peak fitting of the Goertzel bins by this bound of the
+    // strongest bin of the spectrum, which a lone tone on a bin reaches
+    @Test
+    public void aBinHoldsAtMostHalfOfTheFrameEnergy() {
+        int n = 480;
+        FftEngine.Transform transform = new JavaFftEngine().createTransform(n);
+        double[] spectrum = new double[n / 2];
+        Random random = new Random(5);
+        for (int run = 0; run < 200; run++) {
+            double[] signal = new double[n];
+            double tone = 1 + random.nextInt(n / 2 - 1) + random.nextDouble() - 0.5;
+            double noise = random.nextDouble() * 2;
+            for (int i = 0; i < n; i++)
+                signal[i] =
+                        Math.sin(2 * Math.PI * tone * i / n) + noise * (random.nextDouble() - 0.5);
+
+            transform.transformAbs(signal, spectrum);
+            double energy = 0;
+            for (double v : signal) energy += v * v;
+            for (int k = 1; k < spectrum.length; k++)
+                assertTrue(spectrum[k] * spectrum[k] <= energy / 2 + TOLERANCE);
+        }
+
+        double[] signal = new double[n];
+        double energy = 0;
+        for (int i = 0; i < n; i++) {
+            signal[i] = Math.cos(2 * Math.PI * 17 * i / n);
+            energy += signal[i] * signal[i];
+        }
+        transform.transformAbs(signal, spectrum);
+        assertEquals(energy / 2, spectrum[17] * spectrum[17], 1e-6);
+    }
+}
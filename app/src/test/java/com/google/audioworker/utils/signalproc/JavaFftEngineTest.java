@@ -0,0 +1,84 @@
+package com.google.audioworker.utils.signalproc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class JavaFftEngineTest {
+    private static final double TOLERANCE = 1e-9;
+
+    private static double[] randomSignal(int n) {
+        Random random = new Random(n);
+        double[] signal = new double[n];
+        for (int i = 0; i < n; i++) signal[i] = random.nextDouble() * 2 - 1;
+        return signal;
+    }
+
+    // |X[k]| / sqrt(n) of the bins 0..n/2
+    private static double[] naiveAbs(double[] signal, int n) {
+        double[] spectrum = new double[n / 2 + 1];
+        for (int k = 0; k < spectrum.length; k++) {
+            double re = 0;
+            double im = 0;
+            for (int t = 0; t < n; t++) {
+                double x = t < signal.length ? signal[t] : 0;
+                double radius = 2 * Math.PI * (((long) k * t) % n) / n;
+                re += x * Math.cos(radius);
+                im -= x * Math.sin(radius);
+            }
+            spectrum[k] = Math.sqrt(re * re + im * im) / Math.sqrt(n);
+        }
+        return spectrum;
+    }
+
+    private static void assertMatchesNaiveDft(int n) {
+        double[] signal = randomSignal(n);
+        FftEngine.Transform transform = new JavaFftEngine().createTransform(n);
+        double[] spectrum = new double[transform.numBins()];
+
+        assertEquals(n, transform.size());
+        assertEquals(n / 2 + 1, transform.transformAbs(signal, spectrum));
+        assertArrayEquals("size " + n, naiveAbs(signal, n), spectrum, TOLERANCE);
+    }
+
+    // The real-input packing of the native FFTPlan into a complex transform of half the size
+    @Test
+    public void transformAbs_powerOfTwoMatchesNaiveDft() {
+        for (int n = 2; n <= 4096; n <<= 1) assertMatchesNaiveDft(n);
+    }
+
+    @Test
+    public void transformAbs_anySizeMatchesNaiveDft() {
+        // Odd and even sizes, mixed radix ones and primes which go through Bluestein
+        int[] sizes = {1, 3, 5, 6, 7, 9, 12, 15, 30, 49, 100, 210, 441, 882, 1031, 2205, 4410};
+        for (int n : sizes) assertMatchesNaiveDft(n);
+    }
+
+    @Test
+    public void transformAbs_scalesByTheSquareRootOfTheSize() {
+        int n = 1024;
+        double[] signal = new double[n];
+        for (int i = 0; i < n; i++) signal[i] = Math.cos(2 * Math.PI * 16 * i / n);
+
+        FftEngine.Transform transform = new JavaFftEngine().createTransform(n);
+        double[] spectrum = new double[transform.numBins()];
+        transform.transformAbs(signal, spectrum);
+
+        assertEquals(Math.sqrt(n) / 2, spectrum[16], TOLERANCE);
+        assertEquals(0, spectrum[15], TOLERANCE);
+        assertEquals(0, spectrum[0], TOLERANCE);
+    }
+
+    @Test
+    public void transformAbs_zeroPadsAShortSignal() {
+        int n = 256;
+        double[] signal = randomSignal(100);
+        FftEngine.Transform transform = new JavaFftEngine().createTransform(n);
+        double[] spectrum = new double[transform.numBins()];
+        transform.transformAbs(signal, spectrum);
+
+        assertArrayEquals(naiveAbs(signal, n), spectrum, TOLERANCE);
+    }
+}
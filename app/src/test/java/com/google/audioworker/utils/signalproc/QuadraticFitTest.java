@@ -0,0 +1,105 @@
+package com.google.audioworker.utils.signalproc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class QuadraticFitTest {
+    private static final double TOLERANCE = 1e-9;
+
+    private static double[] fitOne(double[] data, int target, int numPoints, int step) {
+        QuadraticFit fit = new QuadraticFit(numPoints, step);
+        double[] out = new double[3 + numPoints];
+        assertEquals(
+                1,
+                fit.featureInto(
+                        data,
+                        data.length,
+                        0,
+                        new int[] {target},
+                        new double[data.length],
+                        new double[numPoints],
+                        out));
+        return out;
+    }
+
+    @Test
+    public void featureInto_recoversAParabola() {
+        // 1 - 0.01 * (i - 20)^2 peaks at 1, so the normalizations leave it untouched
+        double[] data = new double[41];
+        for (int i = 0; i < data.length; i++) data[i] = 1 - 0.01 * (i - 20) * (i - 20);
+
+        double[] out = fitOne(data, 22, 5, 2);
+        // Centered on the target: 1 - 0.01 * (d + 2)^2
+        assertEquals(-0.01, out[0], TOLERANCE);
+        assertEquals(-0.04, out[1], TOLERANCE);
+        assertEquals(0.96, out[2], TOLERANCE);
+        for (int j = 0; j < 5; j++) assertEquals(data[22 + (j - 2) * 2], out[3 + j], TOLERANCE);
+    }
+
+    @Test
+    public void featureInto_normalizesByTheGlobalThenTheLocalMaximum() {
+        double[] data = new double[32];
+        data[4] = 1;
+        data[5] = 0.5;
+        data[20] = 0.25;
+        data[21] = 0.125;
+        data[28] = 0.05;
+
+        QuadraticFit fit = new QuadraticFit(3, 1);
+        int[] targets = {5, 21, 28};
+        double[] out = new double[6 * targets.length];
+        fit.featureInto(data, data.length, 0, targets, new double[32], new double[3], out);
+
+        // The second target is scaled to its own maximum, the third is too weak for that
+        assertArrayEquals(new double[] {1, 0.5, 0}, row(out, 3, 0), TOLERANCE);
+        assertArrayEquals(new double[] {1, 0.5, 0}, row(out, 3, 1), TOLERANCE);
+        assertArrayEquals(new double[] {0, 0.05, 0}, row(out, 3, 2), TOLERANCE);
+    }
+
+    private static double[] row(double[] out, int numTargets, int target) {
+        double[] y = new double[3];
+        for (int j = 0; j < 3; j++) y[j] = out[(j + 3) * numTargets + target];
+        return y;
+    }
+
+    @Test
+    public void featureInto_usesTheFloorOnAQuietSpectrum() {
+        double[] data = {0, 0.1, 0.2, 0.1, 0};
+        double[] out = fitOne(data, 2, 3, 1);
+        assertEquals(1, out[4], TOLERANCE);
+
+        QuadraticFit fit = new QuadraticFit(3, 1);
+        double[] floored = new double[6];
+        fit.featureInto(data, 5, 10, new int[] {2}, new double[5], new double[3], floored);
+        assertArrayEquals(new double[] {0.01, 0.02, 0.01}, row(floored, 1, 0), TOLERANCE);
+    }
+
+    // The Java engine must not touch the native PeakDetector, which is not loadable on the JVM
+    @Test
+    public void javaEngine_fitsWithoutTheNativeLibrary() {
+        int n = 480;
+        double[] signal = new double[n];
+        for (int i = 0; i < n; i++) signal[i] = Math.sin(2 * Math.PI * 40 * i / n);
+
+        PeakDetector.Config config =
+                new PeakDetector.Config.Builder()
+                        .withStepFreq(100)
+                        .withNumPoints(5)
+                        .withMinNormFactor(1)
+                        .addTargetFreq(4000.0)
+                        .build();
+        FftEngine.Transform transform = new JavaFftEngine().createTransform(n);
+        double[] features = new double[config.featureSize()];
+        assertEquals(
+                1,
+                transform.extractPeakFeatures(
+                        signal, new double[n / 2], config.targetIndices, config, features));
+
+        PeakDetector.QuadraticFeature feature = new PeakDetector.QuadraticFeature(config);
+        feature.load(features, 1, 0);
+        assertEquals(1, feature.y[2], TOLERANCE);
+        assertEquals(0, feature.y[1], TOLERANCE);
+        assertTrue(feature.coeffs[0] < 0);
+    }
+}
@@ -0,0 +1,106 @@
+package com.google.audioworker.utils.signalproc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class ToneCacheTest {
+    private static final int FS = 48000;
+    private static final double TOLERANCE = 1e-6;
+
+    @Test
+    public void get_rendersWholePeriodsOfEveryChannel() {
+        double[] freqs = {1000, 1500};
+        float[] amps = {1, 0.5f};
+        ToneCache.Block block = ToneCache.get(FS, 16, freqs, amps);
+
+        assertNotNull(block);
+        assertEquals(2, block.numChannels);
+        // Common period of 96 frames, repeated up to the minimum block length of 100 ms
+        assertEquals(4800, block.numFrames);
+        for (int c = 0; c < 2; c++) {
+            for (int i = 0; i < block.numFrames; i++) {
+                double expected = amps[c] * Math.cos(2 * Math.PI * freqs[c] * i / FS);
+                assertEquals(expected * 32767, block.shorts[i * 2 + c], 1);
+            }
+        }
+    }
+
+    @Test
+    public void get_reusesTheCachedBlock() {
+        double[] freqs = {440};
+        float[] amps = {0.25f};
+        ToneCache.Block block = ToneCache.get(FS, 16, freqs, amps);
+        assertSame(block, ToneCache.get(FS, 16, freqs.clone(), amps.clone()));
+        assertNotSame(block, ToneCache.get(FS, 8, freqs, amps));
+    }
+
+    @Test
+    public void get_returnsNullForTonesOfLongPeriods() {
+        // Not a multiple of 1 mHz, and 9973 cycles in 10 s
+        assertNull(ToneCache.get(FS, 16, new double[] {1000.12345}, new float[] {1}));
+        assertNull(ToneCache.get(FS, 16, new double[] {997.3}, new float[] {1}));
+        // A silent channel does not count
+        assertNotNull(ToneCache.get(FS, 16, new double[] {1000, 997.3}, new float[] {1, 0}));
+    }
+
+    @Test
+    public void get_convertsLikeThePlayback() {
+        ToneCache.Block bytes = ToneCache.get(FS, 8, new double[] {750}, new float[] {1});
+        assertEquals(127, bytes.bytes[0]);
+        assertEquals(1, bytes.frameSize());
+
+        ToneCache.Block ints = ToneCache.get(FS, 32, new double[] {750}, new float[] {1});
+        assertEquals(4, ints.frameSize());
+        ByteBuffer data = ByteBuffer.wrap(ints.bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(Integer.MAX_VALUE, data.getInt(0));
+        assertEquals(0, data.getInt(16 * 4), 2000);
+    }
+
+    @Test
+    public void phasesAt_followsTheToneOfEachChannel() {
+        ToneCache.Block block =
+                ToneCache.get(FS, 16, new double[] {1000, 3000}, new float[] {1, 1});
+        double[] phases = new double[2];
+        block.phasesAt(12, phases);
+        assertEquals(Math.PI / 2, phases[0], TOLERANCE);
+        assertEquals(3 * Math.PI / 2, phases[1], TOLERANCE);
+    }
+
+    // A tone carries on from the first frame of the block at its phase
+    @Test
+    public void offsetOf_findsTheFrameAtThePhases() {
+        ToneCache.Block block = ToneCache.get(FS, 16, new double[] {1000}, new float[] {1});
+        double[] phases = new double[1];
+        block.phasesAt(30 + 48 * 7, phases);
+        assertEquals(30, block.offsetOf(phases, 1e-3));
+
+        // Between two frames, within the tolerance or not
+        phases[0] += 2 * Math.PI * 1000 / FS * 0.4;
+        assertEquals(-1, block.offsetOf(phases, 1e-3));
+        assertEquals(30, block.offsetOf(phases, 0.06));
+        // The same angle a turn away
+        phases[0] = 2 * Math.PI * (30.0 / 48 - 3);
+        assertEquals(30, block.offsetOf(phases, 1e-3));
+    }
+
+    @Test
+    public void offsetOf_needsEveryAudibleChannelToMatch() {
+        ToneCache.Block block =
+                ToneCache.get(FS, 16, new double[] {1000, 2000}, new float[] {1, 1});
+        // The second channel is half a turn in wherever the first one is a quarter of a turn in
+        assertEquals(-1, block.offsetOf(new double[] {Math.PI / 2, 0}, 1e-3));
+        assertEquals(12, block.offsetOf(new double[] {Math.PI / 2, Math.PI}, 1e-3));
+
+        double[] phases = new double[2];
+        block.phasesAt(17, phases);
+        assertEquals(17, block.offsetOf(phases, 1e-3));
+
+        ToneCache.Block muted =
+                ToneCache.get(FS, 16, new double[] {1000, 2000}, new float[] {1, 0});
+        assertEquals(17, muted.offsetOf(new double[] {phases[0], 0}, 1e-3));
+    }
+}
@@ -0,0 +1,73 @@
+package com.google.audioworker.utils.signalproc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+public class ToneFileGeneratorTest {
+    private static final int FS = 8000;
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    // The data chunk of the file, right after the 44 bytes of the header
+    private ByteBuffer generate(int bitWidth, double[] freqs, float[] amps, int millis)
+            throws Exception {
+        File file = mFolder.newFile();
+        new ToneFileGenerator(FS, bitWidth, freqs, amps).generate(file.getPath(), millis);
+
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(data.capacity() - 44, data.getInt(40));
+        data.position(44);
+        return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static double tone(double freq, float amp, int frame) {
+        return amp * Math.cos(2 * Math.PI * freq * frame / FS);
+    }
+
+    // Rendered over several chunks, which must join without a phase jump
+    @Test
+    public void generate_writesTheTonesAtHalfOfThePositiveFullScale() throws Exception {
+        double[] freqs = {440, 1234.5};
+        float[] amps = {1, 0.5f};
+        int frames = FS * 5 / 2;
+        ByteBuffer data = generate(16, freqs, amps, 2500);
+
+        assertEquals(frames * 2 * 2, data.remaining());
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < 2; c++) {
+                double expected = 16384 * tone(freqs[c], amps[c], i);
+                assertEquals(expected, data.getShort((i * 2 + c) * 2), 1);
+            }
+        }
+    }
+
+    @Test
+    public void generate_writesUnsigned8BitData() throws Exception {
+        ByteBuffer data = generate(8, new double[] {1000}, new float[] {1}, 100);
+
+        assertEquals(FS / 10, data.remaining());
+        assertEquals(128 + 64, data.get(0) & 0xFF);
+        // Half a period of 1 kHz later
+        assertEquals(128 - 64, data.get(4) & 0xFF);
+        for (int i = 0; i < FS / 10; i++)
+            assertEquals(128 + 64 * tone(1000, 1, i), data.get(i) & 0xFF, 1);
+    }
+
+    @Test
+    public void generate_writes32BitData() throws Exception {
+        ByteBuffer data = generate(32, new double[] {500}, new float[] {0.25f}, 50);
+
+        assertEquals(FS / 20 * 4, data.remaining());
+        for (int i = 0; i < FS / 20; i++)
+            assertEquals((double) (1 << 30) * tone(500, 0.25f, i), data.getInt(i * 4), 1);
+    }
+}
@@ -0,0 +1,141 @@
+package com.google.audioworker.utils.signalproc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class WavWriterTest {
+    private static final long FOUR_GIGABYTES = 0x100000000L;
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static ByteBuffer read(File file) throws Exception {
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String tag(ByteBuffer buffer, int index) {
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) bytes[i] = buffer.get(index + i);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static long uint(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xFFFFFFFFL;
+    }
+
+    @Test
+    public void close_patchesTheSizes() throws Exception {
+        File file = mFolder.newFile();
+        try (WavWriter writer = new WavWriter(file.getPath(), 48000, 2, 16)) {
+            writer.write(new short[] {1, -1, 2, -2, 3, -3}, 0, 6);
+            assertEquals(12, writer.getDataLength());
+        }
+
+        ByteBuffer wav = read(file);
+        assertEquals(44 + 12, wav.capacity());
+        assertEquals("RIFF", tag(wav, 0));
+        assertEquals(36 + 12, uint(wav, 4));
+        assertEquals("data", tag(wav, 36));
+        assertEquals(12, uint(wav, 40));
+        assertEquals(-3, wav.getShort(54));
+    }
+
+    @Test
+    public void sync_patchesTheSizesBeforeClose() throws Exception {
+        File file = mFolder.newFile();
+        WavWriter writer = new WavWriter(file.getPath(), 8000, 1, 32);
+        writer.write(new int[] {7, 8}, 0, 2);
+        writer.sync();
+
+        ByteBuffer wav = read(file);
+        assertEquals(8, uint(wav, 40));
+        assertEquals(8, wav.getInt(48));
+        writer.close();
+    }
+
+    // The room of the ds64 chunk is a JUNK chunk that any RIFF reader skips
+    @Test
+    public void rf64Reservation_isAJunkChunkWhileTheDataFits() throws Exception {
+        File file = mFolder.newFile();
+        try (WavWriter writer = new WavWriter(file.getPath(), 48000, 1, 16, true)) {
+            writer.write(new short[] {5, 6}, 0, 2);
+        }
+
+        ByteBuffer wav = read(file);
+        assertEquals(80 + 4, wav.capacity());
+        assertEquals("RIFF", tag(wav, 0));
+        assertEquals(72 + 4, uint(wav, 4));
+        assertEquals("JUNK", tag(wav, 12));
+        assertEquals(28, uint(wav, 16));
+        assertEquals("fmt ", tag(wav, 48));
+        assertEquals("data", tag(wav, 72));
+        assertEquals(4, uint(wav, 76));
+        assertEquals(6, wav.getShort(82));
+    }
+
+    @Test
+    public void patchedHeader_becomesRf64BeyondTheRiffSizes() {
+        long dataLength = 5 * FOUR_GIGABYTES / 4 * 4;
+        ByteBuffer header = WavWriter.createPatchedHeader(48000, 2, 16, dataLength, true);
+
+        assertEquals(80, header.remaining());
+        assertEquals("RF64", tag(header, 0));
+        assertEquals(0xFFFFFFFFL, uint(header, 4));
+        assertEquals("WAVE", tag(header, 8));
+        assertEquals("ds64", tag(header, 12));
+        assertEquals(28, uint(header, 16));
+        assertEquals(72 + dataLength, header.getLong(20));
+        assertEquals(dataLength, header.getLong(28));
+        assertEquals(dataLength / 4, header.getLong(36));
+        assertEquals(0, header.getInt(44));
+        assertEquals("fmt ", tag(header, 48));
+        assertEquals(2, header.getShort(58));
+        assertEquals("data", tag(header, 72));
+        assertEquals(0xFFFFFFFFL, uint(header, 76));
+    }
+
+    @Test
+    public void patchedHeader_staysRiffUpToTheLastByteItHolds() {
+        long dataLength = FOUR_GIGABYTES - 1 - 72;
+        ByteBuffer header = WavWriter.createPatchedHeader(48000, 1, 8, dataLength, true);
+        assertEquals("RIFF", tag(header, 0));
+        assertEquals(0xFFFFFFFFL, uint(header, 4));
+        assertEquals("JUNK", tag(header, 12));
+        assertEquals(dataLength, uint(header, 76));
+
+        assertEquals(
+                "RF64", tag(WavWriter.createPatchedHeader(48000, 1, 8, dataLength + 1, true), 0));
+    }
+
+    // Without the reservation the sizes can only be clamped
+    @Test
+    public void patchedHeader_clampsWithoutTheReservation() {
+        ByteBuffer header = WavWriter.createPatchedHeader(48000, 1, 16, FOUR_GIGABYTES, false);
+        assertEquals(44, header.remaining());
+        assertEquals("RIFF", tag(header, 0));
+        assertEquals(0xFFFFFFFFL, uint(header, 4));
+        assertEquals(0xFFFFFFFFL, uint(header, 40));
+    }
+
+    @Test
+    public void writeFloat_writesUnsigned8BitData() throws Exception {
+        File file = mFolder.newFile();
+        try (WavWriter writer = new WavWriter(file.getPath(), 8000, 1, 8)) {
+            writer.write(new float[] {0, 1, -1, 2}, 0, 4);
+        }
+
+        ByteBuffer wav = read(file);
+        assertEquals(128, wav.get(44) & 0xFF);
+        assertEquals(255, wav.get(45) & 0xFF);
+        assertEquals(1, wav.get(46) & 0xFF);
+        assertEquals(255, wav.get(47) & 0xFF);
+    }
+}